@@ -0,0 +1,86 @@
+package org.lwjglb.engine.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.lwjglb.engine.items.GameItem;
+import org.lwjglb.engine.spatial.BVH;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frustum culling of items spread in a cube around the camera, about a
+ * sixth of them are visible. Meshes need a GL context, so the items are
+ * points without meshes: each has a single visibility slot, which is what
+ * VisibilitySet.cull writes for items with one mesh.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrustumCullingBenchmark {
+
+    private static final float WORLD_SIZE = 1000.0f;
+
+    @Param({"1000", "10000", "100000"})
+    public int numItems;
+
+    private FrustumIntersection frustumInt;
+
+    private BVH bvh;
+
+    private VisibilitySet visibility;
+
+    private List<GameItem> visibleItems;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        bvh = new BVH();
+        visibility = new VisibilitySet();
+        for (int i = 0; i < numItems; i++) {
+            GameItem gameItem = new GameItem();
+            gameItem.setPosition((random.nextFloat() - 0.5f) * WORLD_SIZE, (random.nextFloat() - 0.5f) * WORLD_SIZE,
+                    (random.nextFloat() - 0.5f) * WORLD_SIZE);
+            bvh.insert(gameItem);
+            visibility.register(gameItem);
+        }
+        visibleItems = new ArrayList<>(numItems);
+
+        Matrix4f projectionMatrix = new Matrix4f().setPerspective((float) Math.toRadians(60), 16.0f / 9.0f, 0.01f, WORLD_SIZE);
+        Matrix4f viewMatrix = new Matrix4f().setLookAt(0, 0, 0, 0, 0, -1, 0, 1, 0);
+        frustumInt = new FrustumIntersection(new Matrix4f(projectionMatrix).mul(viewMatrix));
+    }
+
+    @Benchmark
+    public List<GameItem> filter() {
+        visibility.clear(VisibilitySet.VIEW_CAMERA);
+        visibleItems.clear();
+        bvh.queryFrustum(frustumInt, visibleItems);
+        for (GameItem gameItem : visibleItems) {
+            visibility.setAll(VisibilitySet.VIEW_CAMERA, gameItem);
+        }
+        return visibleItems;
+    }
+
+    @Benchmark
+    public List<GameItem> queryBvh() {
+        visibleItems.clear();
+        bvh.queryFrustum(frustumInt, visibleItems);
+        return visibleItems;
+    }
+}
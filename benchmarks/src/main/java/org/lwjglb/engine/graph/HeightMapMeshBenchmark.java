@@ -0,0 +1,55 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Geometry of a height map built from a random RGBA image, the GL mesh is
+ * not created.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeightMapMeshBenchmark {
+
+    @Param({"128", "512"})
+    public int size;
+
+    private ByteBuffer heightMapImage;
+
+    private float[] positions;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        byte[] pixels = new byte[size * size * 4];
+        random.nextBytes(pixels);
+        heightMapImage = ByteBuffer.wrap(pixels);
+        positions = new HeightMapMesh(-0.1f, 0.1f, heightMapImage, size, size, 40).getPositions();
+    }
+
+    @Benchmark
+    public HeightMapMesh build() {
+        return new HeightMapMesh(-0.1f, 0.1f, heightMapImage, size, size, 40);
+    }
+
+    @Benchmark
+    public float[] calcNormals() {
+        return HeightMapMesh.calcNormals(positions, size, size);
+    }
+}
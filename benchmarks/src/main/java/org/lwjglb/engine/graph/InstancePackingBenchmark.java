@@ -0,0 +1,75 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.joml.Matrix4f;
+import org.lwjglb.engine.items.GameItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packing of the per instance data, as done for each chunk drawn by
+ * InstancedMesh, into an off heap buffer like the one that is uploaded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstancePackingBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numItems;
+
+    @Param({"false", "true"})
+    public boolean billBoard;
+
+    private List<GameItem> gameItems;
+
+    private FloatBuffer buffer;
+
+    private Texture texture;
+
+    private Matrix4f viewMatrix;
+
+    private Matrix4f modelMatrix;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        gameItems = new ArrayList<>(numItems);
+        for (int i = 0; i < numItems; i++) {
+            GameItem gameItem = new GameItem();
+            gameItem.setPosition(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 100);
+            gameItem.setTextPos(random.nextInt(16));
+            gameItems.add(gameItem);
+        }
+        buffer = ByteBuffer.allocateDirect(numItems * InstancedMesh.INSTANCE_SIZE_FLOATS * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        // Only the layout of the texture is used, there is no GL texture behind it
+        texture = new Texture(0, 256, 256, 4, 4);
+        viewMatrix = new Matrix4f().setLookAt(0, 10, 10, 0, 0, 0, 0, 1, 0);
+        modelMatrix = new Matrix4f();
+    }
+
+    @Benchmark
+    public FloatBuffer pack() {
+        InstancedMesh.packInstances(buffer, gameItems, 0, numItems, 0, billBoard, texture, viewMatrix, modelMatrix);
+        return buffer;
+    }
+}
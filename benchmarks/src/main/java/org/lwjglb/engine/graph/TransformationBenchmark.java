@@ -0,0 +1,72 @@
+package org.lwjglb.engine.graph;
+
+import java.util.concurrent.TimeUnit;
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.lwjglb.engine.items.GameItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Model matrices of items that have not moved, that have moved and that
+ * hang from a moving parent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformationBenchmark {
+
+    private Transformation transformation;
+
+    private GameItem gameItem;
+
+    private GameItem parent;
+
+    private GameItem child;
+
+    private float x;
+
+    @Setup
+    public void setup() {
+        transformation = new Transformation();
+        gameItem = new GameItem();
+        gameItem.setPosition(1, 2, 3);
+        gameItem.setRotation(new Quaternionf().rotateXYZ(0.1f, 0.2f, 0.3f));
+        gameItem.setScale(2.0f);
+
+        parent = new GameItem();
+        child = new GameItem();
+        child.setPosition(0, 1, 0);
+        parent.addChild(child);
+    }
+
+    @Benchmark
+    public Matrix4f unchanged() {
+        return transformation.buildModelMatrix(gameItem);
+    }
+
+    @Benchmark
+    public Matrix4f moved() {
+        x += 0.001f;
+        gameItem.setPosition(x, 2, 3);
+        return transformation.buildModelMatrix(gameItem);
+    }
+
+    @Benchmark
+    public Matrix4f movedParent() {
+        x += 0.001f;
+        parent.setPosition(x, 0, 0);
+        return transformation.buildModelMatrix(child);
+    }
+}
@@ -0,0 +1,54 @@
+package org.lwjglb.engine.graph.particles;
+
+import java.util.concurrent.TimeUnit;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Update of an emitter that is full, particles live long enough to never
+ * expire during the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlowParticleEmitterBenchmark {
+
+    @Param({"10000"})
+    public int numParticles;
+
+    private FlowParticleEmitter emitter;
+
+    @Setup
+    public void setup() {
+        // The mesh is never drawn, the texture animation frames are given
+        Particle baseParticle = new Particle(null, new Vector3f(0, 1, 0), Long.MAX_VALUE / 2, 50, 16);
+        emitter = new FlowParticleEmitter(baseParticle, numParticles, 0);
+        emitter.setPositionRndRange(0.5f);
+        emitter.setSpeedRndRange(0.5f);
+        emitter.setScaleRndRange(0.1f);
+        emitter.setAnimRange(10);
+        emitter.setActive(true);
+        for (int i = 0; i < numParticles; i++) {
+            emitter.update(16);
+        }
+    }
+
+    @Benchmark
+    public FlowParticleEmitter update() {
+        emitter.update(16);
+        return emitter;
+    }
+}
@@ -0,0 +1,66 @@
+package org.lwjglb.engine.items;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.HeightMapMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Height queries at random points of a terrain made of blocks that share a
+ * random height map.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TerrainBenchmark {
+
+    private static final int NUM_POSITIONS = 1024;
+
+    private static final float SCALE = 10.0f;
+
+    @Param({"1", "8"})
+    public int terrainSize;
+
+    private Terrain terrain;
+
+    private Vector3f[] positions;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        int size = 256;
+        Random random = new Random(42);
+        byte[] pixels = new byte[size * size * 4];
+        random.nextBytes(pixels);
+        HeightMapMesh heightMapMesh = new HeightMapMesh(-0.1f, 0.1f, ByteBuffer.wrap(pixels), size, size, 40);
+        terrain = new Terrain(terrainSize, SCALE, heightMapMesh);
+
+        float extent = terrainSize * SCALE * 0.99f;
+        positions = new Vector3f[NUM_POSITIONS];
+        for (int i = 0; i < NUM_POSITIONS; i++) {
+            positions[i] = new Vector3f((random.nextFloat() - 0.5f) * extent, 0, (random.nextFloat() - 0.5f) * extent);
+        }
+    }
+
+    @Benchmark
+    public float getHeight() {
+        next = (next + 1) % NUM_POSITIONS;
+        return terrain.getHeight(positions[next]);
+    }
+}
@@ -0,0 +1,85 @@
+package org.lwjglb.engine.loaders.assimp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.joml.Matrix4f;
+import org.lwjglb.engine.graph.anim.AnimatedFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Skeleton animation frames of a synthetic rig shaped like the md5 models
+ * of the demo: a spine with two arms, two legs and a head.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnimationBenchmark {
+
+    private static final int NUM_FRAMES = 60;
+
+    private static final int BONES_PER_LIMB = 6;
+
+    private Node rootNode;
+
+    private Node leafNode;
+
+    private List<Bone> boneList;
+
+    private Matrix4f rootTransformation;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        boneList = new ArrayList<>();
+        rootNode = createNode("root", null, random);
+        Node spine = rootNode;
+        for (int i = 0; i < BONES_PER_LIMB; i++) {
+            spine = createNode("spine" + i, spine, random);
+        }
+        for (String limb : new String[]{"armL", "armR", "legL", "legR", "head"}) {
+            Node node = limb.startsWith("leg") ? rootNode : spine;
+            for (int i = 0; i < BONES_PER_LIMB; i++) {
+                node = createNode(limb + i, node, random);
+            }
+            leafNode = node;
+        }
+        rootTransformation = new Matrix4f().rotateX((float) Math.toRadians(-90));
+    }
+
+    private Node createNode(String name, Node parent, Random random) {
+        Node node = new Node(name, parent);
+        if (parent != null) {
+            parent.addChild(node);
+        }
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            node.addTransformation(new Matrix4f().translation(0, 1, 0)
+                    .rotateXYZ(random.nextFloat() * 0.2f, random.nextFloat() * 0.2f, random.nextFloat() * 0.2f));
+        }
+        boneList.add(new Bone(boneList.size(), name, new Matrix4f().translation(0, -boneList.size(), 0)));
+        return node;
+    }
+
+    @Benchmark
+    public Matrix4f getParentTransforms() {
+        return Node.getParentTransforms(leafNode, NUM_FRAMES / 2);
+    }
+
+    @Benchmark
+    public List<AnimatedFrame> buildAnimationFrames() {
+        return AnimMeshesLoader.buildAnimationFrames(boneList, rootNode, rootTransformation);
+    }
+}
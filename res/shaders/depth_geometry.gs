@@ -0,0 +1,43 @@
+#version 330
+
+const int NUM_CASCADES = 3;
+
+layout (triangles) in;
+layout (triangle_strip, max_vertices = 9) out;
+
+uniform mat4 lightProjViewMatrix[NUM_CASCADES];
+// One bit per cascade to be rendered
+uniform int cascadeMask;
+
+void main()
+{
+    for (int i = 0; i < NUM_CASCADES; i++)
+    {
+        if ( (cascadeMask & (1 << i)) == 0 )
+        {
+            continue;
+        }
+        vec4 pos0 = lightProjViewMatrix[i] * gl_in[0].gl_Position;
+        vec4 pos1 = lightProjViewMatrix[i] * gl_in[1].gl_Position;
+        vec4 pos2 = lightProjViewMatrix[i] * gl_in[2].gl_Position;
+
+        // Skip triangles outside the cascade, the projection is orthographic so w is 1
+        vec2 minPos = min(pos0.xy, min(pos1.xy, pos2.xy));
+        vec2 maxPos = max(pos0.xy, max(pos1.xy, pos2.xy));
+        if ( any(greaterThan(minPos, vec2(1.0))) || any(lessThan(maxPos, vec2(-1.0))) )
+        {
+            continue;
+        }
+
+        gl_Layer = i;
+        gl_Position = pos0;
+        EmitVertex();
+        gl_Layer = i;
+        gl_Position = pos1;
+        EmitVertex();
+        gl_Layer = i;
+        gl_Position = pos2;
+        EmitVertex();
+        EndPrimitive();
+    }
+}
@@ -5,16 +5,14 @@ const int MAX_JOINTS = 150;
 
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
-layout (location=2) in vec3 vertexNormal;
+layout (location=2) in vec2 vertexNormal;
 layout (location=3) in vec4 jointWeights;
 layout (location=4) in ivec4 jointIndices;
 layout (location=5) in mat4 modelInstancedMatrix;
 
 uniform int isInstanced;
 uniform mat4 modelNonInstancedMatrix;
-uniform mat4 lightViewMatrix;
 uniform mat4 jointsMatrix[MAX_JOINTS];
-uniform mat4 orthoProjectionMatrix;
 
 void main()
 {
@@ -45,5 +43,6 @@ void main()
             initPos = vec4(position, 1.0);
         }
     }
-    gl_Position = orthoProjectionMatrix * lightViewMatrix * modelMatrix * initPos;
+    // World coordinates, the geometry shader projects them into each cascade
+    gl_Position = modelMatrix * initPos;
 }
@@ -2,15 +2,18 @@
 
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
-layout (location=2) in vec3 vertexNormal;
+layout (location=2) in vec2 vertexNormal;
 layout (location=5) in mat4 modelMatrix;
 layout (location=9) in vec2 texOffset;
 layout (location=10) in float scale;
 
 out vec2 outTexCoord;
 
-uniform mat4 viewMatrix;
-uniform mat4 projectionMatrix;
+layout (std140) uniform Matrices
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+};
 
 uniform int numCols;
 uniform int numRows;
@@ -2,12 +2,17 @@
 
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
-layout (location=2) in vec3 vertexNormal;
+layout (location=2) in vec2 vertexNormal;
 
 out vec2 outTexCoord;
 
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
+
+layout (std140) uniform Matrices
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+};
 
 void main()
 {
@@ -6,7 +6,7 @@ const int NUM_CASCADES = 3;
 
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
-layout (location=2) in vec3 vertexNormal;
+layout (location=2) in vec2 vertexNormal;
 layout (location=3) in vec4 jointWeights;
 layout (location=4) in ivec4 jointIndices;
 layout (location=5) in mat4 modelInstancedMatrix;
@@ -20,19 +20,40 @@ out vec4 mlightviewVertexPos[NUM_CASCADES];
 out mat4 outModelViewMatrix;
 out float outSelected;
 
+layout (std140) uniform Matrices
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+};
+
+layout (std140) uniform Shadows
+{
+    mat4 lightViewMatrix[NUM_CASCADES];
+    mat4 orthoProjectionMatrix[NUM_CASCADES];
+    vec4 cascadeFarPlanes;
+    int renderShadow;
+};
+
 uniform int isInstanced;
-uniform mat4 viewMatrix;
-uniform mat4 projectionMatrix;
 uniform mat4 modelNonInstancedMatrix;
 uniform mat4 jointsMatrix[MAX_JOINTS];
-uniform mat4 lightViewMatrix[NUM_CASCADES];
-uniform mat4 orthoProjectionMatrix[NUM_CASCADES];
 uniform int numCols;
 uniform int numRows;
 uniform float selectedNonInstanced;
 
+vec3 octDecode(vec2 e)
+{
+    // Normals are stored octahedral encoded, see VertexFormat
+    vec3 n = vec3(e.xy, 1.0 - abs(e.x) - abs(e.y));
+    float t = max(-n.z, 0.0);
+    n.x += n.x >= 0.0 ? -t : t;
+    n.y += n.y >= 0.0 ? -t : t;
+    return normalize(n);
+}
+
 void main()
 {
+    vec3 normal = octDecode(vertexNormal);
     vec4 initPos = vec4(0, 0, 0, 0);
     vec4 initNormal = vec4(0, 0, 0, 0);
     mat4 modelMatrix;
@@ -42,7 +63,7 @@ void main()
         modelMatrix = modelInstancedMatrix;
 
         initPos = vec4(position, 1.0);
-        initNormal = vec4(vertexNormal, 0.0);
+        initNormal = vec4(normal, 0.0);
     }
     else
     {
@@ -59,14 +80,14 @@ void main()
                 vec4 tmpPos = jointsMatrix[jointIndex] * vec4(position, 1.0);
                 initPos += weight * tmpPos;
 
-                vec4 tmpNormal = jointsMatrix[jointIndex] * vec4(vertexNormal, 0.0);
+                vec4 tmpNormal = jointsMatrix[jointIndex] * vec4(normal, 0.0);
                 initNormal += weight * tmpNormal;
             }
         }
         if (count == 0)
         {
             initPos = vec4(position, 1.0);
-            initNormal = vec4(vertexNormal, 0.0);
+            initNormal = vec4(normal, 0.0);
         }
     }
     mat4 modelViewMatrix =  viewMatrix * modelMatrix;
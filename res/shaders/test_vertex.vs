@@ -2,7 +2,7 @@
 
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
-layout (location=2) in vec3 vertexNormal;
+layout (location=2) in vec2 vertexNormal;
 
 out vec2 outTexCoord;
 
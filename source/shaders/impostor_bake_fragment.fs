@@ -0,0 +1,26 @@
+#version 330
+
+in vec2 outTexCoord;
+in vec3 outNormal;
+
+layout (location=0) out vec4 fragColour;
+layout (location=1) out vec4 fragNormal;
+
+uniform sampler2D texture_sampler;
+uniform vec4 diffuseColour;
+uniform int hasTexture;
+
+void main()
+{
+    vec4 colour = diffuseColour;
+    if (hasTexture == 1)
+    {
+        colour = texture(texture_sampler, outTexCoord);
+    }
+    if (colour.a < 0.5)
+    {
+        discard;
+    }
+    fragColour = vec4(colour.rgb, 1.0);
+    fragNormal = vec4(normalize(outNormal) * 0.5 + 0.5, 1.0);
+}
@@ -0,0 +1,29 @@
+#version 330
+
+layout (location=0) in vec3 position;
+layout (location=1) in vec2 texCoord;
+layout (location=2) in vec2 vertexNormal;
+
+out vec2 outTexCoord;
+out vec3 outNormal;
+
+uniform mat4 projectionMatrix;
+uniform mat4 viewMatrix;
+
+vec3 octDecode(vec2 e)
+{
+    // Normals are stored octahedral encoded, see VertexFormat
+    vec3 n = vec3(e.xy, 1.0 - abs(e.x) - abs(e.y));
+    float t = max(-n.z, 0.0);
+    n.x += n.x >= 0.0 ? -t : t;
+    n.y += n.y >= 0.0 ? -t : t;
+    return normalize(n);
+}
+
+void main()
+{
+    gl_Position = projectionMatrix * viewMatrix * vec4(position, 1.0);
+    outTexCoord = texCoord;
+    // Normals are stored in the view space of the cell
+    outNormal = (viewMatrix * vec4(octDecode(vertexNormal), 0.0)).xyz;
+}
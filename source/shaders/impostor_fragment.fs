@@ -0,0 +1,82 @@
+#version 330
+
+const int MAX_POINT_LIGHTS = 5;
+const int MAX_SPOT_LIGHTS = 5;
+
+in vec2 outTexCoord;
+in vec3 mvVertexPos;
+
+out vec4 fragColor;
+
+struct Attenuation
+{
+    float constant;
+    float linear;
+    float exponent;
+};
+
+struct PointLight
+{
+    vec3 colour;
+    vec3 position;
+    float intensity;
+    Attenuation att;
+};
+
+struct SpotLight
+{
+    PointLight pl;
+    vec3 conedir;
+    float cutoff;
+};
+
+struct DirectionalLight
+{
+    vec3 colour;
+    vec3 direction;
+    float intensity;
+};
+
+struct Fog
+{
+    int activeFog;
+    vec3 colour;
+    float density;
+};
+
+uniform sampler2D texture_sampler;
+uniform sampler2D normalMap;
+
+// Lights and fog, already transformed to view coordinates
+layout (std140) uniform Lights
+{
+    vec3 ambientLight;
+    float specularPower;
+    DirectionalLight directionalLight;
+    PointLight pointLights[MAX_POINT_LIGHTS];
+    SpotLight spotLights[MAX_SPOT_LIGHTS];
+    Fog fog;
+};
+
+void main()
+{
+    vec4 colour = texture(texture_sampler, outTexCoord);
+    if (colour.a < 0.5)
+    {
+        discard;
+    }
+
+    // The cell is seen from its own view direction, so its normals are already in view space
+    vec3 normal = normalize(texture(normalMap, outTexCoord).xyz * 2 - 1);
+    float diffuseFactor = max(dot(normal, normalize(directionalLight.direction)), 0.0);
+    vec3 light = ambientLight + directionalLight.colour * directionalLight.intensity * diffuseFactor;
+    fragColor = vec4(clamp(colour.rgb * light, 0, 1), 1);
+
+    if (fog.activeFog == 1)
+    {
+        vec3 fogColor = fog.colour * (ambientLight + directionalLight.colour * directionalLight.intensity);
+        float distance = length(mvVertexPos);
+        float fogFactor = clamp(1.0 / exp((distance * fog.density) * (distance * fog.density)), 0.0, 1.0);
+        fragColor = vec4(mix(fogColor, fragColor.xyz, fogFactor), 1);
+    }
+}
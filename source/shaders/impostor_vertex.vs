@@ -0,0 +1,36 @@
+#version 330
+
+layout (location=0) in vec3 position;
+layout (location=1) in vec2 texCoord;
+layout (location=5) in mat4 modelMatrix;
+layout (location=9) in vec2 texOffset;
+layout (location=10) in float scale;
+
+out vec2 outTexCoord;
+out vec3 mvVertexPos;
+
+layout (std140) uniform Matrices
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+};
+
+uniform int numCols;
+uniform int numRows;
+
+void main()
+{
+    mat4 modelViewMatrix = viewMatrix * modelMatrix;
+    // Face the camera, keeping the size of the item
+    modelViewMatrix[0][0] = scale;
+    modelViewMatrix[1][1] = scale;
+    modelViewMatrix[2][2] = scale;
+    vec4 mvPos = modelViewMatrix * vec4(position, 1.0);
+    gl_Position = projectionMatrix * mvPos;
+
+    // Select the cell of the atlas
+    float x = (texCoord.x / numCols + texOffset.x);
+    float y = (texCoord.y / numRows + texOffset.y);
+    outTexCoord = vec2(x, y);
+    mvVertexPos = mvPos.xyz;
+}
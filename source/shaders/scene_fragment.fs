@@ -62,18 +62,28 @@ struct Fog
 
 uniform sampler2D texture_sampler;
 uniform sampler2D normalMap;
-uniform sampler2D shadowMap_0;
-uniform sampler2D shadowMap_1;
-uniform sampler2D shadowMap_2;
-uniform vec3 ambientLight;
-uniform float specularPower;
+// One layer per cascade
+uniform sampler2DArrayShadow shadowMap;
 uniform Material material;
-uniform PointLight pointLights[MAX_POINT_LIGHTS];
-uniform SpotLight spotLights[MAX_SPOT_LIGHTS];
-uniform DirectionalLight directionalLight;
-uniform Fog fog;
-uniform float cascadeFarPlanes[NUM_CASCADES];
-uniform int renderShadow;
+
+// Lights and fog, already transformed to view coordinates
+layout (std140) uniform Lights
+{
+    vec3 ambientLight;
+    float specularPower;
+    DirectionalLight directionalLight;
+    PointLight pointLights[MAX_POINT_LIGHTS];
+    SpotLight spotLights[MAX_SPOT_LIGHTS];
+    Fog fog;
+};
+
+layout (std140) uniform Shadows
+{
+    mat4 lightViewMatrix[NUM_CASCADES];
+    mat4 orthoProjectionMatrix[NUM_CASCADES];
+    vec4 cascadeFarPlanes;
+    int renderShadow;
+};
 
 vec4 ambientC;
 vec4 diffuseC;
@@ -183,51 +193,24 @@ float calcShadow(vec4 position, int idx)
     vec3 projCoords = position.xyz;
     // Transform from screen coordinates to texture coordinates
     projCoords = projCoords * 0.5 + 0.5;
-    float bias = 0.005;
-
-    float shadowFactor = 0.0;
-    vec2 inc;
-    if (idx == 0)
+    if ( projCoords.z > 1.0 )
     {
-        inc = 1.0 / textureSize(shadowMap_0, 0);
-    }
-    else if (idx == 1)
-    {
-        inc = 1.0 / textureSize(shadowMap_1, 0);
-    }
-    else
-    {
-        inc = 1.0 / textureSize(shadowMap_2, 0);
+        return 0.0;
     }
+    float bias = 0.005;
+
+    // Each sample returns the filtered result of the depth comparison
+    float lightFactor = 0.0;
+    vec2 inc = 1.0 / textureSize(shadowMap, 0).xy;
     for(int row = -1; row <= 1; ++row)
     {
         for(int col = -1; col <= 1; ++col)
         {
-            float textDepth;
-            if (idx == 0)
-            {
-                textDepth = texture(shadowMap_0, projCoords.xy + vec2(row, col) * inc).r; 
-            }
-            else if (idx == 1)
-            {
-                textDepth = texture(shadowMap_1, projCoords.xy + vec2(row, col) * inc).r; 
-            }
-            else
-            {
-                textDepth = texture(shadowMap_2, projCoords.xy + vec2(row, col) * inc).r; 
-            }
-            shadowFactor += projCoords.z - bias > textDepth ? 1.0 : 0.0;        
-        }    
-    }
-    shadowFactor /= 9.0;
-
-    if(projCoords.z > 1.0)
-    {
-        shadowFactor = 1.0;
+            lightFactor += texture(shadowMap, vec4(projCoords.xy + vec2(row, col) * inc, idx, projCoords.z - bias));
+        }
     }
-
-    return 1 - shadowFactor;
-} 
+    return lightFactor / 9.0;
+}
 
 void main()
 {
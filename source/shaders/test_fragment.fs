@@ -1,13 +1,12 @@
 #version 330
 
-const int NUM_CASCADES = 3;
-
 in vec2 outTexCoord;
 out vec4 fragColor;
 
-uniform sampler2D texture_sampler[NUM_CASCADES];
+uniform sampler2DArray texture_sampler;
+uniform int cascade;
 
 void main()
 {
-    fragColor = texture(texture_sampler[0], outTexCoord);
-}
\ No newline at end of file
+    fragColor = vec4(vec3(texture(texture_sampler, vec3(outTexCoord, cascade)).r), 1);
+}
@@ -5,7 +5,10 @@ import static org.lwjgl.glfw.GLFW.*;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.opengl.GL;
+import org.lwjglb.engine.graph.OffscreenBuffer;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 public class EWindow {
@@ -25,6 +28,13 @@ public class EWindow {
      */
     public static final float Z_FAR = 1000.f;
 
+    /**
+     * Size of the offscreen buffer when running headless without a size
+     */
+    public static final int HEADLESS_WIDTH = 1280;
+
+    public static final int HEADLESS_HEIGHT = 720;
+
     private final String title;
 
     private int width;
@@ -41,6 +51,12 @@ public class EWindow {
 
     private final Matrix4f projectionMatrix;
 
+    private OffscreenBuffer offscreenBuffer;
+
+    private InputTrace.Frame replayFrame;
+
+    private final ThreadLocal<InputSnapshot> inputSnapshot;
+
     public EWindow(String title, int width, int height, boolean vSync, EWindowOptions opts) {
         this.title = title;
         this.width = width;
@@ -49,9 +65,10 @@ public class EWindow {
         this.resized = false;
         this.opts = opts;
         projectionMatrix = new Matrix4f();
+        inputSnapshot = new ThreadLocal<>();
     }
 
-    public void init() {
+    public void init() throws Exception {
         // Setup an error callback. The default implementation
         // will print the error message in System.err.
         GLFWErrorCallback.createPrint(System.err).set();
@@ -63,7 +80,7 @@ public class EWindow {
 
         glfwDefaultWindowHints(); // optional, the current EWindow hints are already the default
         glfwWindowHint(GLFW_VISIBLE, GL_FALSE); // the EWindow will stay hidden after creation
-        glfwWindowHint(GLFW_RESIZABLE, GL_TRUE); // the EWindow will be resizable
+        glfwWindowHint(GLFW_RESIZABLE, opts.headless ? GL_FALSE : GL_TRUE); // the EWindow will be resizable
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
         glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 2);
         if (opts.compatibleProfile) {
@@ -74,8 +91,15 @@ public class EWindow {
         }
 
         boolean maximized = false;
-        // If no size has been specified set it to maximized state
-        if (width == 0 || height == 0) {
+        if (opts.headless) {
+            // Frames are drawn offscreen at a fixed size, the window only holds the context
+            vSync = false;
+            if (width == 0 || height == 0) {
+                width = HEADLESS_WIDTH;
+                height = HEADLESS_HEIGHT;
+            }
+        } else if (width == 0 || height == 0) {
+            // If no size has been specified set it to maximized state
             // Set up a fixed width and height so EWindow initialization does not fail
             width = 100;
             height = 100;
@@ -102,7 +126,7 @@ public class EWindow {
             }
         });
 
-        if (!maximized) {
+        if (!maximized && !opts.headless) {
             // Get the resolution of the primary monitor
             GLFWVidMode vidmode = glfwGetVideoMode(glfwGetPrimaryMonitor());
             // Center our EWindow
@@ -119,13 +143,21 @@ public class EWindow {
         if (isvSync()) {
             // Enable v-sync
             glfwSwapInterval(1);
+        } else {
+            glfwSwapInterval(0);
         }
 
-        // Make the EWindow visible
-        glfwShowWindow(EWindowHandle);
+        if (!opts.headless) {
+            // Make the EWindow visible
+            glfwShowWindow(EWindowHandle);
+        }
 
         GL.createCapabilities();
 
+        if (opts.headless) {
+            offscreenBuffer = new OffscreenBuffer(width, height);
+        }
+
         // Set the clear color
         glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
         glEnable(GL_DEPTH_TEST);
@@ -193,7 +225,63 @@ public class EWindow {
         glClearColor(r, g, b, alpha);
     }
 
+    /**
+     * Binds the framebuffer the frame is drawn to: the offscreen buffer when
+     * running headless, the window otherwise. Passes that draw to their own
+     * framebuffers must call it when they are done.
+     */
+    public void bindRenderTarget() {
+        if (offscreenBuffer != null) {
+            offscreenBuffer.bind();
+        } else {
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        }
+    }
+
+    /**
+     * @return The buffer frames are drawn to when headless, null otherwise
+     */
+    public OffscreenBuffer getOffscreenBuffer() {
+        return offscreenBuffer;
+    }
+
+    /**
+     * Makes the keyboard and the mouse report a recorded frame instead of
+     * the real devices.
+     *
+     * @param replayFrame The frame, null to go back to the real devices
+     */
+    public void setReplayFrame(InputTrace.Frame replayFrame) {
+        this.replayFrame = replayFrame;
+    }
+
+    public InputTrace.Frame getReplayFrame() {
+        return replayFrame;
+    }
+
+    /**
+     * Makes the keyboard report input sampled on the render thread, for the
+     * update thread of a pipelined engine, which cannot query GLFW. It only
+     * applies to the calling thread, the others still see the real keyboard.
+     *
+     * @param inputSnapshot The input, null to go back to the real keyboard
+     */
+    public void setInputSnapshot(InputSnapshot inputSnapshot) {
+        if (inputSnapshot != null) {
+            this.inputSnapshot.set(inputSnapshot);
+        } else {
+            this.inputSnapshot.remove();
+        }
+    }
+
     public boolean isKeyPressed(int keyCode) {
+        if (replayFrame != null) {
+            return replayFrame.isKeyPressed(keyCode);
+        }
+        InputSnapshot input = inputSnapshot.get();
+        if (input != null) {
+            return input.isKeyPressed(keyCode);
+        }
         return glfwGetKey(EWindowHandle, keyCode) == GLFW_PRESS;
     }
 
@@ -230,10 +318,19 @@ public class EWindow {
     }
 
     public void update() {
-        glfwSwapBuffers(EWindowHandle);
+        if (offscreenBuffer == null) {
+            glfwSwapBuffers(EWindowHandle);
+        }
         glfwPollEvents();
     }
 
+    public void cleanup() {
+        if (offscreenBuffer != null) {
+            offscreenBuffer.cleanup();
+            offscreenBuffer = null;
+        }
+    }
+
     public EWindowOptions getOptions() {
         return opts;
     }
@@ -251,5 +348,66 @@ public class EWindow {
         public boolean antialiasing;
 
         public boolean frustumCulling;        
+
+        /**
+         * Culls all the items in parallel over flat arrays instead of querying
+         * the scene spatial index. Suited to scenes where most items move.
+         */
+        public boolean parallelFrustumCulling;
+
+        /**
+         * Runs input and update on a thread of their own, which hands the
+         * state to render to the render thread through snapshots. The devices
+         * are still sampled on the render thread and handed the other way.
+         * The game must implement IGameLogic.snapshot and
+         * render(EWindow, RenderSnapshot).
+         */
+        public boolean pipelined;
+
+        /**
+         * Draws the static meshes of the scene and shadow passes with
+         * glMultiDrawElementsIndirect when OpenGL 4.3 is available.
+         */
+        public boolean multiDrawIndirect;
+
+        /**
+         * Plain meshes drawn by at least this many visible items in a frame
+         * are drawn instanced, 0 turns it off.
+         */
+        public int autoInstanceThreshold;
+
+        /**
+         * Draws to an offscreen buffer of a fixed size from a hidden window,
+         * with v-sync off. The engine replays an input trace for a number of
+         * frames with a fixed timestep, writes their timings and exits.
+         */
+        public boolean headless;
+
+        /**
+         * Input trace replayed when headless, no input if null.
+         */
+        public String replayTrace;
+
+        /**
+         * Frames rendered when headless, the length of the trace if 0.
+         */
+        public int replayFrames;
+
+        /**
+         * File the timings of the frames are written to when headless.
+         */
+        public String replayOutput;
+
+        /**
+         * Adds a hash of the pixels of each frame to the replay output, to
+         * compare the images of two runs. Reading the pixels stalls the GPU.
+         */
+        public boolean frameHashes;
+
+        /**
+         * File the input is recorded to when not headless, nothing is
+         * recorded if null.
+         */
+        public String recordTrace;
     }
 }
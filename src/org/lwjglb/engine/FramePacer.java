@@ -0,0 +1,106 @@
+package org.lwjglb.engine;
+
+import java.util.Arrays;
+
+/**
+ * Paces a loop to a fixed rate and keeps the durations of the last frames.
+ * Sleeping alone wakes up as late as a scheduler quantum, so the pacer
+ * sleeps until shortly before the deadline and spins for the rest.
+ * Deadlines are kept on a fixed grid, a late frame does not delay the
+ * following ones unless it has missed a whole slot.
+ */
+public class FramePacer {
+
+    /**
+     * Part of the wait that is spun instead of slept.
+     */
+    private static final long SPIN_NANOS = 2_000_000;
+
+    private static final int NUM_SAMPLES = 256;
+
+    private final long frameNanos;
+
+    private final long[] samples;
+
+    private final long[] sortedSamples;
+
+    private int numSamples;
+
+    private int nextSample;
+
+    private long lastFrameTime;
+
+    private long nextFrameTime;
+
+    public FramePacer(int targetRate) {
+        frameNanos = 1000_000_000L / targetRate;
+        samples = new long[NUM_SAMPLES];
+        sortedSamples = new long[NUM_SAMPLES];
+    }
+
+    public void init() {
+        lastFrameTime = System.nanoTime();
+        nextFrameTime = lastFrameTime + frameNanos;
+        numSamples = 0;
+        nextSample = 0;
+    }
+
+    /**
+     * Ends a frame. Waits for the next slot if asked to and records how long
+     * the frame took.
+     *
+     * @param wait False when something else, like v-sync, already paces the loop
+     */
+    public void sync(boolean wait) {
+        long now = System.nanoTime();
+        if (wait) {
+            long sleepNanos = nextFrameTime - now - SPIN_NANOS;
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000_000, (int) (sleepNanos % 1000_000));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            while ((now = System.nanoTime()) < nextFrameTime) {
+                Thread.yield();
+            }
+            nextFrameTime += frameNanos;
+            if (now > nextFrameTime) {
+                // A whole slot has been missed, start again from now instead of rushing the next frames
+                nextFrameTime = now + frameNanos;
+            }
+        }
+        samples[nextSample] = now - lastFrameTime;
+        nextSample = (nextSample + 1) % NUM_SAMPLES;
+        numSamples = Math.min(numSamples + 1, NUM_SAMPLES);
+        lastFrameTime = now;
+    }
+
+    /**
+     * @return Duration, in seconds, of the last frame
+     */
+    public float getLastFrameTime() {
+        if (numSamples == 0) {
+            return 0;
+        }
+        return samples[(nextSample + NUM_SAMPLES - 1) % NUM_SAMPLES] / 1000_000_000.0f;
+    }
+
+    /**
+     * Gets a percentile of the durations of the last frames.
+     *
+     * @param percentile Between 0 and 100
+     * @return Duration in milliseconds
+     */
+    public float getFrameTimePercentile(float percentile) {
+        if (numSamples == 0) {
+            return 0;
+        }
+        System.arraycopy(samples, 0, sortedSamples, 0, numSamples);
+        Arrays.sort(sortedSamples, 0, numSamples);
+        int index = (int) Math.ceil(percentile / 100.0f * numSamples) - 1;
+        index = Math.max(0, Math.min(numSamples - 1, index));
+        return sortedSamples[index] / 1000_000.0f;
+    }
+}
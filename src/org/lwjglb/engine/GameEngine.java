@@ -1,6 +1,19 @@
 package org.lwjglb.engine;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import org.lwjgl.BufferUtils;
+import org.lwjglb.engine.graph.OffscreenBuffer;
+import org.lwjglb.engine.graph.arena.GeometryArena;
 import org.lwjglb.engine.sound.SoundManager;
+import static org.lwjgl.opengl.GL11.glFinish;
 
 public class GameEngine implements Runnable {
 
@@ -8,6 +21,13 @@ public class GameEngine implements Runnable {
 
     public static final int TARGET_UPS = 30;
 
+    /**
+     * Updates run in a frame at most. When updating takes longer than the
+     * time it simulates, the remaining time is dropped instead of making the
+     * next frame even later.
+     */
+    public static final int MAX_UPDATES_PER_FRAME = 5;
+
     private final EWindow EWindow;
 
     private final Thread gameLoopThread;
@@ -18,6 +38,18 @@ public class GameEngine implements Runnable {
 
     private final MouseInput mouseInput;
 
+    private final FramePacer framePacer;
+
+    private final TripleBuffer<RenderSnapshot> snapshots;
+
+    private final TripleBuffer<InputSnapshot> inputs;
+
+    private Thread updateThread;
+
+    private volatile boolean updating;
+
+    private InputTrace inputTrace;
+
     private double lastFps;
     
     private int fps;
@@ -35,6 +67,9 @@ public class GameEngine implements Runnable {
         mouseInput = new MouseInput();
         this.gameLogic = gameLogic;
         timer = new Timer();
+        framePacer = new FramePacer(TARGET_FPS);
+        snapshots = new TripleBuffer<>(RenderSnapshot::new);
+        inputs = new TripleBuffer<>(InputSnapshot::new);
     }
 
     public void start() {
@@ -50,7 +85,13 @@ public class GameEngine implements Runnable {
     public void run() {
         try {
             init();
-            gameLoop();
+            if (EWindow.getEWindowOptions().headless) {
+                replayLoop();
+            } else if (EWindow.getEWindowOptions().pipelined) {
+                pipelinedLoop();
+            } else {
+                gameLoop();
+            }
         } catch (Exception excp) {
             excp.printStackTrace();
         } finally {
@@ -65,6 +106,17 @@ public class GameEngine implements Runnable {
         gameLogic.init(EWindow);
         lastFps = timer.getTime();
         fps = 0;
+        framePacer.init();
+        EWindow.EWindowOptions opts = EWindow.getEWindowOptions();
+        if (opts.headless) {
+            inputTrace = opts.replayTrace != null ? InputTrace.load(opts.replayTrace) : new InputTrace();
+        } else if (opts.recordTrace != null) {
+            inputTrace = new InputTrace();
+        }
+    }
+
+    public FramePacer getFramePacer() {
+        return framePacer;
     }
 
     protected void gameLoop() {
@@ -79,52 +131,226 @@ public class GameEngine implements Runnable {
 
             input();
 
-            while (accumulator >= interval) {
+            int numUpdates = 0;
+            while (accumulator >= interval && numUpdates < MAX_UPDATES_PER_FRAME) {
                 update(interval);
                 accumulator -= interval;
+                numUpdates++;
+            }
+            if (accumulator >= interval) {
+                accumulator %= interval;
             }
 
-            render();
+            // Time since the last update, as a fraction of the update interval
+            render(accumulator / interval);
+
+            framePacer.sync(!EWindow.isvSync());
+        }
+    }
+
+    /**
+     * Renders the latest snapshot published by the update thread, as often as
+     * the window allows. Frames take as long as the slowest of update and
+     * render instead of the sum of both.
+     */
+    protected void pipelinedLoop() {
+        updating = true;
+        updateThread = new Thread(this::updateLoop, "GAME_UPDATE_THREAD");
+        updateThread.start();
+        try {
+            while (updateThread.isAlive() && !EWindow.WindowShouldClose()) {
+                RenderSnapshot snapshot = snapshots.acquire();
+                if (snapshot.getSequence() > 0) {
+                    render(snapshot);
+                } else {
+                    // Nothing to draw until the first update, keep the window responsive
+                    EWindow.update();
+                }
+
+                // Events are polled here, the update thread reads the latest sample of the devices
+                inputs.getWriteBuffer().capture(EWindow, mouseInput);
+                inputs.publish();
 
-            if ( !EWindow.isvSync() ) {
-                sync();
+                framePacer.sync(!EWindow.isvSync());
+            }
+        } finally {
+            updating = false;
+            try {
+                updateThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
             }
         }
     }
 
+    /**
+     * Replays the input trace with a fixed timestep, one update and one
+     * render per frame, as fast as possible. Each frame waits for the GPU so
+     * that its time includes the GPU work. The timings, and the hashes of the
+     * frames if asked for, are written to the replay output at the end.
+     *
+     * @throws IOException If the output cannot be written
+     */
+    protected void replayLoop() throws IOException {
+        EWindow.EWindowOptions opts = EWindow.getEWindowOptions();
+        int numFrames = opts.replayFrames > 0 ? opts.replayFrames : inputTrace.getNumFrames();
+        float interval = 1f / TARGET_UPS;
+        long[] updateNanos = new long[numFrames];
+        long[] renderNanos = new long[numFrames];
+        long[] hashes = opts.frameHashes ? new long[numFrames] : null;
+        OffscreenBuffer offscreenBuffer = EWindow.getOffscreenBuffer();
+        ByteBuffer pixels = null;
+        CRC32 crc = null;
+        if (hashes != null) {
+            pixels = BufferUtils.createByteBuffer(offscreenBuffer.getWidth() * offscreenBuffer.getHeight() * 4);
+            crc = new CRC32();
+        }
+
+        for (int i = 0; i < numFrames; i++) {
+            long start = System.nanoTime();
+            EWindow.setReplayFrame(inputTrace.getFrame(i));
+            input();
+            update(interval);
+            long updated = System.nanoTime();
+            render(1.0f);
+            glFinish();
+            long rendered = System.nanoTime();
+            updateNanos[i] = updated - start;
+            renderNanos[i] = rendered - updated;
+
+            if (hashes != null) {
+                pixels.clear();
+                offscreenBuffer.readPixels(pixels);
+                crc.reset();
+                crc.update(pixels);
+                hashes[i] = crc.getValue();
+            }
+        }
+        EWindow.setReplayFrame(null);
+
+        if (opts.replayOutput != null) {
+            writeReplayResults(opts.replayOutput, updateNanos, renderNanos, hashes);
+        }
+        long[] frameNanos = new long[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            frameNanos[i] = updateNanos[i] + renderNanos[i];
+        }
+        Arrays.sort(frameNanos);
+        System.out.println(String.format(Locale.ROOT, "Replayed %d frames - %.2f / %.2f / %.2f ms (p50 / p95 / p99)",
+                numFrames, percentile(frameNanos, 50), percentile(frameNanos, 95), percentile(frameNanos, 99)));
+    }
+
+    private static double percentile(long[] sortedNanos, float percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0f * sortedNanos.length) - 1;
+        index = Math.max(0, Math.min(sortedNanos.length - 1, index));
+        return sortedNanos[index] / 1000_000.0;
+    }
+
+    private static void writeReplayResults(String path, long[] updateNanos, long[] renderNanos, long[] hashes) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))) {
+            out.println(hashes != null ? "frame,update_ms,render_ms,frame_ms,hash" : "frame,update_ms,render_ms,frame_ms");
+            for (int i = 0; i < updateNanos.length; i++) {
+                out.print(String.format(Locale.ROOT, "%d,%.3f,%.3f,%.3f", i, updateNanos[i] / 1000_000.0,
+                        renderNanos[i] / 1000_000.0, (updateNanos[i] + renderNanos[i]) / 1000_000.0));
+                if (hashes != null) {
+                    out.print(String.format(",%08x", hashes[i]));
+                }
+                out.println();
+            }
+        }
+    }
+
+    private void updateLoop() {
+        float interval = 1f / TARGET_UPS;
+        long sequence = 0;
+        FramePacer updatePacer = new FramePacer(TARGET_UPS);
+        updatePacer.init();
+        // Fed from the samples of the render thread, it has no callbacks of its own
+        MouseInput updateMouseInput = new MouseInput();
+        try {
+            while (updating) {
+                InputSnapshot input = inputs.acquire();
+                EWindow.setInputSnapshot(input);
+                updateMouseInput.input(input);
+                input(updateMouseInput);
+                update(interval, updateMouseInput);
+
+                RenderSnapshot snapshot = snapshots.getWriteBuffer();
+                snapshot.reset(++sequence, timer.getTime());
+                gameLogic.snapshot(snapshot);
+                snapshots.publish();
+
+                updatePacer.sync(true);
+            }
+        } catch (Exception excp) {
+            excp.printStackTrace();
+        } finally {
+            EWindow.setInputSnapshot(null);
+        }
+    }
+
     protected void cleanup() {
         gameLogic.cleanup();
-    }
-    
-    private void sync() {
-        float loopSlot = 1f / TARGET_FPS;
-        double endTime = timer.getLastLoopTime() + loopSlot;
-        while (timer.getTime() < endTime) {
+        GeometryArena.cleanupAll();
+        EWindow.cleanup();
+        EWindow.EWindowOptions opts = EWindow.getEWindowOptions();
+        if (!opts.headless && opts.recordTrace != null && inputTrace != null) {
             try {
-                Thread.sleep(1);
-            } catch (InterruptedException ie) {
+                inputTrace.save(opts.recordTrace);
+            } catch (IOException excp) {
+                excp.printStackTrace();
             }
         }
     }
-
+    
     protected void input() {
         mouseInput.input(EWindow);
+        input(mouseInput);
+    }
+
+    /**
+     * @param mouseInput The mouse, already updated for this frame
+     */
+    protected void input(MouseInput mouseInput) {
+        if (inputTrace != null && EWindow.getReplayFrame() == null) {
+            inputTrace.record(EWindow, mouseInput);
+        }
         gameLogic.input(EWindow, mouseInput);
     }
 
     protected void update(float interval) {
+        update(interval, mouseInput);
+    }
+
+    protected void update(float interval, MouseInput mouseInput) {
         gameLogic.update(interval, mouseInput, EWindow);
     }
 
-    protected void render() {
-        if ( EWindow.getEWindowOptions().showFps && timer.getLastLoopTime() - lastFps > 1 ) {
-            lastFps = timer.getLastLoopTime();
-            EWindow.setEWindowTitle(EWindowTitle + " - " + fps + " FPS");
+    protected void render(float alpha) {
+        updateFps();
+        gameLogic.render(EWindow, alpha);
+        EWindow.update();
+    }
+
+    protected void render(RenderSnapshot snapshot) {
+        updateFps();
+        gameLogic.render(EWindow, snapshot);
+        EWindow.update();
+    }
+
+    private void updateFps() {
+        double time = timer.getTime();
+        if ( EWindow.getEWindowOptions().showFps && time - lastFps > 1 ) {
+            lastFps = time;
+            EWindow.setEWindowTitle(String.format("%s - %d FPS - %.1f / %.1f / %.1f ms (p50 / p95 / p99)", EWindowTitle, fps,
+                    framePacer.getFrameTimePercentile(50), framePacer.getFrameTimePercentile(95),
+                    framePacer.getFrameTimePercentile(99)));
             fps = 0;
         }
         fps++;
-        gameLogic.render(EWindow);
-        EWindow.update();
     }
 
 }
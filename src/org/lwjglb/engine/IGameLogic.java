@@ -11,4 +11,37 @@ public interface IGameLogic {
     void render(EWindow EWindow);
     
     void cleanup();
-}
\ No newline at end of file
+
+    /**
+     * Renders the state between the last two updates.
+     *
+     * @param EWindow The window
+     * @param alpha Time since the last update as a fraction of the update
+     * interval, from 0 (the previous update) to 1 (the last one)
+     */
+    default void render(EWindow EWindow, float alpha) {
+        render(EWindow);
+    }
+
+    /**
+     * Called on the update thread after each update when the engine is
+     * pipelined. Everything the renderer needs from the simulation must be
+     * copied into the snapshot, the render thread does not see the
+     * simulation state.
+     *
+     * @param snapshot The snapshot to fill
+     */
+    default void snapshot(RenderSnapshot snapshot) {
+    }
+
+    /**
+     * Called on the render thread, instead of render(EWindow), when the
+     * engine is pipelined.
+     *
+     * @param EWindow The window
+     * @param snapshot The latest snapshot published by the update thread
+     */
+    default void render(EWindow EWindow, RenderSnapshot snapshot) {
+        render(EWindow);
+    }
+}
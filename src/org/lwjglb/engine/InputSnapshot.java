@@ -0,0 +1,67 @@
+package org.lwjglb.engine;
+
+import org.joml.Vector2d;
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * The state of the keyboard and the mouse that the render thread hands to
+ * the update thread when the engine is pipelined. GLFW events can only be
+ * polled on the main thread, so that is where the devices are sampled. The
+ * cursor position is absolute, samples the update thread skips do not lose
+ * any mouse movement.
+ */
+public class InputSnapshot {
+
+    private final boolean[] keys;
+
+    private final Vector2d cursorPos;
+
+    private boolean inEWindow;
+
+    private boolean leftButtonPressed;
+
+    private boolean rightButtonPressed;
+
+    public InputSnapshot() {
+        keys = new boolean[GLFW_KEY_LAST + 1];
+        cursorPos = new Vector2d();
+    }
+
+    /**
+     * Samples the devices. It must be called on the thread that polls the
+     * events of the window.
+     *
+     * @param EWindow The window
+     * @param mouseInput The mouse, updated by the callbacks of the window
+     */
+    public void capture(EWindow EWindow, MouseInput mouseInput) {
+        long windowHandle = EWindow.getEWindowHandle();
+        for (int key = GLFW_KEY_SPACE; key <= GLFW_KEY_LAST; key++) {
+            keys[key] = glfwGetKey(windowHandle, key) == GLFW_PRESS;
+        }
+        cursorPos.set(mouseInput.getCurrentPos());
+        inEWindow = mouseInput.isInEWindow();
+        leftButtonPressed = mouseInput.isLeftButtonPressed();
+        rightButtonPressed = mouseInput.isRightButtonPressed();
+    }
+
+    public boolean isKeyPressed(int keyCode) {
+        return keyCode >= 0 && keyCode < keys.length && keys[keyCode];
+    }
+
+    public Vector2d getCursorPos() {
+        return cursorPos;
+    }
+
+    public boolean isInEWindow() {
+        return inEWindow;
+    }
+
+    public boolean isLeftButtonPressed() {
+        return leftButtonPressed;
+    }
+
+    public boolean isRightButtonPressed() {
+        return rightButtonPressed;
+    }
+}
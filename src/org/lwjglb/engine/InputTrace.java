@@ -0,0 +1,167 @@
+package org.lwjglb.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * The input of a session, one frame each time the engine polls it: the keys
+ * held down, the mouse buttons and how far the mouse moved. A trace recorded
+ * while playing is replayed with one update per frame and a fixed timestep,
+ * so every replay drives the game through the same states, which is what
+ * headless benchmarks rely on.
+ * <p>
+ * Traces are text files with a line per frame:
+ * <code>left right dx dy keys</code>, where the buttons are 0 or 1 and the
+ * keys are GLFW key codes separated by commas, or '-' when none is pressed.
+ * Lines starting with '#' are ignored.
+ */
+public class InputTrace {
+
+    private static final int[] NO_KEYS = new int[0];
+
+    private final List<Frame> frames;
+
+    private final int[] pressedKeys;
+
+    public InputTrace() {
+        frames = new ArrayList<>();
+        pressedKeys = new int[GLFW_KEY_LAST + 1];
+    }
+
+    public static InputTrace load(String path) throws IOException {
+        InputTrace trace = new InputTrace();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens.length != 5) {
+                    throw new IOException("Invalid input trace line " + lineNumber + " in " + path);
+                }
+                int[] keys = NO_KEYS;
+                if (!"-".equals(tokens[4])) {
+                    String[] keyTokens = tokens[4].split(",");
+                    keys = new int[keyTokens.length];
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = Integer.parseInt(keyTokens[i]);
+                    }
+                    Arrays.sort(keys);
+                }
+                trace.frames.add(new Frame(keys, "1".equals(tokens[0]), "1".equals(tokens[1]),
+                        Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3])));
+            }
+        }
+        return trace;
+    }
+
+    public void save(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))) {
+            out.println("# left right dx dy keys");
+            for (Frame frame : frames) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(frame.leftButtonPressed ? 1 : 0).append(' ');
+                sb.append(frame.rightButtonPressed ? 1 : 0).append(' ');
+                sb.append(frame.displX).append(' ');
+                sb.append(frame.displY).append(' ');
+                if (frame.keys.length == 0) {
+                    sb.append('-');
+                }
+                for (int i = 0; i < frame.keys.length; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(frame.keys[i]);
+                }
+                out.println(sb);
+            }
+        }
+    }
+
+    /**
+     * Appends the current state of the keyboard and the mouse. It must be
+     * called after MouseInput.input so that the displacement is the one the
+     * update will see.
+     *
+     * @param EWindow The window
+     * @param mouseInput The mouse
+     */
+    public void record(EWindow EWindow, MouseInput mouseInput) {
+        int numKeys = 0;
+        for (int key = GLFW_KEY_SPACE; key <= GLFW_KEY_LAST; key++) {
+            if (EWindow.isKeyPressed(key)) {
+                pressedKeys[numKeys++] = key;
+            }
+        }
+        int[] keys = numKeys == 0 ? NO_KEYS : Arrays.copyOf(pressedKeys, numKeys);
+        frames.add(new Frame(keys, mouseInput.isLeftButtonPressed(), mouseInput.isRightButtonPressed(),
+                mouseInput.getDisplVec().x, mouseInput.getDisplVec().y));
+    }
+
+    public int getNumFrames() {
+        return frames.size();
+    }
+
+    /**
+     * @param index Number of the frame
+     * @return The frame, or one with no input past the end of the trace
+     */
+    public Frame getFrame(int index) {
+        return index < frames.size() ? frames.get(index) : Frame.EMPTY;
+    }
+
+    public static class Frame {
+
+        public static final Frame EMPTY = new Frame(NO_KEYS, false, false, 0, 0);
+
+        private final int[] keys;
+
+        private final boolean leftButtonPressed;
+
+        private final boolean rightButtonPressed;
+
+        private final float displX;
+
+        private final float displY;
+
+        public Frame(int[] keys, boolean leftButtonPressed, boolean rightButtonPressed, float displX, float displY) {
+            this.keys = keys;
+            this.leftButtonPressed = leftButtonPressed;
+            this.rightButtonPressed = rightButtonPressed;
+            this.displX = displX;
+            this.displY = displY;
+        }
+
+        public boolean isKeyPressed(int keyCode) {
+            return Arrays.binarySearch(keys, keyCode) >= 0;
+        }
+
+        public boolean isLeftButtonPressed() {
+            return leftButtonPressed;
+        }
+
+        public boolean isRightButtonPressed() {
+            return rightButtonPressed;
+        }
+
+        public float getDisplX() {
+            return displX;
+        }
+
+        public float getDisplY() {
+            return displY;
+        }
+    }
+}
@@ -47,6 +47,33 @@ public class MouseInput {
     }
     
     public void input(EWindow EWindow) {
+        InputTrace.Frame replayFrame = EWindow.getReplayFrame();
+        if (replayFrame != null) {
+            displVec.x = replayFrame.getDisplX();
+            displVec.y = replayFrame.getDisplY();
+            leftButtonPressed = replayFrame.isLeftButtonPressed();
+            rightButtonPressed = replayFrame.isRightButtonPressed();
+            return;
+        }
+        updateDispl();
+    }
+
+    /**
+     * Takes the state of the mouse from input sampled on another thread. Only
+     * meant for a MouseInput that has not been initialized, the callbacks
+     * would overwrite it.
+     *
+     * @param input The input
+     */
+    public void input(InputSnapshot input) {
+        currentPos.set(input.getCursorPos());
+        inEWindow = input.isInEWindow();
+        leftButtonPressed = input.isLeftButtonPressed();
+        rightButtonPressed = input.isRightButtonPressed();
+        updateDispl();
+    }
+
+    private void updateDispl() {
         displVec.x = 0;
         displVec.y = 0;
         if (previousPos.x > 0 && previousPos.y > 0 && inEWindow) {
@@ -65,6 +92,10 @@ public class MouseInput {
         previousPos.y = currentPos.y;
     }
 
+    public boolean isInEWindow() {
+        return inEWindow;
+    }
+
     public boolean isLeftButtonPressed() {
         return leftButtonPressed;
     }
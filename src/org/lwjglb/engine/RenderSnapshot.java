@@ -0,0 +1,227 @@
+package org.lwjglb.engine;
+
+import java.util.Arrays;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.Camera;
+import org.lwjglb.engine.graph.lights.DirectionalLight;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * The state the update thread hands to the render thread each tick: the
+ * camera, the lights and, for each entity the game chooses to track, its
+ * transformation, visibility and animation frame. Entities are identified by
+ * an index picked by the game. The arrays grow as needed and are reused, so
+ * filling a snapshot does not allocate once it has reached its size.
+ */
+public class RenderSnapshot {
+
+    private long sequence;
+
+    private double time;
+
+    private final Vector3f cameraPosition;
+
+    private final Vector3f cameraRotation;
+
+    private final Vector3f ambientLight;
+
+    private final Vector3f directionalColour;
+
+    private final Vector3f directionalDirection;
+
+    private float directionalIntensity;
+
+    private boolean hasDirectionalLight;
+
+    private int numEntities;
+
+    private float[] positions;
+
+    private float[] rotations;
+
+    private float[] scales;
+
+    private boolean[] hasTransform;
+
+    private boolean[] visible;
+
+    private int[] animationFrames;
+
+    private final Quaternionf tmpRotation;
+
+    public RenderSnapshot() {
+        cameraPosition = new Vector3f();
+        cameraRotation = new Vector3f();
+        ambientLight = new Vector3f();
+        directionalColour = new Vector3f();
+        directionalDirection = new Vector3f();
+        positions = new float[0];
+        rotations = new float[0];
+        scales = new float[0];
+        hasTransform = new boolean[0];
+        visible = new boolean[0];
+        animationFrames = new int[0];
+        tmpRotation = new Quaternionf();
+    }
+
+    /**
+     * Starts a new snapshot over the contents of an old one. The camera and
+     * lights are kept, the entities are discarded.
+     *
+     * @param sequence Number of the update tick
+     * @param time Time of the update tick, in seconds
+     */
+    public void reset(long sequence, double time) {
+        this.sequence = sequence;
+        this.time = time;
+        numEntities = 0;
+    }
+
+    /**
+     * @return Number of the update tick, 0 if nothing has been published
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public void setCamera(Camera camera) {
+        cameraPosition.set(camera.getPosition());
+        cameraRotation.set(camera.getRotation());
+    }
+
+    public void applyCamera(Camera camera) {
+        camera.getPosition().set(cameraPosition);
+        camera.getRotation().set(cameraRotation);
+        camera.updateViewMatrix();
+    }
+
+    public void setLights(SceneLight sceneLight) {
+        ambientLight.set(sceneLight.getAmbientLight());
+        DirectionalLight directionalLight = sceneLight.getDirectionalLight();
+        hasDirectionalLight = directionalLight != null;
+        if (hasDirectionalLight) {
+            setDirectionalLight(directionalLight);
+        }
+    }
+
+    public void setAmbientLight(Vector3f ambientLight) {
+        this.ambientLight.set(ambientLight);
+    }
+
+    public void setDirectionalLight(DirectionalLight directionalLight) {
+        hasDirectionalLight = true;
+        directionalColour.set(directionalLight.getColor());
+        directionalDirection.set(directionalLight.getDirection());
+        directionalIntensity = directionalLight.getIntensity();
+    }
+
+    /**
+     * Copies the lights into the light set of the render thread. Point and
+     * spot lights are not part of the snapshot.
+     *
+     * @param sceneLight The lights used by the renderer
+     */
+    public void applyLights(SceneLight sceneLight) {
+        sceneLight.getAmbientLight().set(ambientLight);
+        DirectionalLight directionalLight = sceneLight.getDirectionalLight();
+        if (hasDirectionalLight && directionalLight != null) {
+            directionalLight.getColor().set(directionalColour);
+            directionalLight.getDirection().set(directionalDirection);
+            directionalLight.setIntensity(directionalIntensity);
+        }
+    }
+
+    public int getNumEntities() {
+        return numEntities;
+    }
+
+    public void setTransform(int index, Vector3f position, Quaternionf rotation, float scale) {
+        ensureCapacity(index + 1);
+        positions[index * 3] = position.x;
+        positions[index * 3 + 1] = position.y;
+        positions[index * 3 + 2] = position.z;
+        rotations[index * 4] = rotation.x;
+        rotations[index * 4 + 1] = rotation.y;
+        rotations[index * 4 + 2] = rotation.z;
+        rotations[index * 4 + 3] = rotation.w;
+        scales[index] = scale;
+        hasTransform[index] = true;
+    }
+
+    public void setTransform(int index, GameItem gameItem) {
+        setTransform(index, gameItem.getPosition(), gameItem.getRotation(), gameItem.getScale());
+    }
+
+    public void setVisible(int index, boolean visible) {
+        ensureCapacity(index + 1);
+        this.visible[index] = visible;
+    }
+
+    public boolean isVisible(int index) {
+        return index < numEntities && visible[index];
+    }
+
+    public void setAnimationFrame(int index, int frame) {
+        ensureCapacity(index + 1);
+        animationFrames[index] = frame;
+    }
+
+    public int getAnimationFrame(int index) {
+        return index < numEntities ? animationFrames[index] : 0;
+    }
+
+    /**
+     * Copies the transformation of an entity to an item of the render thread.
+     * Nothing is changed for entities that are not in this snapshot, or
+     * whose transformation has not been written.
+     *
+     * @param index Index of the entity
+     * @param gameItem The item that draws it
+     */
+    public void apply(int index, GameItem gameItem) {
+        if (index >= numEntities || !hasTransform[index]) {
+            return;
+        }
+        // The setters invalidate the item, items that have not moved are left alone
+        float x = positions[index * 3];
+        float y = positions[index * 3 + 1];
+        float z = positions[index * 3 + 2];
+        Vector3f position = gameItem.getPosition();
+        if (position.x != x || position.y != y || position.z != z) {
+            gameItem.setPosition(x, y, z);
+        }
+        tmpRotation.set(rotations[index * 4], rotations[index * 4 + 1], rotations[index * 4 + 2], rotations[index * 4 + 3]);
+        if (!gameItem.getRotation().equals(tmpRotation)) {
+            gameItem.setRotation(tmpRotation);
+        }
+        if (gameItem.getScale() != scales[index]) {
+            gameItem.setScale(scales[index]);
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > visible.length) {
+            int capacity = Math.max(size, visible.length * 2);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            rotations = Arrays.copyOf(rotations, capacity * 4);
+            scales = Arrays.copyOf(scales, capacity);
+            hasTransform = Arrays.copyOf(hasTransform, capacity);
+            visible = Arrays.copyOf(visible, capacity);
+            animationFrames = Arrays.copyOf(animationFrames, capacity);
+        }
+        if (size > numEntities) {
+            // Entities skipped over are visible, on their first frame and have no transformation to apply
+            for (int i = numEntities; i < size; i++) {
+                hasTransform[i] = false;
+                visible[i] = true;
+                animationFrames[i] = 0;
+            }
+            numEntities = size;
+        }
+    }
+}
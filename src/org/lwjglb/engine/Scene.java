@@ -2,14 +2,21 @@ package org.lwjglb.engine;
 
 import org.lwjglb.engine.items.SkyBox;
 import org.lwjglb.engine.items.GameItem;
+import org.lwjglb.engine.items.SceneGraph;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.lwjglb.engine.graph.InstancedMesh;
 import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.StaticBatcher;
+import org.lwjglb.engine.graph.VisibilitySet;
 import org.lwjglb.engine.graph.particles.IParticleEmitter;
 import org.lwjglb.engine.graph.weather.Fog;
+import org.lwjglb.engine.spatial.BVH;
 
 public class Scene {
 
@@ -17,6 +24,21 @@ public class Scene {
 
     private final Map<InstancedMesh, List<GameItem>> instancedMeshMap;
 
+    private final List<GameItem> gameItems;
+
+    private final BVH spatialIndex;
+
+    private final SceneGraph sceneGraph;
+
+    private final List<GameItem> changedItems;
+
+    /**
+     * Items that have frustum culling disabled, they are always visible.
+     */
+    private final List<GameItem> unculledItems;
+
+    private final VisibilitySet visibility;
+
     private SkyBox skyBox;
 
     private SceneLight sceneLight;
@@ -30,6 +52,12 @@ public class Scene {
     public Scene() {
         meshMap = new HashMap();
         instancedMeshMap = new HashMap();
+        gameItems = new ArrayList<>();
+        spatialIndex = new BVH();
+        sceneGraph = new SceneGraph();
+        changedItems = new ArrayList<>();
+        unculledItems = new ArrayList<>();
+        visibility = new VisibilitySet();
         fog = Fog.NOFOG;
         renderShadows = true;
     }
@@ -42,6 +70,30 @@ public class Scene {
         return instancedMeshMap;
     }
 
+    public List<GameItem> getGameItems() {
+        return gameItems;
+    }
+
+    public BVH getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public SceneGraph getSceneGraph() {
+        return sceneGraph;
+    }
+
+    public List<GameItem> getUnculledItems() {
+        return unculledItems;
+    }
+
+    /**
+     * @return Visibility of the meshes of the items in the views of the
+     * renderers and in picking
+     */
+    public VisibilitySet getVisibility() {
+        return visibility;
+    }
+
     public boolean isRenderShadows() {
         return renderShadows;
     }
@@ -50,22 +102,138 @@ public class Scene {
         // Create a map of meshes to speed up rendering
         int numGameItems = gameItems != null ? gameItems.length : 0;
         for (int i = 0; i < numGameItems; i++) {
-            GameItem gameItem = gameItems[i];
-            Mesh[] meshes = gameItem.getMeshes();
-            for (Mesh mesh : meshes) {
-                boolean instancedMesh = mesh instanceof InstancedMesh;
-                List<GameItem> list = instancedMesh ? instancedMeshMap.get(mesh) : meshMap.get(mesh);
-                if (list == null) {
-                    list = new ArrayList<>();
-                    if (instancedMesh) {
-                        instancedMeshMap.put((InstancedMesh)mesh, list);
-                    } else {
-                        meshMap.put(mesh, list);
-                    }
+            addGameItem(gameItems[i]);
+        }
+    }
+
+    /**
+     * Adds an item, and its children, to the scene. The frustum culling flag
+     * of the item must be set before it is added. Items without meshes can
+     * be used as pivots to group other items.
+     *
+     * @param gameItem The item
+     */
+    public void addGameItem(GameItem gameItem) {
+        if (sceneGraph.contains(gameItem)) {
+            return;
+        }
+        Mesh[] meshes = gameItem.getMeshes() != null ? gameItem.getMeshes() : new Mesh[0];
+        for (Mesh mesh : meshes) {
+            boolean instancedMesh = mesh instanceof InstancedMesh;
+            List<GameItem> list = instancedMesh ? instancedMeshMap.get(mesh) : meshMap.get(mesh);
+            if (list == null) {
+                list = new ArrayList<>();
+                if (instancedMesh) {
+                    instancedMeshMap.put((InstancedMesh)mesh, list);
+                } else {
+                    meshMap.put(mesh, list);
                 }
-                list.add(gameItem);
             }
+            list.add(gameItem);
+        }
+        if (gameItem.isDisableFrustumCulling()) {
+            unculledItems.add(gameItem);
+        }
+        sceneGraph.add(gameItem);
+        // Pivots only take part in the hierarchy, there is nothing to cull or draw
+        if (meshes.length > 0) {
+            gameItems.add(gameItem);
+            spatialIndex.insert(gameItem);
+            visibility.register(gameItem);
+        }
+        for (GameItem child : gameItem.getChildren()) {
+            addGameItem(child);
+        }
+    }
+
+    /**
+     * Removes an item, and its children, from the scene. The item is
+     * detached from its parent.
+     *
+     * @param gameItem The item
+     */
+    public void removeGameItem(GameItem gameItem) {
+        if (gameItem.getParent() != null) {
+            gameItem.getParent().removeChild(gameItem);
+        }
+        removeSubtree(gameItem);
+    }
+
+    private void removeSubtree(GameItem gameItem) {
+        if (!sceneGraph.contains(gameItem)) {
+            return;
+        }
+        Mesh[] meshes = gameItem.getMeshes() != null ? gameItem.getMeshes() : new Mesh[0];
+        for (Mesh mesh : meshes) {
+            List<GameItem> list = mesh instanceof InstancedMesh ? instancedMeshMap.get(mesh) : meshMap.get(mesh);
+            if (list != null) {
+                list.remove(gameItem);
+            }
+        }
+        unculledItems.remove(gameItem);
+        gameItems.remove(gameItem);
+        sceneGraph.remove(gameItem);
+        spatialIndex.remove(gameItem);
+        visibility.unregister(gameItem);
+        for (GameItem child : gameItem.getChildren()) {
+            removeSubtree(child);
+        }
+    }
+
+    /**
+     * Merges the meshes of the static items that share a material into
+     * batches, one per cell of a grid, which replace the items in the render
+     * lists. The items stay in the scene graph, but must not be moved or
+     * removed afterwards since their geometry is now part of the batches.
+     *
+     * @param cellSize Size of the cells of the grid
+     * @return The items created for the batches
+     */
+    public List<GameItem> bakeStaticBatches(float cellSize) {
+        List<GameItem> bakedItems = new ArrayList<>();
+        List<GameItem> batchItems = new StaticBatcher(cellSize).bake(gameItems, bakedItems);
+        Set<GameItem> bakedSet = Collections.newSetFromMap(new IdentityHashMap<GameItem, Boolean>());
+        bakedSet.addAll(bakedItems);
+        for (List<GameItem> list : meshMap.values()) {
+            list.removeIf(bakedSet::contains);
+        }
+        gameItems.removeIf(bakedSet::contains);
+        for (GameItem gameItem : bakedItems) {
+            spatialIndex.remove(gameItem);
+            visibility.unregister(gameItem);
+        }
+        for (GameItem batchItem : batchItems) {
+            addGameItem(batchItem);
+        }
+        return batchItems;
+    }
+
+    /**
+     * Must be called when an item has been moved by modifying its position
+     * or rotation vectors directly, so that the spatial index stays valid.
+     * Changes made through the setters are picked up by updateTransforms.
+     *
+     * @param gameItem The item
+     */
+    public void updateGameItem(GameItem gameItem) {
+        spatialIndex.update(gameItem);
+        for (GameItem child : gameItem.getChildren()) {
+            updateGameItem(child);
+        }
+    }
+
+    /**
+     * Propagates the transformations changed since the last call down the
+     * hierarchy and refits the spatial index to the items that have moved.
+     */
+    public void updateTransforms() {
+        changedItems.clear();
+        sceneGraph.update(changedItems);
+        int numChanged = changedItems.size();
+        for (int i = 0; i < numChanged; i++) {
+            spatialIndex.update(changedItems.get(i));
         }
+        changedItems.clear();
     }
 
     public void cleanup() {
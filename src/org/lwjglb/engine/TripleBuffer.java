@@ -0,0 +1,72 @@
+package org.lwjglb.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands objects from one writer thread to one reader thread without locks.
+ * The writer fills its buffer and publishes it, the reader always gets the
+ * latest published buffer. Neither of them ever waits for the other, a
+ * buffer that is published before the reader gets to it is simply skipped.
+ */
+public class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 0x3;
+
+    private static final int FRESH = 0x4;
+
+    private final T[] buffers;
+
+    /**
+     * Index of the buffer in the middle, plus the FRESH bit when it has been
+     * published and not yet acquired.
+     */
+    private final AtomicInteger state;
+
+    private int writeIndex;
+
+    private int readIndex;
+
+    @SuppressWarnings("unchecked")
+    public TripleBuffer(Supplier<T> factory) {
+        buffers = (T[]) new Object[]{factory.get(), factory.get(), factory.get()};
+        writeIndex = 0;
+        state = new AtomicInteger(1);
+        readIndex = 2;
+    }
+
+    /**
+     * @return The buffer owned by the writer, only valid until publish
+     */
+    public T getWriteBuffer() {
+        return buffers[writeIndex];
+    }
+
+    /**
+     * Makes the write buffer available to the reader and gives the writer a
+     * new one.
+     */
+    public void publish() {
+        writeIndex = state.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * @return If a buffer has been published since the last acquire
+     */
+    public boolean isFresh() {
+        return (state.get() & FRESH) != 0;
+    }
+
+    /**
+     * Gets the latest published buffer. It belongs to the reader until the
+     * next call, the same buffer is returned if nothing new was published.
+     *
+     * @return The buffer
+     */
+    public T acquire() {
+        if (isFresh()) {
+            readIndex = state.getAndSet(readIndex) & INDEX_MASK;
+        }
+        return buffers[readIndex];
+    }
+}
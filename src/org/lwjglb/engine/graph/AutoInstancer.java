@@ -0,0 +1,216 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.graph.lod.LodSelector;
+import org.lwjglb.engine.items.GameItem;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsInstancedBaseVertex;
+
+/**
+ * Draws the plain meshes that many visible items share with instanced
+ * draws, so game code does not need to build them as InstancedMesh up
+ * front. Each frame the items of a mesh that reaches the threshold are
+ * written to an instance buffer and drawn with one
+ * glDrawElementsInstancedBaseVertex per level of detail, through the same
+ * instanced attributes and shader path as an InstancedMesh.
+ * <p>
+ * Only static meshes stored in a geometry arena are instanced, the instance
+ * attributes are pointed to the buffer on the arena VAO while drawing.
+ */
+public class AutoInstancer {
+
+    public static final int DEFAULT_MIN_INSTANCES = 8;
+
+    private static final int INSTANCE_SIZE_FLOATS = InstancedMesh.INSTANCE_SIZE_FLOATS;
+
+    private static final int INSTANCE_SIZE_BYTES = INSTANCE_SIZE_FLOATS * 4;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int instanceVboId;
+
+    private int minInstances;
+
+    private FloatBuffer instanceData;
+
+    private int capacity;
+
+    private int numInstances;
+
+    private Mesh[] groupMeshes;
+
+    private int[] groupLevels;
+
+    /**
+     * First instance of each group, plus the number of instances at the end.
+     */
+    private int[] groupStarts;
+
+    private int numGroups;
+
+    private int[] itemLevels;
+
+    private int boundVaoId;
+
+    public AutoInstancer(int minInstances) {
+        this.minInstances = minInstances;
+        instanceVboId = glGenBuffers();
+        groupMeshes = new Mesh[16];
+        groupLevels = new int[16];
+        groupStarts = new int[17];
+        itemLevels = new int[INITIAL_CAPACITY];
+        capacity = INITIAL_CAPACITY;
+        instanceData = MemoryUtil.memAllocFloat(capacity * INSTANCE_SIZE_FLOATS);
+    }
+
+    public int getMinInstances() {
+        return minInstances;
+    }
+
+    public void setMinInstances(int minInstances) {
+        this.minInstances = minInstances;
+    }
+
+    /**
+     * @param mesh The mesh
+     * @param gameItems The items that draw the mesh this frame
+     * @return True if the mesh is drawn instanced for all of the items
+     */
+    public boolean accepts(Mesh mesh, List<GameItem> gameItems) {
+        return gameItems.size() >= minInstances && mesh.getGeometryRange() != null
+                && !mesh.getVertexFormat().isSkinned();
+    }
+
+    public void clear() {
+        numInstances = 0;
+        Arrays.fill(groupMeshes, 0, numGroups, null);
+        numGroups = 0;
+    }
+
+    /**
+     * Writes the instances of a mesh, one group per level of detail in use.
+     *
+     * @param mesh The mesh, accepted by the instancer
+     * @param gameItems The items that draw the mesh
+     * @param lodSelector Selects the level of detail of each item
+     */
+    public void add(Mesh mesh, List<GameItem> gameItems, LodSelector lodSelector) {
+        int numItems = gameItems.size();
+        if (itemLevels.length < numItems) {
+            itemLevels = new int[Math.max(numItems, itemLevels.length * 2)];
+        }
+        int maxLevel = 0;
+        for (int i = 0; i < numItems; i++) {
+            int level = lodSelector.selectLevel(gameItems.get(i), mesh);
+            itemLevels[i] = level;
+            maxLevel = Math.max(maxLevel, level);
+        }
+        for (int level = 0; level <= maxLevel; level++) {
+            int start = numInstances;
+            for (int i = 0; i < numItems; i++) {
+                if (itemLevels[i] == level) {
+                    addInstance(gameItems.get(i));
+                }
+            }
+            if (numInstances > start) {
+                addGroup(mesh, level, start);
+            }
+        }
+    }
+
+    /**
+     * Uploads the instances written since the last clear.
+     */
+    public void upload() {
+        groupStarts[numGroups] = numInstances;
+        if (numGroups == 0) {
+            return;
+        }
+        instanceData.limit(numInstances * INSTANCE_SIZE_FLOATS);
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVboId);
+        glBufferData(GL_ARRAY_BUFFER, instanceData, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        instanceData.clear();
+    }
+
+    public int getNumInstances() {
+        return numInstances;
+    }
+
+    public int getNumGroups() {
+        return numGroups;
+    }
+
+    public Mesh getGroupMesh(int group) {
+        return groupMeshes[group];
+    }
+
+    public void drawGroup(int group) {
+        Mesh mesh = groupMeshes[group];
+        if (mesh.getVaoId() != boundVaoId) {
+            if (boundVaoId != 0) {
+                MultiDrawBatch.disableDrawAttributes();
+            }
+            mesh.bindVertexArray();
+            MultiDrawBatch.enableDrawAttributes();
+            boundVaoId = mesh.getVaoId();
+        }
+        int start = groupStarts[group];
+        // Without a base instance the attributes are pointed to the first instance of the group
+        MultiDrawBatch.setupDrawAttributes(instanceVboId, (long) start * INSTANCE_SIZE_BYTES);
+        int level = groupLevels[group];
+        glDrawElementsInstancedBaseVertex(GL_TRIANGLES, mesh.getLodIndexCount(level), GL_UNSIGNED_INT,
+                (long) mesh.getLodFirstIndex(level) * 4, groupStarts[group + 1] - start,
+                mesh.getGeometryRange().getBaseVertex());
+    }
+
+    /**
+     * Restores the state changed by drawGroup.
+     */
+    public void end() {
+        if (boundVaoId != 0) {
+            MultiDrawBatch.disableDrawAttributes();
+            groupMeshes[0].unbindVertexArray();
+            boundVaoId = 0;
+        }
+    }
+
+    public void cleanup() {
+        glDeleteBuffers(instanceVboId);
+        MemoryUtil.memFree(instanceData);
+    }
+
+    private void addGroup(Mesh mesh, int level, int start) {
+        if (numGroups == groupMeshes.length) {
+            groupMeshes = Arrays.copyOf(groupMeshes, groupMeshes.length * 2);
+            groupLevels = Arrays.copyOf(groupLevels, groupMeshes.length);
+            groupStarts = Arrays.copyOf(groupStarts, groupMeshes.length + 1);
+        }
+        groupMeshes[numGroups] = mesh;
+        groupLevels[numGroups] = level;
+        groupStarts[numGroups] = start;
+        numGroups++;
+    }
+
+    private void addInstance(GameItem gameItem) {
+        if (numInstances == capacity) {
+            FloatBuffer oldInstanceData = instanceData;
+            capacity *= 2;
+            instanceData = MemoryUtil.memAllocFloat(capacity * INSTANCE_SIZE_FLOATS);
+            oldInstanceData.clear();
+            instanceData.put(oldInstanceData).clear();
+            MemoryUtil.memFree(oldInstanceData);
+        }
+        int pos = numInstances * INSTANCE_SIZE_FLOATS;
+        gameItem.getModelMatrix().get(pos, instanceData);
+        // Items drawn one by one never had a texture atlas offset, keep it that way
+        instanceData.put(pos + 16, 0);
+        instanceData.put(pos + 17, 0);
+        instanceData.put(pos + 18, gameItem.isSelected() ? 1 : 0);
+        numInstances++;
+    }
+}
@@ -0,0 +1,175 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.SceneLight;
+import org.lwjglb.engine.graph.lights.DirectionalLight;
+import org.lwjglb.engine.graph.lights.PointLight;
+import org.lwjglb.engine.graph.lights.SpotLight;
+import org.lwjglb.engine.graph.shadow.ShadowCascade;
+import org.lwjglb.engine.graph.shadow.ShadowRenderer;
+import org.lwjglb.engine.graph.weather.Fog;
+
+/**
+ * Per frame data shared by the scene, particles and sky box programs through
+ * std140 uniform blocks. The offsets below must match the block declarations
+ * in the shaders.
+ */
+public class FrameUniforms {
+
+    public static final String MATRICES_BLOCK = "Matrices";
+
+    public static final String LIGHTS_BLOCK = "Lights";
+
+    public static final String SHADOWS_BLOCK = "Shadows";
+
+    public static final int MATRICES_BINDING = 0;
+
+    public static final int LIGHTS_BINDING = 1;
+
+    public static final int SHADOWS_BINDING = 2;
+
+    public static final int MAX_POINT_LIGHTS = 5;
+
+    public static final int MAX_SPOT_LIGHTS = 5;
+
+    private static final int MATRIX_SIZE_BYTES = 64;
+
+    // Matrices block: mat4 projectionMatrix, mat4 viewMatrix
+    private static final int MATRICES_SIZE = 2 * MATRIX_SIZE_BYTES;
+
+    // Lights block: vec3 ambientLight, float specularPower, DirectionalLight,
+    // PointLight[MAX_POINT_LIGHTS], SpotLight[MAX_SPOT_LIGHTS], Fog
+    private static final int DIR_LIGHT_OFFSET = 16;
+
+    private static final int POINT_LIGHT_SIZE = 48;
+
+    private static final int POINT_LIGHTS_OFFSET = DIR_LIGHT_OFFSET + 32;
+
+    private static final int SPOT_LIGHT_SIZE = 64;
+
+    private static final int SPOT_LIGHTS_OFFSET = POINT_LIGHTS_OFFSET + MAX_POINT_LIGHTS * POINT_LIGHT_SIZE;
+
+    private static final int FOG_OFFSET = SPOT_LIGHTS_OFFSET + MAX_SPOT_LIGHTS * SPOT_LIGHT_SIZE;
+
+    private static final int LIGHTS_SIZE = FOG_OFFSET + 32;
+
+    // Shadows block: mat4 lightViewMatrix[NUM_CASCADES], mat4 orthoProjectionMatrix[NUM_CASCADES],
+    // vec4 cascadeFarPlanes (one component per cascade), int renderShadow
+    private static final int ORTHO_MATRICES_OFFSET = ShadowRenderer.NUM_CASCADES * MATRIX_SIZE_BYTES;
+
+    private static final int CASCADE_FAR_PLANES_OFFSET = ORTHO_MATRICES_OFFSET + ShadowRenderer.NUM_CASCADES * MATRIX_SIZE_BYTES;
+
+    private static final int RENDER_SHADOW_OFFSET = CASCADE_FAR_PLANES_OFFSET + 16;
+
+    private static final int SHADOWS_SIZE = RENDER_SHADOW_OFFSET + 16;
+
+    private final Vector4f tmpVec;
+
+    private final Vector3f tmpVec3;
+
+    private UniformBuffer matricesBuffer;
+
+    private UniformBuffer lightsBuffer;
+
+    private UniformBuffer shadowsBuffer;
+
+    public FrameUniforms() {
+        tmpVec = new Vector4f();
+        tmpVec3 = new Vector3f();
+    }
+
+    public void init() {
+        matricesBuffer = new UniformBuffer(MATRICES_BINDING, MATRICES_SIZE);
+        lightsBuffer = new UniformBuffer(LIGHTS_BINDING, LIGHTS_SIZE);
+        shadowsBuffer = new UniformBuffer(SHADOWS_BINDING, SHADOWS_SIZE);
+    }
+
+    public void updateMatrices(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        ByteBuffer data = matricesBuffer.getData();
+        projectionMatrix.get(0, data);
+        viewMatrix.get(MATRIX_SIZE_BYTES, data);
+        matricesBuffer.upload();
+    }
+
+    /**
+     * Writes the lights, transformed to view coordinates, and the fog.
+     */
+    public void updateLights(SceneLight sceneLight, float specularPower, Fog fog, Matrix4f viewMatrix) {
+        ByteBuffer data = lightsBuffer.getData();
+        long address = MemoryUtil.memAddress(data);
+
+        sceneLight.getAmbientLight().get(0, data);
+        data.putFloat(12, specularPower);
+
+        DirectionalLight dirLight = sceneLight.getDirectionalLight();
+        tmpVec.set(dirLight.getDirection(), 0).mul(viewMatrix);
+        dirLight.getColor().get(DIR_LIGHT_OFFSET, data);
+        tmpVec3.set(tmpVec.x, tmpVec.y, tmpVec.z).get(DIR_LIGHT_OFFSET + 16, data);
+        data.putFloat(DIR_LIGHT_OFFSET + 28, dirLight.getIntensity());
+
+        PointLight[] pointLightList = sceneLight.getPointLightList();
+        int numLights = pointLightList != null ? Math.min(pointLightList.length, MAX_POINT_LIGHTS) : 0;
+        MemoryUtil.memSet(address + POINT_LIGHTS_OFFSET, 0, MAX_POINT_LIGHTS * POINT_LIGHT_SIZE);
+        for (int i = 0; i < numLights; i++) {
+            putPointLight(data, POINT_LIGHTS_OFFSET + i * POINT_LIGHT_SIZE, pointLightList[i], viewMatrix);
+        }
+
+        SpotLight[] spotLightList = sceneLight.getSpotLightList();
+        numLights = spotLightList != null ? Math.min(spotLightList.length, MAX_SPOT_LIGHTS) : 0;
+        MemoryUtil.memSet(address + SPOT_LIGHTS_OFFSET, 0, MAX_SPOT_LIGHTS * SPOT_LIGHT_SIZE);
+        for (int i = 0; i < numLights; i++) {
+            SpotLight spotLight = spotLightList[i];
+            int offset = SPOT_LIGHTS_OFFSET + i * SPOT_LIGHT_SIZE;
+            putPointLight(data, offset, spotLight.getPointLight(), viewMatrix);
+            tmpVec.set(spotLight.getConeDirection(), 0).mul(viewMatrix);
+            tmpVec3.set(tmpVec.x, tmpVec.y, tmpVec.z).get(offset + POINT_LIGHT_SIZE, data);
+            data.putFloat(offset + POINT_LIGHT_SIZE + 12, spotLight.getCutOff());
+        }
+
+        data.putInt(FOG_OFFSET, fog.isActive() ? 1 : 0);
+        fog.getColour().get(FOG_OFFSET + 16, data);
+        data.putFloat(FOG_OFFSET + 28, fog.getDensity());
+
+        lightsBuffer.upload();
+    }
+
+    private void putPointLight(ByteBuffer data, int offset, PointLight pointLight, Matrix4f viewMatrix) {
+        tmpVec.set(pointLight.getPosition(), 1).mul(viewMatrix);
+        pointLight.getColor().get(offset, data);
+        tmpVec3.set(tmpVec.x, tmpVec.y, tmpVec.z).get(offset + 16, data);
+        data.putFloat(offset + 28, pointLight.getIntensity());
+        PointLight.Attenuation att = pointLight.getAttenuation();
+        data.putFloat(offset + 32, att.getConstant());
+        data.putFloat(offset + 36, att.getLinear());
+        data.putFloat(offset + 40, att.getExponent());
+    }
+
+    public void updateShadows(List<ShadowCascade> shadowCascades, boolean renderShadows) {
+        ByteBuffer data = shadowsBuffer.getData();
+        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
+            ShadowCascade shadowCascade = shadowCascades.get(i);
+            shadowCascade.getLightViewMatrix().get(i * MATRIX_SIZE_BYTES, data);
+            shadowCascade.getOrthoProjMatrix().get(ORTHO_MATRICES_OFFSET + i * MATRIX_SIZE_BYTES, data);
+            data.putFloat(CASCADE_FAR_PLANES_OFFSET + i * 4, ShadowRenderer.CASCADE_SPLITS[i]);
+        }
+        data.putInt(RENDER_SHADOW_OFFSET, renderShadows ? 1 : 0);
+        shadowsBuffer.upload();
+    }
+
+    public void cleanup() {
+        if (matricesBuffer != null) {
+            matricesBuffer.cleanup();
+        }
+        if (lightsBuffer != null) {
+            lightsBuffer.cleanup();
+        }
+        if (shadowsBuffer != null) {
+            shadowsBuffer.cleanup();
+        }
+    }
+}
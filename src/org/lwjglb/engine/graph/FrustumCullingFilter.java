@@ -1,10 +1,10 @@
 package org.lwjglb.engine.graph;
 
 import java.util.List;
-import java.util.Map;
 import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.items.GameItem;
 
 public class FrustumCullingFilter {
@@ -26,22 +26,36 @@ public class FrustumCullingFilter {
         frustumInt.set(prjViewMatrix);
     }
 
-    public void filter(Map<? extends Mesh, List<GameItem>> mapMesh) {
-        for (Map.Entry<? extends Mesh, List<GameItem>> entry : mapMesh.entrySet()) {
-            List<GameItem> gameItems = entry.getValue();
-            filter(gameItems, entry.getKey().getBoundingRadius());
+    /**
+     * Collects the visible items of a scene. Only the nodes of the scene
+     * spatial index that intersect the frustum are visited.
+     *
+     * @param scene The scene
+     * @param visibleItems List that is filled with the visible items
+     */
+    public void filter(Scene scene, List<GameItem> visibleItems) {
+        visibleItems.clear();
+        scene.getSpatialIndex().queryFrustum(frustumInt, visibleItems);
+        for (GameItem gameItem : scene.getUnculledItems()) {
+            // The ones inside the frustum have already been returned by the query
+            Vector3f pos = gameItem.getBoundingCenter();
+            if (!insideFrustum(pos.x, pos.y, pos.z, gameItem.getBoundingRadius())) {
+                visibleItems.add(gameItem);
+            }
         }
     }
 
-    public void filter(List<GameItem> gameItems, float meshBoundingRadius) {
-        float boundingRadius;
-        Vector3f pos;
+    /**
+     * Writes the visibility of each mesh of the given items in a view, so
+     * items with several meshes only draw the ones inside the frustum.
+     *
+     * @param gameItems The items, already known to intersect the frustum
+     * @param visibility The visibility set of the scene
+     * @param view The view written
+     */
+    public void filterMeshes(List<GameItem> gameItems, VisibilitySet visibility, int view) {
         for (GameItem gameItem : gameItems) {
-            if (!gameItem.isDisableFrustumCulling()) {
-                boundingRadius = gameItem.getScale() * meshBoundingRadius;
-                pos = gameItem.getPosition();
-                gameItem.setInsideFrustum(insideFrustum(pos.x, pos.y, pos.z, boundingRadius));
-            }
+            visibility.cull(view, gameItem, frustumInt);
         }
     }
 
@@ -18,17 +18,32 @@ public class HeightMapMesh {
 
     private final float maxY;
 
-    private final Mesh mesh;
+    private Mesh mesh;
     
     private final float[][] heightArray;
+
+    private float[] positions;
+
+    private float[] textCoords;
+
+    private float[] normals;
+
+    private int[] indices;
     
     public HeightMapMesh(float minY, float maxY, ByteBuffer heightMapImage, int width, int height, String textureFile, int textInc) throws Exception {
+        this(minY, maxY, heightMapImage, width, height, textInc);
+        createMesh(textureFile);
+    }
+
+    /**
+     * Builds the geometry of the height map without creating its mesh, which
+     * needs a GL context. getMesh returns null until createMesh is called.
+     */
+    public HeightMapMesh(float minY, float maxY, ByteBuffer heightMapImage, int width, int height, int textInc) {
         this.minY = minY;
         this.maxY = maxY;
         
         heightArray = new float[height][width];
-        
-        Texture texture = new Texture(textureFile);
 
         float incx = getXLength() / (width - 1);
         float incz = getZLength() / (height - 1);
@@ -67,18 +82,45 @@ public class HeightMapMesh {
                 }
             }
         }
-        float[] posArr = Utils.listToArray(positions);
-        int[] indicesArr = indices.stream().mapToInt(i -> i).toArray();
-        float[] textCoordsArr = Utils.listToArray(textCoords);
-        float[] normalsArr = calcNormals(posArr, width, height);
-        this.mesh = new Mesh(posArr, textCoordsArr, normalsArr, indicesArr);
+        this.positions = Utils.listToArray(positions);
+        this.indices = indices.stream().mapToInt(i -> i).toArray();
+        this.textCoords = Utils.listToArray(textCoords);
+        this.normals = calcNormals(this.positions, width, height);
+    }
+
+    public void createMesh(String textureFile) throws Exception {
+        Texture texture = new Texture(textureFile);
+        this.mesh = new Mesh(positions, textCoords, normals, indices);
         Material material = new Material(texture, 0.0f);
         mesh.setMaterial(material);
+        // The geometry lives in the mesh buffers now
+        positions = null;
+        textCoords = null;
+        normals = null;
+        indices = null;
     }
 
     public Mesh getMesh() {
         return mesh;
     }
+
+    float[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return Number of vertices along the x axis
+     */
+    public int getNumCols() {
+        return heightArray.length > 0 ? heightArray[0].length : 0;
+    }
+
+    /**
+     * @return Number of vertices along the z axis
+     */
+    public int getNumRows() {
+        return heightArray.length;
+    }
     
     public float getHeight(int row, int col) {
         float result = 0;
@@ -98,7 +140,7 @@ public class HeightMapMesh {
         return Math.abs(-STARTZ*2);
     }
 
-    private float[] calcNormals(float[] posArr, int width, int height) {
+    static float[] calcNormals(float[] posArr, int width, int height) {
         Vector3f v0 = new Vector3f();
         Vector3f v1 = new Vector3f();
         Vector3f v2 = new Vector3f();
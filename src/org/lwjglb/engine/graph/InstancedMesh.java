@@ -1,15 +1,24 @@
 package org.lwjglb.engine.graph;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.joml.Matrix4f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
 import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL42.glDrawElementsInstancedBaseInstance;
+import static org.lwjgl.opengl.GL44.*;
 import org.lwjgl.system.MemoryUtil;
+import static org.lwjgl.system.MemoryUtil.NULL;
 import org.lwjglb.engine.items.GameItem;
 
 public class InstancedMesh extends Mesh {
@@ -24,16 +33,56 @@ public class InstancedMesh extends Mesh {
 
     private static final int INSTANCE_SIZE_BYTES = MATRIX_SIZE_BYTES + FLOAT_SIZE_BYTES * 2 + FLOAT_SIZE_BYTES;
 
-    private static final int INSTANCE_SIZE_FLOATS = MATRIX_SIZE_FLOATS + 3;
+    static final int INSTANCE_SIZE_FLOATS = MATRIX_SIZE_FLOATS + 3;
+
+    /**
+     * Number of frames that can be in flight while the CPU writes the next one.
+     */
+    private static final int BUFFERED_FRAMES = 3;
+
+    /**
+     * Passes that draw a mesh in a frame: the scene pass and the layered
+     * shadow pass, which draws all the cascades at once. Impostor and
+     * particle meshes are only drawn by the scene pass.
+     */
+    private static final int PASSES_PER_FRAME = 2;
+
+    /**
+     * Chunks of numInstances items each pass can draw without waiting. Lists
+     * that take more chunks still draw correctly, but wait in waitForSegment
+     * for the GPU to release the segments of earlier frames.
+     */
+    private static final int CHUNKS_PER_PASS = 2;
+
+    private static final int CHUNKS_PER_FRAME = PASSES_PER_FRAME * CHUNKS_PER_PASS;
+
+    private static final int RING_SEGMENTS = BUFFERED_FRAMES * CHUNKS_PER_FRAME;
+
+    private static final long FENCE_TIMEOUT_NS = 1_000_000L;
+
+    /**
+     * Chunks with less instances than this are packed in the calling thread.
+     */
+    private static final int PARALLEL_PACK_THRESHOLD = 4096;
+
+    private static final int PACK_SLICE_SIZE = 1024;
 
     private final int numInstances;
 
     private final int instanceDataVBO;
 
+    private final boolean persistentMapping;
+
+    private final long[] fences;
+
+    private final Matrix4f packMatrix;
+
+    private int currentSegment;
+
     private FloatBuffer instanceDataBuffer;
 
     public InstancedMesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int numInstances) {
-        super(positions, textCoords, normals, indices, createEmptyIntArray(MAX_WEIGHTS * positions.length / 3, 0), createEmptyFloatArray(MAX_WEIGHTS * positions.length / 3, 0));
+        super(positions, textCoords, normals, indices, null, null, false);
 
         this.numInstances = numInstances;
 
@@ -41,8 +90,24 @@ public class InstancedMesh extends Mesh {
 
         instanceDataVBO = glGenBuffers();
         vboIdList.add(instanceDataVBO);
-        instanceDataBuffer = MemoryUtil.memAllocFloat(numInstances * INSTANCE_SIZE_FLOATS);
         glBindBuffer(GL_ARRAY_BUFFER, instanceDataVBO);
+
+        persistentMapping = isPersistentMappingSupported();
+        if (persistentMapping) {
+            // A ring of segments, each one able to hold a full chunk, mapped once for the mesh life time
+            long size = (long) RING_SEGMENTS * numInstances * INSTANCE_SIZE_BYTES;
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(GL_ARRAY_BUFFER, size, flags);
+            ByteBuffer mappedBuffer = glMapBufferRange(GL_ARRAY_BUFFER, 0, size, flags);
+            instanceDataBuffer = mappedBuffer.asFloatBuffer();
+            fences = new long[RING_SEGMENTS];
+        } else {
+            instanceDataBuffer = MemoryUtil.memAllocFloat(numInstances * INSTANCE_SIZE_FLOATS);
+            fences = null;
+        }
+        currentSegment = 0;
+        packMatrix = new Matrix4f();
+
         int start = 5;
         int strideStart = 0;
         // Model matrix
@@ -68,8 +133,25 @@ public class InstancedMesh extends Mesh {
         glBindVertexArray(0);
     }
 
+    private static boolean isPersistentMappingSupported() {
+        GLCapabilities caps = GL.getCapabilities();
+        return caps.OpenGL44;
+    }
+
     @Override
     public void cleanUp() {
+        if (persistentMapping) {
+            for (int i = 0; i < RING_SEGMENTS; i++) {
+                if (fences[i] != NULL) {
+                    glDeleteSync(fences[i]);
+                    fences[i] = NULL;
+                }
+            }
+            glBindBuffer(GL_ARRAY_BUFFER, instanceDataVBO);
+            glUnmapBuffer(GL_ARRAY_BUFFER);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            this.instanceDataBuffer = null;
+        }
         super.cleanUp();
         if (this.instanceDataBuffer != null) {
             MemoryUtil.memFree(this.instanceDataBuffer);
@@ -118,40 +200,130 @@ public class InstancedMesh extends Mesh {
     }
 
     private void renderChunkInstanced(List<GameItem> gameItems, boolean billBoard, Transformation transformation, Matrix4f viewMatrix) {
-        this.instanceDataBuffer.clear();
-
-        int i = 0;
+        int numItems = gameItems.size();
+        int baseInstance = 0;
+        if (persistentMapping) {
+            waitForSegment(currentSegment);
+            baseInstance = currentSegment * numInstances;
+        } else {
+            this.instanceDataBuffer.clear();
+        }
 
         Texture text = getMaterial().getTexture();
-        for (GameItem gameItem : gameItems) {
-            Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
+        if (numItems < PARALLEL_PACK_THRESHOLD) {
+            packInstances(instanceDataBuffer, gameItems, 0, numItems, baseInstance, billBoard, text, viewMatrix, packMatrix);
+        } else {
+            // Cached matrices are rebuilt here, with those of the parents, workers only read them
+            for (int i = 0; i < numItems; i++) {
+                gameItems.get(i).getModelMatrix();
+            }
+            ForkJoinPool.commonPool().invoke(new PackTask(gameItems, 0, numItems, baseInstance, billBoard, text, viewMatrix));
+        }
+
+        if (persistentMapping) {
+            // Writes are coherent, the draw just needs to point to the segment we filled
+            glDrawElementsInstancedBaseInstance(
+                    GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0, numItems, baseInstance);
+            fences[currentSegment] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            currentSegment = (currentSegment + 1) % RING_SEGMENTS;
+        } else {
+            glBindBuffer(GL_ARRAY_BUFFER, instanceDataVBO);
+            glBufferData(GL_ARRAY_BUFFER, instanceDataBuffer, GL_DYNAMIC_READ);
+
+            glDrawElementsInstanced(
+                    GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0, numItems);
+
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+    }
+
+    private void waitForSegment(int segment) {
+        long fence = fences[segment];
+        if (fence == NULL) {
+            return;
+        }
+        int status = glClientWaitSync(fence, 0, 0);
+        while (status == GL_TIMEOUT_EXPIRED) {
+            status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NS);
+        }
+        glDeleteSync(fence);
+        fences[segment] = NULL;
+    }
+
+    /**
+     * Writes the instance data of the items in [from, to) into an instance
+     * buffer. Each call only touches its own slots so slices can be packed
+     * concurrently.
+     */
+    static void packInstances(FloatBuffer buffer, List<GameItem> gameItems, int from, int to, int baseInstance, boolean billBoard,
+            Texture text, Matrix4f viewMatrix, Matrix4f modelMatrix) {
+        for (int i = from; i < to; i++) {
+            GameItem gameItem = gameItems.get(i);
+            int instancePos = INSTANCE_SIZE_FLOATS * (baseInstance + i);
             if (viewMatrix != null && billBoard) {
+                // The cached matrix of the item must not be modified
+                Transformation.buildModelMatrix(gameItem, modelMatrix);
                 viewMatrix.transpose3x3(modelMatrix);
+                modelMatrix.get(instancePos, buffer);
+            } else {
+                gameItem.getModelMatrix().get(instancePos, buffer);
             }
-            modelMatrix.get(INSTANCE_SIZE_FLOATS * i, instanceDataBuffer);
+
+            float textXOffset = 0;
+            float textYOffset = 0;
             if (text != null) {
                 int col = gameItem.getTextPos() % text.getNumCols();
                 int row = gameItem.getTextPos() / text.getNumCols();
-                float textXOffset = (float) col / text.getNumCols();
-                float textYOffset = (float) row / text.getNumRows();
-                int buffPos = INSTANCE_SIZE_FLOATS * i + MATRIX_SIZE_FLOATS;
-                this.instanceDataBuffer.put(buffPos, textXOffset);
-                this.instanceDataBuffer.put(buffPos + 1, textYOffset);
+                textXOffset = (float) col / text.getNumCols();
+                textYOffset = (float) row / text.getNumRows();
             }
+            int buffPos = instancePos + MATRIX_SIZE_FLOATS;
+            buffer.put(buffPos, textXOffset);
+            buffer.put(buffPos + 1, textYOffset);
 
             // Selected data or scaling for billboard
-            int buffPos = INSTANCE_SIZE_FLOATS * i + MATRIX_SIZE_FLOATS + 2;
-            this.instanceDataBuffer.put(buffPos, billBoard ? gameItem.getScale() : gameItem.isSelected() ? 1 : 0);
-
-            i++;
+            buffer.put(buffPos + 2, billBoard ? gameItem.getScale() : gameItem.isSelected() ? 1 : 0);
         }
+    }
 
-        glBindBuffer(GL_ARRAY_BUFFER, instanceDataVBO);
-        glBufferData(GL_ARRAY_BUFFER, instanceDataBuffer, GL_DYNAMIC_READ);
+    private class PackTask extends RecursiveAction {
 
-        glDrawElementsInstanced(
-                GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0, gameItems.size());
+        private static final long serialVersionUID = 1L;
 
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        private final List<GameItem> gameItems;
+
+        private final int from;
+
+        private final int to;
+
+        private final int baseInstance;
+
+        private final boolean billBoard;
+
+        private final Texture text;
+
+        private final Matrix4f viewMatrix;
+
+        PackTask(List<GameItem> gameItems, int from, int to, int baseInstance, boolean billBoard,
+                Texture text, Matrix4f viewMatrix) {
+            this.gameItems = gameItems;
+            this.from = from;
+            this.to = to;
+            this.baseInstance = baseInstance;
+            this.billBoard = billBoard;
+            this.text = text;
+            this.viewMatrix = viewMatrix;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PACK_SLICE_SIZE) {
+                packInstances(instanceDataBuffer, gameItems, from, to, baseInstance, billBoard, text, viewMatrix, new Matrix4f());
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PackTask(gameItems, from, middle, baseInstance, billBoard, text, viewMatrix),
+                        new PackTask(gameItems, middle, to, baseInstance, billBoard, text, viewMatrix));
+            }
+        }
     }
 }
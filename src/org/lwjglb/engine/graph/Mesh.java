@@ -1,18 +1,21 @@
 package org.lwjglb.engine.graph;
 
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.function.Consumer;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+import org.joml.Vector3f;
 import org.lwjgl.system.MemoryUtil;
-import org.lwjglb.engine.items.GameItem;
+import org.lwjglb.engine.graph.arena.GeometryArena;
+import org.lwjglb.engine.graph.arena.GeometryRange;
+import org.lwjglb.engine.graph.lod.LodChain;
 
 public class Mesh {
 
@@ -24,100 +27,114 @@ public class Mesh {
 
     private final int vertexCount;
 
+    private final VertexFormat vertexFormat;
+
+    /**
+     * Vertices and indices in the arena of the vertex format, null when the
+     * mesh has buffers of its own.
+     */
+    private final GeometryRange geometryRange;
+
+    private int indicesVboId;
+
+    /**
+     * First index and number of indices of each level of detail, all of them
+     * stored in the same index buffer. Level 0 is the full mesh.
+     */
+    private int[] lodOffsets;
+
+    private int[] lodCounts;
+
+    private float[] lodErrors;
+
     private Material material;
 
+    private final Vector3f aabbMin;
+
+    private final Vector3f aabbMax;
+
+    /**
+     * Center, in mesh space, of the bounding sphere. It is not the origin
+     * unless the mesh is centered on it.
+     */
+    private final Vector3f boundingCenter;
+
     private float boundingRadius;
 
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices) {
-        this(positions, textCoords, normals, indices, createEmptyIntArray(MAX_WEIGHTS * positions.length / 3, 0), createEmptyFloatArray(MAX_WEIGHTS * positions.length / 3, 0));
+        this(positions, textCoords, normals, indices, null, null);
     }
 
+    /**
+     * Creates a mesh. The skinning attributes are only stored when joint
+     * indices and weights are given.
+     *
+     * @param positions The positions
+     * @param textCoords The texture coordinates
+     * @param normals The normals
+     * @param indices The indices
+     * @param jointIndices The joint indices, MAX_WEIGHTS per vertex, or null
+     * @param weights The joint weights, MAX_WEIGHTS per vertex, or null
+     */
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights) {
-        FloatBuffer posBuffer = null;
-        FloatBuffer textCoordsBuffer = null;
-        FloatBuffer vecNormalsBuffer = null;
-        FloatBuffer weightsBuffer = null;
-        IntBuffer jointIndicesBuffer = null;
+        this(positions, textCoords, normals, indices, jointIndices, weights, true);
+    }
+
+    /**
+     * @param shared If the geometry is stored in the arena of its vertex
+     * format instead of buffers of its own. Meshes that add attributes to
+     * their VAO cannot be shared.
+     */
+    protected Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights, boolean shared) {
+        ByteBuffer verticesBuffer = null;
         IntBuffer indicesBuffer = null;
+        aabbMin = new Vector3f();
+        aabbMax = new Vector3f();
+        boundingCenter = new Vector3f();
         try {
-            calculateBoundingRadius(positions);
+            boundingRadius = calculateBounds(positions, aabbMin, aabbMax, boundingCenter);
             
             vertexCount = indices.length;
+            lodOffsets = new int[]{0};
+            lodCounts = new int[]{vertexCount};
+            lodErrors = new float[]{0};
             vboIdList = new ArrayList();
+            vertexFormat = VertexFormat.forMesh(textCoords, jointIndices != null && weights != null);
 
-            vaoId = glGenVertexArrays();
-            glBindVertexArray(vaoId);
-
-            // Position VBO
-            int vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            posBuffer = MemoryUtil.memAllocFloat(positions.length);
-            posBuffer.put(positions).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, posBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-
-            // Texture coordinates VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            textCoordsBuffer = MemoryUtil.memAllocFloat(textCoords.length);
-            textCoordsBuffer.put(textCoords).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, textCoordsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-
-            // Vertex normals VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            vecNormalsBuffer = MemoryUtil.memAllocFloat(normals.length);
-            vecNormalsBuffer.put(normals).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, vecNormalsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-
-            // Weights
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            weightsBuffer = MemoryUtil.memAllocFloat(weights.length);
-            weightsBuffer.put(weights).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, weightsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(3, 4, GL_FLOAT, false, 0, 0);
-
-            // Joint indices
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            jointIndicesBuffer = MemoryUtil.memAllocInt(jointIndices.length);
-            jointIndicesBuffer.put(jointIndices).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, jointIndicesBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(4, 4, GL_FLOAT, false, 0, 0);
-
-            // Index VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
+            verticesBuffer = MemoryUtil.memAlloc(positions.length / 3 * vertexFormat.getStride());
+            vertexFormat.put(verticesBuffer, positions, textCoords, normals, jointIndices, weights);
+            verticesBuffer.flip();
             indicesBuffer = MemoryUtil.memAllocInt(indices.length);
             indicesBuffer.put(indices).flip();
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
 
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindVertexArray(0);
-        } finally {
-            if (posBuffer != null) {
-                MemoryUtil.memFree(posBuffer);
-            }
-            if (textCoordsBuffer != null) {
-                MemoryUtil.memFree(textCoordsBuffer);
+            if (shared) {
+                geometryRange = GeometryArena.get(vertexFormat).allocate(verticesBuffer, indicesBuffer);
+                vaoId = geometryRange.getArena().getVaoId();
+            } else {
+                geometryRange = null;
+                vaoId = glGenVertexArrays();
+                glBindVertexArray(vaoId);
+
+                // Interleaved vertices VBO
+                int vboId = glGenBuffers();
+                vboIdList.add(vboId);
+                glBindBuffer(GL_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ARRAY_BUFFER, verticesBuffer, GL_STATIC_DRAW);
+                vertexFormat.setupAttributes();
+
+                // Index VBO
+                vboId = glGenBuffers();
+                vboIdList.add(vboId);
+                indicesVboId = vboId;
+                glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+
+                glBindBuffer(GL_ARRAY_BUFFER, 0);
+                glBindVertexArray(0);
             }
-            if (vecNormalsBuffer != null) {
-                MemoryUtil.memFree(vecNormalsBuffer);
-            }
-            if (weightsBuffer != null) {
-                MemoryUtil.memFree(weightsBuffer);
-            }
-            if (jointIndicesBuffer != null) {
-                MemoryUtil.memFree(jointIndicesBuffer);
+        } finally {
+            if (verticesBuffer != null) {
+                MemoryUtil.memFree(verticesBuffer);
             }
             if (indicesBuffer != null) {
                 MemoryUtil.memFree(indicesBuffer);
@@ -125,13 +142,120 @@ public class Mesh {
         }
     }
     
-    private void calculateBoundingRadius(float positions[]) {
-        int length = positions.length;
-        boundingRadius = 0;
-        for(int i=0; i< length; i++) {
-            float pos = positions[i];
-            boundingRadius = Math.max(Math.abs(pos), boundingRadius);
+    /**
+     * Creates a mesh, stored in the arena of its vertex format, from vertices
+     * already laid out in that format.
+     *
+     * @param vertexFormat The vertex format
+     * @param vertices The vertices
+     * @param indices The indices
+     */
+    Mesh(VertexFormat vertexFormat, ByteBuffer vertices, IntBuffer indices) {
+        this.vertexFormat = vertexFormat;
+        aabbMin = new Vector3f();
+        aabbMax = new Vector3f();
+        boundingCenter = new Vector3f();
+        int stride = vertexFormat.getStride();
+        float[] positions = new float[vertices.remaining() / stride * 3];
+        for (int i = 0; i < positions.length / 3; i++) {
+            int pos = vertices.position() + i * stride;
+            positions[i * 3] = vertices.getFloat(pos);
+            positions[i * 3 + 1] = vertices.getFloat(pos + 4);
+            positions[i * 3 + 2] = vertices.getFloat(pos + 8);
+        }
+        boundingRadius = calculateBounds(positions, aabbMin, aabbMax, boundingCenter);
+        vertexCount = indices.remaining();
+        lodOffsets = new int[]{0};
+        lodCounts = new int[]{vertexCount};
+        lodErrors = new float[]{0};
+        vboIdList = new ArrayList<>();
+        geometryRange = GeometryArena.get(vertexFormat).allocate(vertices, indices);
+        vaoId = geometryRange.getArena().getVaoId();
+    }
+
+    /**
+     * Calculates the bounding box and a bounding sphere of a set of
+     * positions. The sphere is the one found by Ritter's algorithm, within a
+     * few percent of the minimal one, or the one around the center of the box
+     * when it is smaller.
+     *
+     * @param positions The positions
+     * @param aabbMin Where the minimum corner of the bounding box is written
+     * @param aabbMax Where the maximum corner of the bounding box is written
+     * @param center Where the center of the bounding sphere is written
+     * @return The radius of the bounding sphere, 0 if there are no positions
+     */
+    public static float calculateBounds(float[] positions, Vector3f aabbMin, Vector3f aabbMax, Vector3f center) {
+        int numVertices = positions.length / 3;
+        if (numVertices == 0) {
+            aabbMin.zero();
+            aabbMax.zero();
+            center.zero();
+            return 0;
+        }
+        aabbMin.set(Float.POSITIVE_INFINITY);
+        aabbMax.set(Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < numVertices; i++) {
+            float x = positions[i * 3];
+            float y = positions[i * 3 + 1];
+            float z = positions[i * 3 + 2];
+            aabbMin.set(Math.min(aabbMin.x, x), Math.min(aabbMin.y, y), Math.min(aabbMin.z, z));
+            aabbMax.set(Math.max(aabbMax.x, x), Math.max(aabbMax.y, y), Math.max(aabbMax.z, z));
+        }
+
+        // Start with the two vertices farthest apart, found from an arbitrary one
+        int a = farthestVertex(positions, positions[0], positions[1], positions[2]);
+        int b = farthestVertex(positions, positions[a * 3], positions[a * 3 + 1], positions[a * 3 + 2]);
+        float cx = (positions[a * 3] + positions[b * 3]) * 0.5f;
+        float cy = (positions[a * 3 + 1] + positions[b * 3 + 1]) * 0.5f;
+        float cz = (positions[a * 3 + 2] + positions[b * 3 + 2]) * 0.5f;
+        float radius = distance(positions, a, cx, cy, cz);
+        // Grow it towards each vertex left outside
+        for (int i = 0; i < numVertices; i++) {
+            float distance = distance(positions, i, cx, cy, cz);
+            if (distance > radius) {
+                float newRadius = (radius + distance) * 0.5f;
+                float k = (newRadius - radius) / distance;
+                cx += (positions[i * 3] - cx) * k;
+                cy += (positions[i * 3 + 1] - cy) * k;
+                cz += (positions[i * 3 + 2] - cz) * k;
+                radius = newRadius;
+            }
+        }
+
+        float bx = (aabbMin.x + aabbMax.x) * 0.5f;
+        float by = (aabbMin.y + aabbMax.y) * 0.5f;
+        float bz = (aabbMin.z + aabbMax.z) * 0.5f;
+        float boxRadius = 0;
+        for (int i = 0; i < numVertices; i++) {
+            boxRadius = Math.max(boxRadius, distance(positions, i, bx, by, bz));
+        }
+        if (boxRadius < radius) {
+            center.set(bx, by, bz);
+            return boxRadius;
         }
+        center.set(cx, cy, cz);
+        return radius;
+    }
+
+    private static int farthestVertex(float[] positions, float x, float y, float z) {
+        int farthest = 0;
+        float maxDistance = -1;
+        for (int i = 0; i < positions.length / 3; i++) {
+            float distance = distance(positions, i, x, y, z);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    private static float distance(float[] positions, int vertex, float x, float y, float z) {
+        float dx = positions[vertex * 3] - x;
+        float dy = positions[vertex * 3 + 1] - y;
+        float dz = positions[vertex * 3 + 2] - z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
 
     public Material getMaterial() {
@@ -142,6 +266,14 @@ public class Mesh {
         this.material = material;
     }
 
+    public VertexFormat getVertexFormat() {
+        return vertexFormat;
+    }
+
+    public GeometryRange getGeometryRange() {
+        return geometryRange;
+    }
+
     public final int getVaoId() {
         return vaoId;
     }
@@ -150,6 +282,21 @@ public class Mesh {
         return vertexCount;
     }
 
+    public Vector3f getAabbMin() {
+        return aabbMin;
+    }
+
+    public Vector3f getAabbMax() {
+        return aabbMax;
+    }
+
+    public Vector3f getBoundingCenter() {
+        return boundingCenter;
+    }
+
+    /**
+     * @return Radius of the bounding sphere, around its center
+     */
     public float getBoundingRadius() {
         return boundingRadius;
     }
@@ -158,7 +305,113 @@ public class Mesh {
         this.boundingRadius = boundingRadius;
     }
 
+    public int getNumLods() {
+        return lodCounts.length;
+    }
+
+    /**
+     * @param level The level of detail
+     * @return Position of its first index in the index buffer of the mesh
+     */
+    public int getLodFirstIndex(int level) {
+        return (geometryRange != null ? geometryRange.getFirstIndex() : 0) + lodOffsets[level];
+    }
+
+    public int getLodIndexCount(int level) {
+        return lodCounts[level];
+    }
+
+    /**
+     * Gets the error of a level of detail: the largest distance, in mesh
+     * units, between its surface and the full mesh.
+     *
+     * @param level The level
+     * @return The error
+     */
+    public float getLodError(int level) {
+        return lodErrors[level];
+    }
+
+    /**
+     * Appends the simplified levels of the mesh to its index buffer. They use
+     * the same vertices, so only indices are added.
+     *
+     * @param lodChain The levels
+     */
+    public void setLodChain(LodChain lodChain) {
+        int numLevels = lodChain.getNumLevels() + 1;
+        int[] offsets = new int[numLevels];
+        int[] counts = new int[numLevels];
+        float[] errors = new float[numLevels];
+        counts[0] = vertexCount;
+        int total = vertexCount;
+        for (int i = 1; i < numLevels; i++) {
+            offsets[i] = total;
+            counts[i] = lodChain.getIndices(i - 1).length;
+            errors[i] = lodChain.getError(i - 1);
+            total += counts[i];
+        }
+
+        IntBuffer indicesBuffer = null;
+        try {
+            if (geometryRange != null) {
+                GeometryArena arena = geometryRange.getArena();
+                arena.resizeIndices(geometryRange, total);
+                for (int i = 1; i < numLevels; i++) {
+                    int[] indices = lodChain.getIndices(i - 1);
+                    indicesBuffer = MemoryUtil.memAllocInt(indices.length);
+                    indicesBuffer.put(indices).flip();
+                    arena.updateIndices(geometryRange, offsets[i], indicesBuffer);
+                    MemoryUtil.memFree(indicesBuffer);
+                    indicesBuffer = null;
+                }
+            } else {
+                int vboId = glGenBuffers();
+                glBindVertexArray(vaoId);
+                glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, (long) total * 4, GL_STATIC_DRAW);
+
+                // Keep the full mesh at the start of the new buffer
+                glBindBuffer(GL_COPY_READ_BUFFER, indicesVboId);
+                glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_ELEMENT_ARRAY_BUFFER, 0, 0, (long) vertexCount * 4);
+                glBindBuffer(GL_COPY_READ_BUFFER, 0);
+
+                for (int i = 1; i < numLevels; i++) {
+                    int[] indices = lodChain.getIndices(i - 1);
+                    indicesBuffer = MemoryUtil.memAllocInt(indices.length);
+                    indicesBuffer.put(indices).flip();
+                    glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, (long) offsets[i] * 4, indicesBuffer);
+                    MemoryUtil.memFree(indicesBuffer);
+                    indicesBuffer = null;
+                }
+                glBindVertexArray(0);
+
+                glDeleteBuffers(indicesVboId);
+                vboIdList.set(vboIdList.indexOf(indicesVboId), vboId);
+                indicesVboId = vboId;
+            }
+        } finally {
+            if (indicesBuffer != null) {
+                MemoryUtil.memFree(indicesBuffer);
+            }
+        }
+        lodOffsets = offsets;
+        lodCounts = counts;
+        lodErrors = errors;
+    }
+
     protected void initRender() {
+        bindTextures();
+        bindVertexArray();
+    }
+
+    protected void endRender() {
+        unbindVertexArray();
+
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    public void bindTextures() {
         Texture texture = material != null ? material.getTexture() : null;
         if (texture != null) {
             // Activate first texture bank
@@ -173,72 +426,65 @@ public class Mesh {
             // Bind the texture
             glBindTexture(GL_TEXTURE_2D, normalMap.getId());
         }
+    }
 
+    public void bindVertexArray() {
+        if (geometryRange != null) {
+            // The attributes of the arena VAO are always enabled
+            geometryRange.getArena().bind();
+            return;
+        }
         // Draw the mesh
         glBindVertexArray(getVaoId());
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
-        glEnableVertexAttribArray(3);
-        glEnableVertexAttribArray(4);
+        vertexFormat.enableAttributes();
     }
 
-    protected void endRender() {
+    public void unbindVertexArray() {
+        if (geometryRange != null) {
+            geometryRange.getArena().unbind();
+            return;
+        }
         // Restore state
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        glDisableVertexAttribArray(3);
-        glDisableVertexAttribArray(4);
+        vertexFormat.disableAttributes();
         glBindVertexArray(0);
-
-        glBindTexture(GL_TEXTURE_2D, 0);
     }
 
-    public void render() {
-        initRender();
-
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+    public void draw() {
+        draw(0);
+    }
 
-        endRender();
+    public void draw(int level) {
+        if (geometryRange != null) {
+            glDrawElementsBaseVertex(GL_TRIANGLES, lodCounts[level], GL_UNSIGNED_INT,
+                    (long) getLodFirstIndex(level) * 4, geometryRange.getBaseVertex());
+        } else {
+            glDrawElements(GL_TRIANGLES, lodCounts[level], GL_UNSIGNED_INT, (long) lodOffsets[level] * 4);
+        }
     }
 
-    public void renderList(List<GameItem> gameItems, Consumer<GameItem> consumer) {
+    public void render() {
         initRender();
 
-        for (GameItem gameItem : gameItems) {
-            if (gameItem.isInsideFrustum()) {
-                // Set up data requiered by gameItem
-                consumer.accept(gameItem);
-                // Render this game item
-                glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
-            }
-        }
+        draw();
 
         endRender();
     }
 
     public void cleanUp() {
-        glDisableVertexAttribArray(0);
-
-        // Delete the VBOs
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        for (int vboId : vboIdList) {
-            glDeleteBuffers(vboId);
-        }
-
         // Delete the texture
         Texture texture = material.getTexture();
         if (texture != null) {
             texture.cleanup();
         }
 
-        // Delete the VAO
-        glBindVertexArray(0);
-        glDeleteVertexArrays(vaoId);
+        deleteBuffers();
     }
 
     public void deleteBuffers() {
+        if (geometryRange != null) {
+            geometryRange.getArena().free(geometryRange);
+            return;
+        }
         glDisableVertexAttribArray(0);
 
         // Delete the VBOs
@@ -252,16 +498,4 @@ public class Mesh {
         glDeleteVertexArrays(vaoId);
     }
 
-    protected static float[] createEmptyFloatArray(int length, float defaultValue) {
-        float[] result = new float[length];
-        Arrays.fill(result, defaultValue);
-        return result;
-    }
-
-    protected static int[] createEmptyIntArray(int length, int defaultValue) {
-        int[] result = new int[length];
-        Arrays.fill(result, defaultValue);
-        return result;
-    }
-
 }
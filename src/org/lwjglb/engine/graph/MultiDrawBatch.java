@@ -0,0 +1,273 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.graph.anim.AnimGameItem;
+import org.lwjglb.engine.graph.arena.GeometryRange;
+import org.lwjglb.engine.graph.lod.LodSelector;
+import org.lwjglb.engine.items.GameItem;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+import static org.lwjgl.opengl.GL43.glMultiDrawElementsIndirect;
+
+/**
+ * Submits the draws of a render queue with one glMultiDrawElementsIndirect
+ * per bucket of draws that share a geometry arena and, optionally, a
+ * material. Only static meshes stored in an arena are batched, skinned items
+ * need their joint matrices and are left to the caller.
+ * <p>
+ * The data of each draw is laid out like the instance data of an
+ * InstancedMesh and read through the same instanced attributes, locations 5
+ * to 10. The command of each draw points its base instance to its slot, so
+ * the shaders draw the batch through their instanced path.
+ */
+public class MultiDrawBatch {
+
+    private static final int COMMAND_SIZE_INTS = 5;
+
+    private static final int COMMAND_SIZE_BYTES = COMMAND_SIZE_INTS * 4;
+
+    private static final int DRAW_SIZE_FLOATS = InstancedMesh.INSTANCE_SIZE_FLOATS;
+
+    private static final int DRAW_SIZE_BYTES = DRAW_SIZE_FLOATS * 4;
+
+    private static final int FIRST_DRAW_ATTRIBUTE = 5;
+
+    private static final int NUM_DRAW_ATTRIBUTES = 6;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean splitByMaterial;
+
+    private final int drawDataVboId;
+
+    private final int commandBufferId;
+
+    private FloatBuffer drawData;
+
+    private IntBuffer commands;
+
+    private int capacity;
+
+    private int numDraws;
+
+    private Mesh[] bucketMeshes;
+
+    /**
+     * First draw of each bucket, plus the number of draws at the end.
+     */
+    private int[] bucketStarts;
+
+    private int numBuckets;
+
+    private int boundVaoId;
+
+    /**
+     * @param splitByMaterial If draws with different materials go to
+     * different buckets. Passes that only write depth do not need it.
+     */
+    public MultiDrawBatch(boolean splitByMaterial) {
+        this.splitByMaterial = splitByMaterial;
+        drawDataVboId = glGenBuffers();
+        commandBufferId = glGenBuffers();
+        bucketMeshes = new Mesh[16];
+        bucketStarts = new int[17];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public static boolean isSupported() {
+        return GL.getCapabilities().OpenGL43;
+    }
+
+    /**
+     * @param mesh The mesh
+     * @param gameItem The item
+     * @return True if the draw of the item is submitted by the batch
+     */
+    public static boolean accepts(Mesh mesh, GameItem gameItem) {
+        GeometryRange range = mesh.getGeometryRange();
+        return range != null && !mesh.getVertexFormat().isSkinned() && !(gameItem instanceof AnimGameItem);
+    }
+
+    /**
+     * Writes the draws of the queue that the batch accepts, in queue order,
+     * and uploads them.
+     *
+     * @param queue The sorted queue
+     * @param lodSelector Selects the level of detail of each draw
+     */
+    public void build(RenderQueue queue, LodSelector lodSelector) {
+        numDraws = 0;
+        numBuckets = 0;
+        drawData.clear();
+        commands.clear();
+        Mesh bucketMesh = null;
+        int size = queue.size();
+        for (int i = 0; i < size; i++) {
+            Mesh mesh = queue.getMesh(i);
+            GameItem gameItem = queue.getGameItem(i);
+            if (!accepts(mesh, gameItem)) {
+                continue;
+            }
+            if (bucketMesh == null || mesh.getVaoId() != bucketMesh.getVaoId()
+                    || (splitByMaterial && mesh.getMaterial() != bucketMesh.getMaterial())) {
+                startBucket(mesh);
+                bucketMesh = mesh;
+            }
+            addDraw(mesh, gameItem, lodSelector.selectLevel(gameItem, mesh));
+        }
+        bucketStarts[numBuckets] = numDraws;
+
+        drawData.limit(numDraws * DRAW_SIZE_FLOATS);
+        commands.limit(numDraws * COMMAND_SIZE_INTS);
+        glBindBuffer(GL_ARRAY_BUFFER, drawDataVboId);
+        glBufferData(GL_ARRAY_BUFFER, drawData, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBufferId);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_STREAM_DRAW);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    public int getNumDraws() {
+        return numDraws;
+    }
+
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    /**
+     * @param bucket The bucket
+     * @return A mesh of the bucket, all of them share its arena and, if
+     * split by material, its material
+     */
+    public Mesh getBucketMesh(int bucket) {
+        return bucketMeshes[bucket];
+    }
+
+    public void drawBucket(int bucket) {
+        Mesh mesh = bucketMeshes[bucket];
+        if (mesh.getVaoId() != boundVaoId) {
+            if (boundVaoId != 0) {
+                disableDrawAttributes();
+            }
+            mesh.bindVertexArray();
+            // The arena VAO is shared with other batches and paths, point it to our draws each time
+            setupDrawAttributes(drawDataVboId, 0);
+            enableDrawAttributes();
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBufferId);
+            boundVaoId = mesh.getVaoId();
+        }
+        int first = bucketStarts[bucket];
+        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, (long) first * COMMAND_SIZE_BYTES,
+                bucketStarts[bucket + 1] - first, 0);
+    }
+
+    /**
+     * Restores the state changed by drawBucket.
+     */
+    public void end() {
+        if (boundVaoId != 0) {
+            disableDrawAttributes();
+            bucketMeshes[0].unbindVertexArray();
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+            boundVaoId = 0;
+        }
+        Arrays.fill(bucketMeshes, 0, numBuckets, null);
+    }
+
+    public void cleanup() {
+        glDeleteBuffers(drawDataVboId);
+        glDeleteBuffers(commandBufferId);
+        MemoryUtil.memFree(drawData);
+        MemoryUtil.memFree(commands);
+    }
+
+    /**
+     * Points the instanced attributes of the vertex array bound to draw data
+     * laid out like the instance data of an InstancedMesh.
+     *
+     * @param vboId The buffer with the draw data
+     * @param offset Offset, in bytes, of the data of the first instance
+     */
+    static void setupDrawAttributes(int vboId, long offset) {
+        glBindBuffer(GL_ARRAY_BUFFER, vboId);
+        int start = FIRST_DRAW_ATTRIBUTE;
+        for (int i = 0; i < 4; i++) {
+            glVertexAttribPointer(start + i, 4, GL_FLOAT, false, DRAW_SIZE_BYTES, offset + i * 16);
+        }
+        glVertexAttribPointer(start + 4, 2, GL_FLOAT, false, DRAW_SIZE_BYTES, offset + 64);
+        glVertexAttribPointer(start + 5, 1, GL_FLOAT, false, DRAW_SIZE_BYTES, offset + 72);
+        for (int i = 0; i < NUM_DRAW_ATTRIBUTES; i++) {
+            glVertexAttribDivisor(start + i, 1);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    static void enableDrawAttributes() {
+        for (int i = 0; i < NUM_DRAW_ATTRIBUTES; i++) {
+            glEnableVertexAttribArray(FIRST_DRAW_ATTRIBUTE + i);
+        }
+    }
+
+    static void disableDrawAttributes() {
+        // Other draws of the arena must not read the instanced attributes
+        for (int i = 0; i < NUM_DRAW_ATTRIBUTES; i++) {
+            glDisableVertexAttribArray(FIRST_DRAW_ATTRIBUTE + i);
+        }
+    }
+
+    private void startBucket(Mesh mesh) {
+        if (numBuckets == bucketMeshes.length) {
+            bucketMeshes = Arrays.copyOf(bucketMeshes, bucketMeshes.length * 2);
+            bucketStarts = Arrays.copyOf(bucketStarts, bucketMeshes.length + 1);
+        }
+        bucketMeshes[numBuckets] = mesh;
+        bucketStarts[numBuckets] = numDraws;
+        numBuckets++;
+    }
+
+    private void addDraw(Mesh mesh, GameItem gameItem, int level) {
+        if (numDraws == capacity) {
+            grow();
+        }
+        int drawPos = numDraws * DRAW_SIZE_FLOATS;
+        gameItem.getModelMatrix().get(drawPos, drawData);
+        // Items drawn one by one never had a texture atlas offset, keep it that way
+        drawData.put(drawPos + 16, 0);
+        drawData.put(drawPos + 17, 0);
+        drawData.put(drawPos + 18, gameItem.isSelected() ? 1 : 0);
+
+        int commandPos = numDraws * COMMAND_SIZE_INTS;
+        commands.put(commandPos, mesh.getLodIndexCount(level));
+        commands.put(commandPos + 1, 1);
+        commands.put(commandPos + 2, mesh.getLodFirstIndex(level));
+        commands.put(commandPos + 3, mesh.getGeometryRange().getBaseVertex());
+        commands.put(commandPos + 4, numDraws);
+        numDraws++;
+    }
+
+    private void grow() {
+        FloatBuffer oldDrawData = drawData;
+        IntBuffer oldCommands = commands;
+        allocate(capacity * 2);
+        oldDrawData.clear();
+        oldCommands.clear();
+        drawData.put(oldDrawData).clear();
+        commands.put(oldCommands).clear();
+        MemoryUtil.memFree(oldDrawData);
+        MemoryUtil.memFree(oldCommands);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        drawData = MemoryUtil.memAllocFloat(capacity * DRAW_SIZE_FLOATS);
+        commands = MemoryUtil.memAllocInt(capacity * COMMAND_SIZE_INTS);
+    }
+}
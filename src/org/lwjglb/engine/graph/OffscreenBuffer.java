@@ -0,0 +1,78 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * A colour and depth-stencil target that takes the place of the window
+ * framebuffer when the engine runs without a visible window.
+ */
+public class OffscreenBuffer {
+
+    private final int width;
+
+    private final int height;
+
+    private final int fboId;
+
+    private final int colourBufferId;
+
+    private final int depthStencilBufferId;
+
+    public OffscreenBuffer(int width, int height) throws Exception {
+        this.width = width;
+        this.height = height;
+
+        fboId = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, fboId);
+
+        colourBufferId = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, colourBufferId);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colourBufferId);
+
+        depthStencilBufferId = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthStencilBufferId);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH24_STENCIL8, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthStencilBufferId);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new Exception("Could not create FrameBuffer");
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFboId() {
+        return fboId;
+    }
+
+    public void bind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, fboId);
+    }
+
+    /**
+     * Reads the colour buffer. It waits for the GPU to finish the frame.
+     *
+     * @param pixels Where the RGBA pixels are stored, width * height * 4 bytes
+     */
+    public void readPixels(ByteBuffer pixels) {
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, fboId);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+    }
+
+    public void cleanup() {
+        glDeleteFramebuffers(fboId);
+        glDeleteRenderbuffers(colourBufferId);
+        glDeleteRenderbuffers(depthStencilBufferId);
+    }
+}
@@ -0,0 +1,185 @@
+package org.lwjglb.engine.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Frustum culling over flat arrays of bounding spheres. The bounds of the
+ * items are gathered on the calling thread, since reading them may rebuild
+ * the cached transformation of an item and of its parents. The arrays are
+ * then split in slices that are culled in parallel in the common fork join
+ * pool. Each slice tests its spheres one plane at a time (a loop the JIT can
+ * vectorize) and writes the result into its own words of a visibility
+ * bitset.
+ */
+public class ParallelFrustumCullingFilter {
+
+    private static final int NUM_PLANES = 6;
+
+    /**
+     * Items per slice, a multiple of 64 so slices never share a bitset word.
+     */
+    private static final int SLICE_SIZE = 4096;
+
+    private final Matrix4f prjViewMatrix;
+
+    private final float[] planes;
+
+    private final Vector4f tmpPlane;
+
+    private GameItem[] items;
+
+    private float[] centerX;
+
+    private float[] centerY;
+
+    private float[] centerZ;
+
+    private float[] radius;
+
+    private float[] distance;
+
+    private long[] visibility;
+
+    private int numItems;
+
+    public ParallelFrustumCullingFilter() {
+        prjViewMatrix = new Matrix4f();
+        planes = new float[NUM_PLANES * 4];
+        tmpPlane = new Vector4f();
+        allocate(SLICE_SIZE);
+    }
+
+    public void updateFrustum(Matrix4f projMatrix, Matrix4f viewMatrix) {
+        prjViewMatrix.set(projMatrix);
+        prjViewMatrix.mul(viewMatrix);
+        for (int i = 0; i < NUM_PLANES; i++) {
+            // Planes are normalized so the distances can be compared with the radius
+            prjViewMatrix.frustumPlane(i, tmpPlane);
+            int offset = i * 4;
+            planes[offset] = tmpPlane.x;
+            planes[offset + 1] = tmpPlane.y;
+            planes[offset + 2] = tmpPlane.z;
+            planes[offset + 3] = tmpPlane.w;
+        }
+    }
+
+    /**
+     * Culls the items. Their bounds are read at the time of the call; the
+     * result is kept until the next call.
+     *
+     * @param gameItems The items to cull
+     */
+    public void filter(List<GameItem> gameItems) {
+        numItems = gameItems.size();
+        if (numItems > items.length) {
+            allocate(Math.max(numItems, items.length * 2));
+        }
+        items = gameItems.toArray(items);
+        for (int i = 0; i < numItems; i++) {
+            GameItem gameItem = items[i];
+            Vector3f pos = gameItem.getBoundingCenter();
+            centerX[i] = pos.x;
+            centerY[i] = pos.y;
+            centerZ[i] = pos.z;
+            radius[i] = gameItem.isDisableFrustumCulling() ? Float.POSITIVE_INFINITY : gameItem.getBoundingRadius();
+        }
+        int numWords = (numItems + 63) >>> 6;
+        Arrays.fill(visibility, 0, numWords, 0L);
+
+        if (numItems <= SLICE_SIZE) {
+            cullSlice(0, numItems);
+        } else {
+            ForkJoinPool.commonPool().invoke(new CullTask(0, numItems));
+        }
+    }
+
+    public boolean isVisible(int index) {
+        return (visibility[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Adds the visible items of the last call to filter to a list, in the
+     * order they were given.
+     *
+     * @param visibleItems List where the items are added
+     */
+    public void getVisibleItems(List<GameItem> visibleItems) {
+        int numWords = (numItems + 63) >>> 6;
+        for (int word = 0; word < numWords; word++) {
+            long bits = visibility[word];
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                visibleItems.add(items[(word << 6) + bit]);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private void cullSlice(int from, int to) {
+        Arrays.fill(distance, from, to, Float.POSITIVE_INFINITY);
+
+        // Keep the smallest distance, relative to the radius, to any plane
+        for (int p = 0; p < NUM_PLANES; p++) {
+            int offset = p * 4;
+            float a = planes[offset];
+            float b = planes[offset + 1];
+            float c = planes[offset + 2];
+            float d = planes[offset + 3];
+            for (int i = from; i < to; i++) {
+                float dist = a * centerX[i] + b * centerY[i] + c * centerZ[i] + d + radius[i];
+                distance[i] = Math.min(distance[i], dist);
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            if (distance[i] >= 0) {
+                visibility[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        items = items == null ? new GameItem[capacity] : Arrays.copyOf(items, capacity);
+        centerX = new float[capacity];
+        centerY = new float[capacity];
+        centerZ = new float[capacity];
+        radius = new float[capacity];
+        distance = new float[capacity];
+        visibility = new long[(capacity + 63) >>> 6];
+    }
+
+    private class CullTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int to;
+
+        CullTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SLICE_SIZE) {
+                cullSlice(from, to);
+            } else {
+                // Split on a slice boundary so each task owns whole bitset words
+                int middle = from + ((to - from) / SLICE_SIZE / 2) * SLICE_SIZE;
+                if (middle == from) {
+                    middle += SLICE_SIZE;
+                }
+                invokeAll(new CullTask(from, middle), new CullTask(middle, to));
+            }
+        }
+    }
+}
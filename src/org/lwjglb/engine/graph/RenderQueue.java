@@ -0,0 +1,191 @@
+package org.lwjglb.engine.graph;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjglb.engine.EWindow;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Collects the draws of a pass and orders them by a 64 bit sort key so that
+ * state changes (shader, material, textures, VAO) are grouped together.
+ *
+ * Key layout, from the most significant bit:
+ * pass (4) | shader (4) | material (12) | texture (12) | vao (12) | depth (20)
+ */
+public class RenderQueue {
+
+    public static final int PASS_OPAQUE = 0;
+
+    public static final int PASS_SHADOW = 1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final int RADIX_BITS = 8;
+
+    private static final int RADIX_BUCKETS = 1 << RADIX_BITS;
+
+    private static final int DEPTH_BITS = 20;
+
+    private static final long DEPTH_MASK = (1L << DEPTH_BITS) - 1;
+
+    /**
+     * Ids of the materials queued since the last clear. They are handed out
+     * again each frame, so they stay dense and fit in the key, and the queue
+     * keeps no material alive once cleared.
+     */
+    private final Map<Material, Integer> materialIds;
+
+    private final int[] counts;
+
+    private long[] keys;
+
+    private long[] tmpKeys;
+
+    private int[] order;
+
+    private int[] tmpOrder;
+
+    private Mesh[] meshes;
+
+    private GameItem[] gameItems;
+
+    private int size;
+
+    public RenderQueue() {
+        materialIds = new IdentityHashMap<>();
+        counts = new int[RADIX_BUCKETS];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            meshes[i] = null;
+            gameItems[i] = null;
+        }
+        size = 0;
+        materialIds.clear();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(int pass, int shader, Mesh mesh, GameItem gameItem, float depth) {
+        if (size == keys.length) {
+            grow();
+        }
+        meshes[size] = mesh;
+        gameItems[size] = gameItem;
+        keys[size] = buildKey(pass, shader, mesh, depth);
+        order[size] = size;
+        size++;
+    }
+
+    public Mesh getMesh(int pos) {
+        return meshes[order[pos]];
+    }
+
+    public GameItem getGameItem(int pos) {
+        return gameItems[order[pos]];
+    }
+
+    public long getKey(int pos) {
+        return keys[pos];
+    }
+
+    /**
+     * Sorts the queued draws by key. This is a stable LSD radix sort, so draws
+     * with the same key keep their insertion order. Digits shared by every key
+     * are skipped.
+     */
+    public void sort() {
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[(int) ((keys[i] >>> shift) & (RADIX_BUCKETS - 1))]++;
+            }
+            if (size == 0 || counts[(int) ((keys[0] >>> shift) & (RADIX_BUCKETS - 1))] == size) {
+                continue;
+            }
+            int total = 0;
+            for (int i = 0; i < RADIX_BUCKETS; i++) {
+                int count = counts[i];
+                counts[i] = total;
+                total += count;
+            }
+            for (int i = 0; i < size; i++) {
+                long key = keys[i];
+                int dest = counts[(int) ((key >>> shift) & (RADIX_BUCKETS - 1))]++;
+                tmpKeys[dest] = key;
+                tmpOrder[dest] = order[i];
+            }
+            long[] swapKeys = keys;
+            keys = tmpKeys;
+            tmpKeys = swapKeys;
+            int[] swapOrder = order;
+            order = tmpOrder;
+            tmpOrder = swapOrder;
+        }
+    }
+
+    /**
+     * Gets the distance along the view direction of a position.
+     *
+     * @param viewMatrix The view matrix
+     * @param position Position in world coordinates
+     * @return Distance to the camera plane
+     */
+    public static float viewDepth(Matrix4f viewMatrix, Vector3f position) {
+        return -(viewMatrix.m02() * position.x + viewMatrix.m12() * position.y
+                + viewMatrix.m22() * position.z + viewMatrix.m32());
+    }
+
+    private long buildKey(int pass, int shader, Mesh mesh, float depth) {
+        Material material = mesh.getMaterial();
+        Texture texture = material != null ? material.getTexture() : null;
+        float normDepth = Math.min(Math.max(depth / EWindow.Z_FAR, 0.0f), 1.0f);
+        long quantDepth = (long) (normDepth * DEPTH_MASK);
+        return ((long) (pass & 0xF) << 60)
+                | ((long) (shader & 0xF) << 56)
+                | ((long) (getMaterialId(material) & 0xFFF) << 44)
+                | ((long) ((texture != null ? texture.getId() : 0) & 0xFFF) << 32)
+                | ((long) (mesh.getVaoId() & 0xFFF) << DEPTH_BITS)
+                | (quantDepth & DEPTH_MASK);
+    }
+
+    private int getMaterialId(Material material) {
+        if (material == null) {
+            return 0;
+        }
+        Integer id = materialIds.get(material);
+        if (id == null) {
+            id = materialIds.size() + 1;
+            materialIds.put(material, id);
+        }
+        return id;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldOrder = order;
+        Mesh[] oldMeshes = meshes;
+        GameItem[] oldGameItems = gameItems;
+        allocate(oldKeys.length * 2);
+        System.arraycopy(oldKeys, 0, keys, 0, size);
+        System.arraycopy(oldOrder, 0, order, 0, size);
+        System.arraycopy(oldMeshes, 0, meshes, 0, size);
+        System.arraycopy(oldGameItems, 0, gameItems, 0, size);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        tmpKeys = new long[capacity];
+        order = new int[capacity];
+        tmpOrder = new int[capacity];
+        meshes = new Mesh[capacity];
+        gameItems = new GameItem[capacity];
+    }
+}
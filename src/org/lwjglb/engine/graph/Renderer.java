@@ -1,87 +1,206 @@
 package org.lwjglb.engine.graph;
 
 import java.util.ArrayList;
-import org.lwjglb.engine.graph.lights.SpotLight;
-import org.lwjglb.engine.graph.lights.PointLight;
-import org.lwjglb.engine.graph.lights.DirectionalLight;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import org.lwjglb.engine.items.GameItem;
 import org.lwjglb.engine.Scene;
-import org.lwjglb.engine.SceneLight;
 import org.lwjglb.engine.items.SkyBox;
 import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.EWindow;
 import org.lwjglb.engine.graph.anim.AnimGameItem;
 import org.lwjglb.engine.graph.anim.AnimatedFrame;
 import org.lwjglb.engine.graph.particles.IParticleEmitter;
-import org.lwjglb.engine.graph.shadow.ShadowCascade;
+import org.lwjglb.engine.graph.impostor.ImpostorRenderer;
+import org.lwjglb.engine.graph.lod.LodSelector;
+import org.lwjglb.engine.graph.profiler.FrameProfiler;
 import org.lwjglb.engine.graph.shadow.ShadowRenderer;
+import org.lwjglb.engine.graph.uniforms.FloatUniform;
+import org.lwjglb.engine.graph.uniforms.IntUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4ArrayUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4Uniform;
+import org.lwjglb.engine.graph.uniforms.MaterialUniform;
+import org.lwjglb.engine.graph.uniforms.Vec3Uniform;
+import org.lwjglb.engine.graph.uniforms.Vec4Uniform;
 
 public class Renderer {
 
-    private static final int MAX_POINT_LIGHTS = 5;
-
-    private static final int MAX_SPOT_LIGHTS = 5;
+    private static final int SCENE_SHADER_ID = 0;
 
     private final Transformation transformation;
 
     private final ShadowRenderer shadowRenderer;
 
+    private final LodSelector lodSelector;
+
+    private final ImpostorRenderer impostorRenderer;
+
+    private final FrameProfiler profiler;
+
     private ShaderProgram sceneShaderProgram;
 
     private ShaderProgram skyBoxShaderProgram;
 
     private ShaderProgram particlesShaderProgram;
 
+    private IntUniform particlesTextureSampler;
+
+    private IntUniform particlesNumCols;
+
+    private IntUniform particlesNumRows;
+
+    private Mat4Uniform skyBoxModelViewMatrix;
+
+    private IntUniform skyBoxTextureSampler;
+
+    private Vec3Uniform skyBoxAmbientLight;
+
+    private Vec4Uniform skyBoxColour;
+
+    private IntUniform skyBoxHasTexture;
+
+    private IntUniform sceneTextureSampler;
+
+    private IntUniform sceneNormalMap;
+
+    private MaterialUniform sceneMaterial;
+
+    private IntUniform sceneShadowMap;
+
+    private Mat4Uniform sceneModelNonInstancedMatrix;
+
+    private Mat4ArrayUniform sceneJointsMatrix;
+
+    private IntUniform sceneIsInstanced;
+
+    private IntUniform sceneNumCols;
+
+    private IntUniform sceneNumRows;
+
+    private FloatUniform sceneSelectedNonInstanced;
+
     private final float specularPower;
 
     private final FrustumCullingFilter frustumFilter;
 
-    private final List<GameItem> filteredItems;
+    private final ParallelFrustumCullingFilter parallelFrustumFilter;
+
+    private final List<GameItem> visibleItems;
+
+    private final Map<Mesh, List<GameItem>> visibleMeshes;
+
+    private final Map<InstancedMesh, List<GameItem>> visibleInstancedMeshes;
+
+    private final RenderQueue renderQueue;
+
+    private final FrameUniforms frameUniforms;
+
+    /**
+     * Draws the static meshes of the scene pass, null when multi-draw is off
+     * or not supported.
+     */
+    private MultiDrawBatch multiDrawBatch;
+
+    /**
+     * Draws the meshes shared by many visible items instanced, null when
+     * automatic instancing is off.
+     */
+    private AutoInstancer autoInstancer;
 
     public Renderer() {
         transformation = new Transformation();
         specularPower = 10f;
         shadowRenderer = new ShadowRenderer();
+        lodSelector = new LodSelector();
+        impostorRenderer = new ImpostorRenderer();
         frustumFilter = new FrustumCullingFilter();
-        filteredItems = new ArrayList<>();
+        parallelFrustumFilter = new ParallelFrustumCullingFilter();
+        visibleItems = new ArrayList<>();
+        visibleMeshes = new HashMap<>();
+        visibleInstancedMeshes = new HashMap<>();
+        renderQueue = new RenderQueue();
+        frameUniforms = new FrameUniforms();
+        profiler = new FrameProfiler();
     }
 
     public void init(EWindow EWindow) throws Exception {
         shadowRenderer.init(EWindow);
+        frameUniforms.init();
         setupSkyBoxShader();
         setupSceneShader();
         setupParticlesShader();
+        impostorRenderer.init();
+        profiler.init();
+        if (EWindow.getOptions().multiDrawIndirect && MultiDrawBatch.isSupported()) {
+            multiDrawBatch = new MultiDrawBatch(true);
+        }
+        if (EWindow.getOptions().autoInstanceThreshold > 0) {
+            autoInstancer = new AutoInstancer(EWindow.getOptions().autoInstanceThreshold);
+        }
     }
 
-    public void render(EWindow EWindow, Camera camera, Scene scene, boolean sceneChanged) {
-        clear();
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
 
-        if (EWindow.getOptions().frustumCulling) {
-            frustumFilter.updateFrustum(EWindow.getProjectionMatrix(), camera.getViewMatrix());
-            frustumFilter.filter(scene.getGameMeshes());
-            frustumFilter.filter(scene.getGameInstancedMeshes());
-        }
+    public ImpostorRenderer getImpostorRenderer() {
+        return impostorRenderer;
+    }
+
+    public LodSelector getLodSelector() {
+        return lodSelector;
+    }
+
+    public ShadowRenderer getShadowRenderer() {
+        return shadowRenderer;
+    }
+
+    public void render(EWindow EWindow, Camera camera, Scene scene) {
+        profiler.beginFrame();
+        EWindow.bindRenderTarget();
+        clear();
 
-        // Render depth map before view ports has been set up
-        if (scene.isRenderShadows() && sceneChanged) {
+        // World transformations and the spatial index must be up to date before culling
+        profiler.begin(FrameProfiler.Pass.CULLING);
+        scene.updateTransforms();
+        updateVisibleItems(EWindow, camera, scene);
+        impostorRenderer.update(camera, visibleMeshes);
+        lodSelector.update(EWindow, camera);
+        profiler.end(FrameProfiler.Pass.CULLING);
+
+        // Render depth map before view ports has been set up, only the cascades that changed are drawn again
+        if (scene.isRenderShadows()) {
+            profiler.begin(FrameProfiler.Pass.SHADOWS);
             shadowRenderer.render(EWindow, scene, camera, transformation, this);
+            profiler.end(FrameProfiler.Pass.SHADOWS);
         }
 
+        // Shadows and impostors leave the default framebuffer bound
+        EWindow.bindRenderTarget();
         glViewport(0, 0, EWindow.getWidth(), EWindow.getHeight());
 
         // Update projection matrix once per render cycle
         EWindow.updateProjectionMatrix();
 
+        // Upload the data shared by all the programs once per frame
+        Matrix4f viewMatrix = camera.getViewMatrix();
+        frameUniforms.updateMatrices(EWindow.getProjectionMatrix(), viewMatrix);
+        frameUniforms.updateLights(scene.getSceneLight(), specularPower, scene.getFog(), viewMatrix);
+        frameUniforms.updateShadows(shadowRenderer.getShadowCascades(), scene.isRenderShadows());
+
         renderScene(EWindow, camera, scene);
+
+        profiler.begin(FrameProfiler.Pass.SKYBOX);
         renderSkyBox(EWindow, camera, scene);
+        profiler.end(FrameProfiler.Pass.SKYBOX);
+
+        profiler.begin(FrameProfiler.Pass.PARTICLES);
         renderParticles(EWindow, camera, scene);
+        profiler.end(FrameProfiler.Pass.PARTICLES);
 
         //renderAxes(camera);
         //renderCrossHair(EWindow);
@@ -93,12 +212,11 @@ public class Renderer {
         particlesShaderProgram.createFragmentShader(Utils.loadResource("/shaders/particles_fragment.fs"));
         particlesShaderProgram.link();
 
-        particlesShaderProgram.createUniform("viewMatrix");
-        particlesShaderProgram.createUniform("projectionMatrix");
-        particlesShaderProgram.createUniform("texture_sampler");
+        particlesShaderProgram.createUniformBlock(FrameUniforms.MATRICES_BLOCK, FrameUniforms.MATRICES_BINDING);
+        particlesTextureSampler = particlesShaderProgram.createIntUniform("texture_sampler");
 
-        particlesShaderProgram.createUniform("numCols");
-        particlesShaderProgram.createUniform("numRows");
+        particlesNumCols = particlesShaderProgram.createIntUniform("numCols");
+        particlesNumRows = particlesShaderProgram.createIntUniform("numRows");
     }
 
     private void setupSkyBoxShader() throws Exception {
@@ -107,13 +225,13 @@ public class Renderer {
         skyBoxShaderProgram.createFragmentShader(Utils.loadResource("/shaders/sb_fragment.fs"));
         skyBoxShaderProgram.link();
 
-        // Create uniforms for projection matrix
-        skyBoxShaderProgram.createUniform("projectionMatrix");
-        skyBoxShaderProgram.createUniform("modelViewMatrix");
-        skyBoxShaderProgram.createUniform("texture_sampler");
-        skyBoxShaderProgram.createUniform("ambientLight");
-        skyBoxShaderProgram.createUniform("colour");
-        skyBoxShaderProgram.createUniform("hasTexture");
+        // Create uniforms for model view matrix
+        skyBoxShaderProgram.createUniformBlock(FrameUniforms.MATRICES_BLOCK, FrameUniforms.MATRICES_BINDING);
+        skyBoxModelViewMatrix = skyBoxShaderProgram.createMat4Uniform("modelViewMatrix");
+        skyBoxTextureSampler = skyBoxShaderProgram.createIntUniform("texture_sampler");
+        skyBoxAmbientLight = skyBoxShaderProgram.createVec3Uniform("ambientLight");
+        skyBoxColour = skyBoxShaderProgram.createVec4Uniform("colour");
+        skyBoxHasTexture = skyBoxShaderProgram.createIntUniform("hasTexture");
     }
 
     private void setupSceneShader() throws Exception {
@@ -123,39 +241,28 @@ public class Renderer {
         sceneShaderProgram.createFragmentShader(Utils.loadResource("/shaders/scene_fragment.fs"));
         sceneShaderProgram.link();
 
-        // Create uniforms for view and projection matrices
-        sceneShaderProgram.createUniform("viewMatrix");
-        sceneShaderProgram.createUniform("projectionMatrix");
-        sceneShaderProgram.createUniform("texture_sampler");
-        sceneShaderProgram.createUniform("normalMap");
+        // View and projection matrices, lights, fog and cascades come from uniform blocks
+        sceneShaderProgram.createUniformBlock(FrameUniforms.MATRICES_BLOCK, FrameUniforms.MATRICES_BINDING);
+        sceneShaderProgram.createUniformBlock(FrameUniforms.LIGHTS_BLOCK, FrameUniforms.LIGHTS_BINDING);
+        sceneShaderProgram.createUniformBlock(FrameUniforms.SHADOWS_BLOCK, FrameUniforms.SHADOWS_BINDING);
+
+        sceneTextureSampler = sceneShaderProgram.createIntUniform("texture_sampler");
+        sceneNormalMap = sceneShaderProgram.createIntUniform("normalMap");
         // Create uniform for material
-        sceneShaderProgram.createMaterialUniform("material");
-        // Create lighting related uniforms
-        sceneShaderProgram.createUniform("specularPower");
-        sceneShaderProgram.createUniform("ambientLight");
-        sceneShaderProgram.createPointLightListUniform("pointLights", MAX_POINT_LIGHTS);
-        sceneShaderProgram.createSpotLightListUniform("spotLights", MAX_SPOT_LIGHTS);
-        sceneShaderProgram.createDirectionalLightUniform("directionalLight");
-        sceneShaderProgram.createFogUniform("fog");
-
-        // Create uniforms for shadow mapping
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            sceneShaderProgram.createUniform("shadowMap_" + i);
-        }
-        sceneShaderProgram.createUniform("orthoProjectionMatrix", ShadowRenderer.NUM_CASCADES);
-        sceneShaderProgram.createUniform("modelNonInstancedMatrix");
-        sceneShaderProgram.createUniform("lightViewMatrix", ShadowRenderer.NUM_CASCADES);
-        sceneShaderProgram.createUniform("cascadeFarPlanes", ShadowRenderer.NUM_CASCADES);
-        sceneShaderProgram.createUniform("renderShadow");
+        sceneMaterial = sceneShaderProgram.createMaterialUniform("material");
+
+        // Create uniform for shadow mapping, all the cascades are layers of the same texture
+        sceneShadowMap = sceneShaderProgram.createIntUniform("shadowMap");
+        sceneModelNonInstancedMatrix = sceneShaderProgram.createMat4Uniform("modelNonInstancedMatrix");
 
         // Create uniform for joint matrices
-        sceneShaderProgram.createUniform("jointsMatrix");
+        sceneJointsMatrix = sceneShaderProgram.createMat4ArrayUniform("jointsMatrix");
 
-        sceneShaderProgram.createUniform("isInstanced");
-        sceneShaderProgram.createUniform("numCols");
-        sceneShaderProgram.createUniform("numRows");
+        sceneIsInstanced = sceneShaderProgram.createIntUniform("isInstanced");
+        sceneNumCols = sceneShaderProgram.createIntUniform("numCols");
+        sceneNumRows = sceneShaderProgram.createIntUniform("numRows");
 
-        sceneShaderProgram.createUniform("selectedNonInstanced");
+        sceneSelectedNonInstanced = sceneShaderProgram.createFloatUniform("selectedNonInstanced");
     }
 
     public void clear() {
@@ -166,10 +273,7 @@ public class Renderer {
         particlesShaderProgram.bind();
 
         Matrix4f viewMatrix = camera.getViewMatrix();
-        particlesShaderProgram.setUniform("viewMatrix", viewMatrix);
-        particlesShaderProgram.setUniform("texture_sampler", 0);
-        Matrix4f projectionMatrix = EWindow.getProjectionMatrix();
-        particlesShaderProgram.setUniform("projectionMatrix", projectionMatrix);
+        particlesTextureSampler.set(0);
 
         IParticleEmitter[] emitters = scene.getParticleEmitters();
         int numEmitters = emitters != null ? emitters.length : 0;
@@ -182,8 +286,8 @@ public class Renderer {
             InstancedMesh mesh = (InstancedMesh) emitter.getBaseParticle().getMesh();
 
             Texture text = mesh.getMaterial().getTexture();
-            particlesShaderProgram.setUniform("numCols", text.getNumCols());
-            particlesShaderProgram.setUniform("numRows", text.getNumRows());
+            particlesNumCols.set(text.getNumCols());
+            particlesNumRows.set(text.getNumRows());
 
             mesh.renderListInstanced(emitter.getParticles(), true, transformation, viewMatrix);
         }
@@ -199,10 +303,8 @@ public class Renderer {
         if (skyBox != null) {
             skyBoxShaderProgram.bind();
 
-            skyBoxShaderProgram.setUniform("texture_sampler", 0);
+            skyBoxTextureSampler.set(0);
 
-            Matrix4f projectionMatrix = EWindow.getProjectionMatrix();
-            skyBoxShaderProgram.setUniform("projectionMatrix", projectionMatrix);
             Matrix4f viewMatrix = camera.getViewMatrix();
             float m30 = viewMatrix.m30();
             viewMatrix.m30(0);
@@ -213,10 +315,10 @@ public class Renderer {
 
             Mesh mesh = skyBox.getMesh();
             Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(skyBox, viewMatrix);
-            skyBoxShaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
-            skyBoxShaderProgram.setUniform("ambientLight", scene.getSceneLight().getSkyBoxLight());
-            skyBoxShaderProgram.setUniform("colour", mesh.getMaterial().getAmbientColour());
-            skyBoxShaderProgram.setUniform("hasTexture", mesh.getMaterial().isTextured() ? 1 : 0);
+            skyBoxModelViewMatrix.set(modelViewMatrix);
+            skyBoxAmbientLight.set(scene.getSceneLight().getSkyBoxLight());
+            skyBoxColour.set(mesh.getMaterial().getAmbientColour());
+            skyBoxHasTexture.set(mesh.getMaterial().isTextured());
 
             mesh.render();
 
@@ -227,143 +329,258 @@ public class Renderer {
         }
     }
 
-    public void renderScene(EWindow EWindow, Camera camera, Scene scene) {
-        sceneShaderProgram.bind();
+    /**
+     * Groups by mesh the items to be rendered. When frustum culling is enabled
+     * only the items returned by the scene spatial index are considered, and
+     * the visibility of each of their meshes is written to the camera view
+     * of the scene visibility set.
+     */
+    private void updateVisibleItems(EWindow EWindow, Camera camera, Scene scene) {
+        for (List<GameItem> gameItems : visibleMeshes.values()) {
+            gameItems.clear();
+        }
+        for (List<GameItem> gameItems : visibleInstancedMeshes.values()) {
+            gameItems.clear();
+        }
 
-        Matrix4f viewMatrix = camera.getViewMatrix();
-        Matrix4f projectionMatrix = EWindow.getProjectionMatrix();
-        sceneShaderProgram.setUniform("viewMatrix", viewMatrix);
-        sceneShaderProgram.setUniform("projectionMatrix", projectionMatrix);
-
-        List<ShadowCascade> shadowCascades = shadowRenderer.getShadowCascades();
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            ShadowCascade shadowCascade = shadowCascades.get(i);
-            sceneShaderProgram.setUniform("orthoProjectionMatrix", shadowCascade.getOrthoProjMatrix(), i);
-            sceneShaderProgram.setUniform("cascadeFarPlanes", ShadowRenderer.CASCADE_SPLITS[i], i);
-            sceneShaderProgram.setUniform("lightViewMatrix", shadowCascade.getLightViewMatrix(), i);
+        VisibilitySet visibility = scene.getVisibility();
+        visibility.clear(VisibilitySet.VIEW_CAMERA);
+        if (!EWindow.getOptions().frustumCulling) {
+            for (GameItem gameItem : scene.getGameItems()) {
+                visibility.setAll(VisibilitySet.VIEW_CAMERA, gameItem);
+            }
+            for (Map.Entry<Mesh, List<GameItem>> entry : scene.getGameMeshes().entrySet()) {
+                getVisibleList(visibleMeshes, entry.getKey()).addAll(entry.getValue());
+            }
+            for (Map.Entry<InstancedMesh, List<GameItem>> entry : scene.getGameInstancedMeshes().entrySet()) {
+                getVisibleList(visibleInstancedMeshes, entry.getKey()).addAll(entry.getValue());
+            }
+            return;
         }
 
-        SceneLight sceneLight = scene.getSceneLight();
-        renderLights(viewMatrix, sceneLight);
+        frustumFilter.updateFrustum(EWindow.getProjectionMatrix(), camera.getViewMatrix());
+        if (EWindow.getOptions().parallelFrustumCulling) {
+            visibleItems.clear();
+            parallelFrustumFilter.updateFrustum(EWindow.getProjectionMatrix(), camera.getViewMatrix());
+            parallelFrustumFilter.filter(scene.getGameItems());
+            parallelFrustumFilter.getVisibleItems(visibleItems);
+        } else {
+            frustumFilter.filter(scene, visibleItems);
+        }
 
-        sceneShaderProgram.setUniform("fog", scene.getFog());
-        sceneShaderProgram.setUniform("texture_sampler", 0);
-        sceneShaderProgram.setUniform("normalMap", 1);
-        int start = 2;
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            sceneShaderProgram.setUniform("shadowMap_" + i, start + i);
+        // Items are culled by the sphere that contains all their meshes, then each mesh by its own
+        frustumFilter.filterMeshes(visibleItems, visibility, VisibilitySet.VIEW_CAMERA);
+        for (GameItem gameItem : visibleItems) {
+            Mesh[] meshes = gameItem.getMeshes();
+            for (int i = 0; i < meshes.length; i++) {
+                if (!visibility.isVisible(VisibilitySet.VIEW_CAMERA, gameItem, i)) {
+                    continue;
+                }
+                Mesh mesh = meshes[i];
+                if (mesh instanceof InstancedMesh) {
+                    getVisibleList(visibleInstancedMeshes, (InstancedMesh) mesh).add(gameItem);
+                } else {
+                    getVisibleList(visibleMeshes, mesh).add(gameItem);
+                }
+            }
         }
-        sceneShaderProgram.setUniform("renderShadow", scene.isRenderShadows() ? 1 : 0);
+    }
+
+    private static <T extends Mesh> List<GameItem> getVisibleList(Map<T, List<GameItem>> mapMeshes, T mesh) {
+        List<GameItem> gameItems = mapMeshes.get(mesh);
+        if (gameItems == null) {
+            gameItems = new ArrayList<>();
+            mapMeshes.put(mesh, gameItems);
+        }
+        return gameItems;
+    }
+
+    public void renderScene(EWindow EWindow, Camera camera, Scene scene) {
+        sceneShaderProgram.bind();
+
+        Matrix4f viewMatrix = camera.getViewMatrix();
 
-        renderNonInstancedMeshes(scene);
+        sceneTextureSampler.set(0);
+        sceneNormalMap.set(1);
+        sceneShadowMap.set(2);
 
-        renderInstancedMeshes(scene, viewMatrix);
+        profiler.begin(FrameProfiler.Pass.SCENE);
+        renderNonInstancedMeshes(viewMatrix);
+        profiler.end(FrameProfiler.Pass.SCENE);
+
+        profiler.begin(FrameProfiler.Pass.SCENE_INSTANCED);
+        renderInstancedMeshes(viewMatrix);
+        profiler.end(FrameProfiler.Pass.SCENE_INSTANCED);
 
         sceneShaderProgram.unbind();
+
+        profiler.begin(FrameProfiler.Pass.IMPOSTORS);
+        impostorRenderer.render(transformation, viewMatrix);
+        profiler.end(FrameProfiler.Pass.IMPOSTORS);
     }
 
-    private void renderNonInstancedMeshes(Scene scene) {
-        sceneShaderProgram.setUniform("isInstanced", 0);
+    private void renderNonInstancedMeshes(Matrix4f viewMatrix) {
+        sceneIsInstanced.set(0);
 
-        // Render each mesh with the associated game Items
-        Map<Mesh, List<GameItem>> mapMeshes = scene.getGameMeshes();
-        for (Mesh mesh : mapMeshes.keySet()) {
-            sceneShaderProgram.setUniform("material", mesh.getMaterial());
+        // Queue the visible game items of each mesh and sort them by state
+        renderQueue.clear();
+        if (autoInstancer != null) {
+            autoInstancer.clear();
+        }
+        for (Map.Entry<Mesh, List<GameItem>> entry : visibleMeshes.entrySet()) {
+            Mesh mesh = entry.getKey();
+            if (autoInstancer != null && autoInstancer.accepts(mesh, entry.getValue())) {
+                autoInstancer.add(mesh, entry.getValue(), lodSelector);
+                continue;
+            }
+            for (GameItem gameItem : entry.getValue()) {
+                renderQueue.add(RenderQueue.PASS_OPAQUE, SCENE_SHADER_ID, mesh, gameItem,
+                        RenderQueue.viewDepth(viewMatrix, gameItem.getWorldPosition()));
+            }
+        }
+        renderQueue.sort();
 
-            Texture text = mesh.getMaterial().getTexture();
-            if (text != null) {
-                sceneShaderProgram.setUniform("numCols", text.getNumCols());
-                sceneShaderProgram.setUniform("numRows", text.getNumRows());
+        // Shadow maps do not change during the pass
+        shadowRenderer.bindTextures(GL_TEXTURE2);
+
+        if (autoInstancer != null) {
+            renderAutoInstanced();
+        }
+
+        if (multiDrawBatch != null) {
+            renderMultiDraw();
+        }
+
+        Mesh lastMesh = null;
+        Material lastMaterial = null;
+        int numDraws = renderQueue.size();
+        for (int i = 0; i < numDraws; i++) {
+            Mesh mesh = renderQueue.getMesh(i);
+            GameItem gameItem = renderQueue.getGameItem(i);
+            if (multiDrawBatch != null && MultiDrawBatch.accepts(mesh, gameItem)) {
+                continue;
+            }
+            if (mesh != lastMesh) {
+                Material material = mesh.getMaterial();
+                if (material != lastMaterial) {
+                    sceneMaterial.set(material);
+                    Texture text = material.getTexture();
+                    if (text != null) {
+                        sceneNumCols.set(text.getNumCols());
+                        sceneNumRows.set(text.getNumRows());
+                    }
+                    mesh.bindTextures();
+                    lastMaterial = material;
+                }
+                // Meshes in the same geometry arena share the VAO
+                if (lastMesh == null || mesh.getVaoId() != lastMesh.getVaoId()) {
+                    mesh.bindVertexArray();
+                }
+                lastMesh = mesh;
             }
 
-            shadowRenderer.bindTextures(GL_TEXTURE2);
+            sceneSelectedNonInstanced.set(gameItem.isSelected() ? 1.0f : 0.0f);
+            Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
+            sceneModelNonInstancedMatrix.set(modelMatrix);
+            if (gameItem instanceof AnimGameItem) {
+                AnimGameItem animGameItem = (AnimGameItem) gameItem;
+                AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
+                sceneJointsMatrix.set(frame.getJointMatrices());
+            }
+            mesh.draw(lodSelector.selectLevel(gameItem, mesh));
+        }
 
-            mesh.renderList(mapMeshes.get(mesh), (GameItem gameItem) -> {
-                sceneShaderProgram.setUniform("selectedNonInstanced", gameItem.isSelected() ? 1.0f : 0.0f);
-                Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
-                sceneShaderProgram.setUniform("modelNonInstancedMatrix", modelMatrix);
-                if (gameItem instanceof AnimGameItem) {
-                    AnimGameItem animGameItem = (AnimGameItem) gameItem;
-                    AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
-                    sceneShaderProgram.setUniform("jointsMatrix", frame.getJointMatrices());
+        if (lastMesh != null) {
+            lastMesh.unbindVertexArray();
+            glActiveTexture(GL_TEXTURE0);
+            glBindTexture(GL_TEXTURE_2D, 0);
+        }
+    }
+
+    /**
+     * Draws the static meshes of the queue with a multi-draw per material and
+     * geometry arena, through the instanced path of the shader.
+     */
+    private void renderMultiDraw() {
+        multiDrawBatch.build(renderQueue, lodSelector);
+        int numBuckets = multiDrawBatch.getNumBuckets();
+        if (numBuckets == 0) {
+            return;
+        }
+        sceneIsInstanced.set(1);
+        Material lastMaterial = null;
+        for (int i = 0; i < numBuckets; i++) {
+            Mesh mesh = multiDrawBatch.getBucketMesh(i);
+            Material material = mesh.getMaterial();
+            if (material != lastMaterial) {
+                sceneMaterial.set(material);
+                Texture text = material.getTexture();
+                if (text != null) {
+                    sceneNumCols.set(text.getNumCols());
+                    sceneNumRows.set(text.getNumRows());
                 }
+                mesh.bindTextures();
+                lastMaterial = material;
             }
-            );
+            multiDrawBatch.drawBucket(i);
         }
+        multiDrawBatch.end();
+        sceneIsInstanced.set(0);
     }
 
-    private void renderInstancedMeshes(Scene scene, Matrix4f viewMatrix) {
-        sceneShaderProgram.setUniform("isInstanced", 1);
+    /**
+     * Draws the meshes taken by the automatic instancer, an instanced draw
+     * per mesh and level of detail.
+     */
+    private void renderAutoInstanced() {
+        autoInstancer.upload();
+        int numGroups = autoInstancer.getNumGroups();
+        if (numGroups == 0) {
+            return;
+        }
+        sceneIsInstanced.set(1);
+        Material lastMaterial = null;
+        for (int i = 0; i < numGroups; i++) {
+            Mesh mesh = autoInstancer.getGroupMesh(i);
+            Material material = mesh.getMaterial();
+            if (material != lastMaterial) {
+                sceneMaterial.set(material);
+                Texture text = material.getTexture();
+                if (text != null) {
+                    sceneNumCols.set(text.getNumCols());
+                    sceneNumRows.set(text.getNumRows());
+                }
+                mesh.bindTextures();
+                lastMaterial = material;
+            }
+            autoInstancer.drawGroup(i);
+        }
+        autoInstancer.end();
+        sceneIsInstanced.set(0);
+    }
 
-        // Render each mesh with the associated game Items
-        Map<InstancedMesh, List<GameItem>> mapMeshes = scene.getGameInstancedMeshes();
-        for (InstancedMesh mesh : mapMeshes.keySet()) {
+    private void renderInstancedMeshes(Matrix4f viewMatrix) {
+        sceneIsInstanced.set(1);
+
+        // Render each mesh with the associated visible game Items
+        for (Map.Entry<InstancedMesh, List<GameItem>> entry : visibleInstancedMeshes.entrySet()) {
+            InstancedMesh mesh = entry.getKey();
+            List<GameItem> gameItems = entry.getValue();
+            if (gameItems.isEmpty()) {
+                continue;
+            }
             Texture text = mesh.getMaterial().getTexture();
             if (text != null) {
-                sceneShaderProgram.setUniform("numCols", text.getNumCols());
-                sceneShaderProgram.setUniform("numRows", text.getNumRows());
+                sceneNumCols.set(text.getNumCols());
+                sceneNumRows.set(text.getNumRows());
             }
 
-            sceneShaderProgram.setUniform("material", mesh.getMaterial());
+            sceneMaterial.set(mesh.getMaterial());
 
-            filteredItems.clear();
-            for (GameItem gameItem : mapMeshes.get(mesh)) {
-                if (gameItem.isInsideFrustum()) {
-                    filteredItems.add(gameItem);
-                }
-            }
             shadowRenderer.bindTextures(GL_TEXTURE2);
 
-            mesh.renderListInstanced(filteredItems, transformation, viewMatrix);
-        }
-    }
-
-    private void renderLights(Matrix4f viewMatrix, SceneLight sceneLight) {
-
-        sceneShaderProgram.setUniform("ambientLight", sceneLight.getAmbientLight());
-        sceneShaderProgram.setUniform("specularPower", specularPower);
-
-        // Process Point Lights
-        PointLight[] pointLightList = sceneLight.getPointLightList();
-        int numLights = pointLightList != null ? pointLightList.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            // Get a copy of the point light object and transform its position to view coordinates
-            PointLight currPointLight = new PointLight(pointLightList[i]);
-            Vector3f lightPos = currPointLight.getPosition();
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-            sceneShaderProgram.setUniform("pointLights", currPointLight, i);
-        }
-
-        // Process Spot Ligths
-        SpotLight[] spotLightList = sceneLight.getSpotLightList();
-        numLights = spotLightList != null ? spotLightList.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            // Get a copy of the spot light object and transform its position and cone direction to view coordinates
-            SpotLight currSpotLight = new SpotLight(spotLightList[i]);
-            Vector4f dir = new Vector4f(currSpotLight.getConeDirection(), 0);
-            dir.mul(viewMatrix);
-            currSpotLight.setConeDirection(new Vector3f(dir.x, dir.y, dir.z));
-
-            Vector3f lightPos = currSpotLight.getPointLight().getPosition();
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-
-            sceneShaderProgram.setUniform("spotLights", currSpotLight, i);
+            mesh.renderListInstanced(gameItems, transformation, viewMatrix);
         }
-
-        // Get a copy of the directional light object and transform its position to view coordinates
-        DirectionalLight currDirLight = new DirectionalLight(sceneLight.getDirectionalLight());
-        Vector4f dir = new Vector4f(currDirLight.getDirection(), 0);
-        dir.mul(viewMatrix);
-        currDirLight.setDirection(new Vector3f(dir.x, dir.y, dir.z));
-        sceneShaderProgram.setUniform("directionalLight", currDirLight);
     }
 
     private void renderCrossHair(EWindow EWindow) {
@@ -443,5 +660,14 @@ public class Renderer {
         if (particlesShaderProgram != null) {
             particlesShaderProgram.cleanup();
         }
+        impostorRenderer.cleanup();
+        frameUniforms.cleanup();
+        profiler.cleanup();
+        if (multiDrawBatch != null) {
+            multiDrawBatch.cleanup();
+        }
+        if (autoInstancer != null) {
+            autoInstancer.cleanup();
+        }
     }
 }
@@ -10,7 +10,20 @@ import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.GL_GEOMETRY_SHADER;
 import org.lwjgl.system.MemoryStack;
+import org.lwjglb.engine.graph.uniforms.DirectionalLightUniform;
+import org.lwjglb.engine.graph.uniforms.FloatUniform;
+import org.lwjglb.engine.graph.uniforms.FogUniform;
+import org.lwjglb.engine.graph.uniforms.IntUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4ArrayUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4Uniform;
+import org.lwjglb.engine.graph.uniforms.MaterialUniform;
+import org.lwjglb.engine.graph.uniforms.PointLightUniform;
+import org.lwjglb.engine.graph.uniforms.SpotLightUniform;
+import org.lwjglb.engine.graph.uniforms.Vec3Uniform;
+import org.lwjglb.engine.graph.uniforms.Vec4Uniform;
 import org.lwjglb.engine.graph.weather.Fog;
 
 public class ShaderProgram {
@@ -34,65 +47,113 @@ public class ShaderProgram {
     }
 
     public void createUniform(String uniformName) throws Exception {
+        getUniformLocation(uniformName);
+    }
+
+    public void createUniform(String uniformName, int size) throws Exception {
+        for (int i=0; i<size; i++) {
+            createUniform(uniformName + "[" + i + "]");
+        }
+    }
+
+    private int getUniformLocation(String uniformName) throws Exception {
         int uniformLocation = glGetUniformLocation(programId, uniformName);
         if (uniformLocation < 0) {
             throw new Exception("Could not find uniform:" + uniformName);
         }
         uniforms.put(uniformName, uniformLocation);
+        return uniformLocation;
+    }
+
+    /**
+     * Binds a uniform block of this program to a uniform buffer binding point.
+     *
+     * @param blockName Name of the block in the shader code
+     * @param bindingPoint Binding point of the buffer that backs the block
+     * @throws Exception If the block is not active in the program
+     */
+    public void createUniformBlock(String blockName, int bindingPoint) throws Exception {
+        int blockIndex = glGetUniformBlockIndex(programId, blockName);
+        if (blockIndex == GL_INVALID_INDEX) {
+            throw new Exception("Could not find uniform block:" + blockName);
+        }
+        glUniformBlockBinding(programId, blockIndex, bindingPoint);
     }
 
-    public void createUniform(String uniformName, int size) throws Exception {
-        for (int i=0; i<size; i++) {
-            createUniform(uniformName + "[" + i + "]");
+    public IntUniform createIntUniform(String uniformName) throws Exception {
+        return new IntUniform(getUniformLocation(uniformName));
+    }
+
+    public FloatUniform createFloatUniform(String uniformName) throws Exception {
+        return new FloatUniform(getUniformLocation(uniformName));
+    }
+
+    public FloatUniform[] createFloatUniform(String uniformName, int size) throws Exception {
+        FloatUniform[] result = new FloatUniform[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = createFloatUniform(uniformName + "[" + i + "]");
         }
+        return result;
+    }
+
+    public Vec3Uniform createVec3Uniform(String uniformName) throws Exception {
+        return new Vec3Uniform(getUniformLocation(uniformName));
+    }
+
+    public Vec4Uniform createVec4Uniform(String uniformName) throws Exception {
+        return new Vec4Uniform(getUniformLocation(uniformName));
+    }
+
+    public Mat4Uniform createMat4Uniform(String uniformName) throws Exception {
+        return new Mat4Uniform(getUniformLocation(uniformName));
     }
 
-    public void createPointLightListUniform(String uniformName, int size) throws Exception {
+    public Mat4Uniform[] createMat4Uniform(String uniformName, int size) throws Exception {
+        Mat4Uniform[] result = new Mat4Uniform[size];
         for (int i = 0; i < size; i++) {
-            createPointLightUniform(uniformName + "[" + i + "]");
+            result[i] = createMat4Uniform(uniformName + "[" + i + "]");
         }
+        return result;
     }
 
-    public void createPointLightUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".position");
-        createUniform(uniformName + ".intensity");
-        createUniform(uniformName + ".att.constant");
-        createUniform(uniformName + ".att.linear");
-        createUniform(uniformName + ".att.exponent");
+    public Mat4ArrayUniform createMat4ArrayUniform(String uniformName) throws Exception {
+        return new Mat4ArrayUniform(getUniformLocation(uniformName));
     }
 
-    public void createSpotLightListUniform(String uniformName, int size) throws Exception {
+    public PointLightUniform[] createPointLightListUniform(String uniformName, int size) throws Exception {
+        PointLightUniform[] result = new PointLightUniform[size];
         for (int i = 0; i < size; i++) {
-            createSpotLightUniform(uniformName + "[" + i + "]");
+            result[i] = createPointLightUniform(uniformName + "[" + i + "]");
         }
+        return result;
     }
 
-    public void createSpotLightUniform(String uniformName) throws Exception {
-        createPointLightUniform(uniformName + ".pl");
-        createUniform(uniformName + ".conedir");
-        createUniform(uniformName + ".cutoff");
+    public PointLightUniform createPointLightUniform(String uniformName) throws Exception {
+        return new PointLightUniform(this, uniformName);
     }
 
-    public void createDirectionalLightUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".direction");
-        createUniform(uniformName + ".intensity");
+    public SpotLightUniform[] createSpotLightListUniform(String uniformName, int size) throws Exception {
+        SpotLightUniform[] result = new SpotLightUniform[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = createSpotLightUniform(uniformName + "[" + i + "]");
+        }
+        return result;
+    }
+
+    public SpotLightUniform createSpotLightUniform(String uniformName) throws Exception {
+        return new SpotLightUniform(this, uniformName);
     }
 
-    public void createMaterialUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".ambient");
-        createUniform(uniformName + ".diffuse");
-        createUniform(uniformName + ".specular");
-        createUniform(uniformName + ".hasTexture");
-        createUniform(uniformName + ".hasNormalMap");
-        createUniform(uniformName + ".reflectance");
+    public DirectionalLightUniform createDirectionalLightUniform(String uniformName) throws Exception {
+        return new DirectionalLightUniform(this, uniformName);
     }
 
-    public void createFogUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".activeFog");
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".density");
+    public MaterialUniform createMaterialUniform(String uniformName) throws Exception {
+        return new MaterialUniform(this, uniformName);
+    }
+
+    public FogUniform createFogUniform(String uniformName) throws Exception {
+        return new FogUniform(this, uniformName);
     }
 
     public void setUniform(String uniformName, Matrix4f value) {
@@ -202,6 +263,10 @@ public class ShaderProgram {
         vertexShaderId = createShader(shaderCode, GL_VERTEX_SHADER);
     }
 
+    public void createGeometryShader(String shaderCode) throws Exception {
+        geometryShaderId = createShader(shaderCode, GL_GEOMETRY_SHADER);
+    }
+
     public void createFragmentShader(String shaderCode) throws Exception {
         fragmentShaderId = createShader(shaderCode, GL_FRAGMENT_SHADER);
     }
@@ -0,0 +1,243 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.graph.anim.AnimGameItem;
+import org.lwjglb.engine.graph.arena.GeometryArena;
+import org.lwjglb.engine.graph.arena.GeometryRange;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Merges the meshes of static items into batches. The vertices of each mesh
+ * are transformed into world space and concatenated with the other meshes
+ * that share its material and vertex format, one batch per cell of a grid so
+ * batches can still be culled. Each batch is a mesh of its own, drawn by an
+ * item placed at the center of its bounding box.
+ * <p>
+ * Batches only keep the full detail level of the meshes, and the items
+ * merged into them lose their selection highlight. Items drawn from a
+ * texture atlas are not merged, their tile is not part of the vertices.
+ */
+public class StaticBatcher {
+
+    public static final float DEFAULT_CELL_SIZE = 64.0f;
+
+    private final float cellSize;
+
+    public StaticBatcher(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @param gameItem The item
+     * @return True if the meshes of the item can be merged into batches
+     */
+    public static boolean accepts(GameItem gameItem) {
+        Mesh[] meshes = gameItem.getMeshes();
+        if (!gameItem.isStatic() || gameItem.isDisableFrustumCulling() || gameItem instanceof AnimGameItem
+                || meshes == null || meshes.length == 0) {
+            return false;
+        }
+        for (Mesh mesh : meshes) {
+            if (mesh instanceof InstancedMesh || mesh.getGeometryRange() == null
+                    || mesh.getVertexFormat().isSkinned() || mesh.getMaterial() == null) {
+                return false;
+            }
+            Texture texture = mesh.getMaterial().getTexture();
+            if (texture != null && (texture.getNumCols() > 1 || texture.getNumRows() > 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges the meshes of the items that the batcher accepts. The source
+     * meshes are left as they are, they may still be used by other items.
+     *
+     * @param gameItems The items
+     * @param bakedItems Where the items merged into batches are added
+     * @return An item for each batch
+     */
+    public List<GameItem> bake(List<GameItem> gameItems, List<GameItem> bakedItems) {
+        Map<BatchKey, Batch> batches = new LinkedHashMap<>();
+        for (GameItem gameItem : gameItems) {
+            if (!accepts(gameItem)) {
+                continue;
+            }
+            Vector3f position = gameItem.getWorldPosition();
+            int cellX = (int) Math.floor(position.x / cellSize);
+            int cellY = (int) Math.floor(position.y / cellSize);
+            int cellZ = (int) Math.floor(position.z / cellSize);
+            for (Mesh mesh : gameItem.getMeshes()) {
+                BatchKey key = new BatchKey(mesh.getMaterial(), mesh.getVertexFormat(), cellX, cellY, cellZ);
+                Batch batch = batches.get(key);
+                if (batch == null) {
+                    batch = new Batch(mesh.getMaterial(), mesh.getVertexFormat());
+                    batches.put(key, batch);
+                }
+                batch.add(gameItem, mesh);
+            }
+            bakedItems.add(gameItem);
+        }
+
+        List<GameItem> batchItems = new ArrayList<>();
+        for (Batch batch : batches.values()) {
+            batchItems.add(batch.build());
+        }
+        return batchItems;
+    }
+
+    private static class BatchKey {
+
+        private final Material material;
+
+        private final VertexFormat vertexFormat;
+
+        private final int cellX;
+
+        private final int cellY;
+
+        private final int cellZ;
+
+        BatchKey(Material material, VertexFormat vertexFormat, int cellX, int cellY, int cellZ) {
+            this.material = material;
+            this.vertexFormat = vertexFormat;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.cellZ = cellZ;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) obj;
+            return material == other.material && vertexFormat.equals(other.vertexFormat)
+                    && cellX == other.cellX && cellY == other.cellY && cellZ == other.cellZ;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(material);
+            hash = hash * 31 + vertexFormat.hashCode();
+            hash = hash * 31 + cellX;
+            hash = hash * 31 + cellY;
+            return hash * 31 + cellZ;
+        }
+    }
+
+    private static class Batch {
+
+        private final Material material;
+
+        private final VertexFormat vertexFormat;
+
+        private final List<GameItem> gameItems;
+
+        private final List<Mesh> meshes;
+
+        private int numVertices;
+
+        private int numIndices;
+
+        private int maxMeshVertices;
+
+        Batch(Material material, VertexFormat vertexFormat) {
+            this.material = material;
+            this.vertexFormat = vertexFormat;
+            gameItems = new ArrayList<>();
+            meshes = new ArrayList<>();
+        }
+
+        void add(GameItem gameItem, Mesh mesh) {
+            gameItems.add(gameItem);
+            meshes.add(mesh);
+            int meshVertices = mesh.getGeometryRange().getNumVertices();
+            numVertices += meshVertices;
+            numIndices += mesh.getLodIndexCount(0);
+            maxMeshVertices = Math.max(maxMeshVertices, meshVertices);
+        }
+
+        GameItem build() {
+            int stride = vertexFormat.getStride();
+            ByteBuffer meshVertices = null;
+            ByteBuffer vertices = null;
+            IntBuffer indices = null;
+            try {
+                meshVertices = MemoryUtil.memAlloc(maxMeshVertices * stride);
+                vertices = MemoryUtil.memAlloc(numVertices * stride);
+                indices = MemoryUtil.memAllocInt(numIndices);
+                Matrix3f normalMatrix = new Matrix3f();
+                Vector3f min = new Vector3f(Float.POSITIVE_INFINITY);
+                Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY);
+
+                // Read each mesh back from its arena and append it in world space
+                int baseVertex = 0;
+                int numMeshes = meshes.size();
+                for (int i = 0; i < numMeshes; i++) {
+                    Mesh mesh = meshes.get(i);
+                    GeometryRange range = mesh.getGeometryRange();
+                    GeometryArena arena = range.getArena();
+                    Matrix4f modelMatrix = gameItems.get(i).getModelMatrix();
+
+                    meshVertices.clear();
+                    arena.readVertices(range, meshVertices);
+                    meshVertices.limit(range.getNumVertices() * stride);
+                    vertexFormat.transform(meshVertices, vertices, modelMatrix, modelMatrix.normal(normalMatrix), min, max);
+
+                    int count = mesh.getLodIndexCount(0);
+                    int first = indices.position();
+                    IntBuffer meshIndices = indices.slice();
+                    meshIndices.limit(count);
+                    arena.readIndices(range, 0, meshIndices);
+                    for (int j = first; j < first + count; j++) {
+                        indices.put(j, indices.get(j) + baseVertex);
+                    }
+                    indices.position(first + count);
+                    baseVertex += range.getNumVertices();
+                }
+                vertices.flip();
+                indices.flip();
+
+                // Keep the vertices relative to the center of the batch, where its item is placed
+                Vector3f center = new Vector3f(min).add(max).mul(0.5f);
+                for (int pos = 0; pos < vertices.limit(); pos += stride) {
+                    vertices.putFloat(pos, vertices.getFloat(pos) - center.x);
+                    vertices.putFloat(pos + 4, vertices.getFloat(pos + 4) - center.y);
+                    vertices.putFloat(pos + 8, vertices.getFloat(pos + 8) - center.z);
+                }
+
+                Mesh mesh = new Mesh(vertexFormat, vertices, indices);
+                mesh.setMaterial(material);
+                GameItem gameItem = new GameItem(mesh);
+                gameItem.setPosition(center.x, center.y, center.z);
+                gameItem.setStatic(true);
+                return gameItem;
+            } finally {
+                if (meshVertices != null) {
+                    MemoryUtil.memFree(meshVertices);
+                }
+                if (vertices != null) {
+                    MemoryUtil.memFree(vertices);
+                }
+                if (indices != null) {
+                    MemoryUtil.memFree(indices);
+                }
+            }
+        }
+    }
+}
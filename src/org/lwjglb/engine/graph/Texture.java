@@ -43,6 +43,24 @@ public class Texture {
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
     }
 
+    /**
+     * Wraps a texture created elsewhere, such as a render target, so it can
+     * be used as a texture atlas by a material.
+     *
+     * @param id Name of the texture
+     * @param width Width of the texture
+     * @param height Height of the texture
+     * @param numCols Number of columns of the atlas
+     * @param numRows Number of rows of the atlas
+     */
+    public Texture(int id, int width, int height, int numCols, int numRows) {
+        this.id = id;
+        this.width = width;
+        this.height = height;
+        this.numCols = numCols;
+        this.numRows = numRows;
+    }
+
     public Texture(String fileName, int numCols, int numRows) throws Exception {
         this(fileName);
         this.numCols = numCols;
@@ -1,14 +1,11 @@
 package org.lwjglb.engine.graph;
 
 import org.joml.Matrix4f;
-import org.joml.Quaternionf;
 import org.joml.Vector3f;
 import org.lwjglb.engine.items.GameItem;
 
 public class Transformation {
 
-    private final Matrix4f modelMatrix;
-    
     private final Matrix4f modelViewMatrix;
 
     private final Matrix4f modelLightViewMatrix;
@@ -20,7 +17,6 @@ public class Transformation {
     private final Matrix4f orthoModelMatrix;
 
     public Transformation() {
-        modelMatrix = new Matrix4f();
         modelViewMatrix = new Matrix4f();
         modelLightViewMatrix = new Matrix4f();
         ortho2DMatrix = new Matrix4f();
@@ -51,12 +47,16 @@ public class Transformation {
         return ortho2DMatrix.setOrtho2D(left, right, bottom, top);
     }
     
+    /**
+     * Gets the model matrix of an item. It is the matrix cached by the item,
+     * so it must not be modified.
+     */
     public Matrix4f buildModelMatrix(GameItem gameItem) {
-        Quaternionf rotation = gameItem.getRotation();
-        return modelMatrix.translationRotateScale(
-                gameItem.getPosition().x, gameItem.getPosition().y, gameItem.getPosition().z,
-                rotation.x, rotation.y, rotation.z, rotation.w,
-                gameItem.getScale(), gameItem.getScale(), gameItem.getScale());
+        return gameItem.getModelMatrix();
+    }
+
+    public static Matrix4f buildModelMatrix(GameItem gameItem, Matrix4f matrix) {
+        return matrix.set(gameItem.getModelMatrix());
     }
 
     public Matrix4f buildModelViewMatrix(GameItem gameItem, Matrix4f viewMatrix) {
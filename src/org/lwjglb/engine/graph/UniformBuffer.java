@@ -0,0 +1,84 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * A uniform buffer object bound to a fixed binding point. Data is written into
+ * a CPU side copy and only sent to the GPU when it differs from what was last
+ * uploaded.
+ */
+public class UniformBuffer {
+
+    private final int bufferId;
+
+    private final int bindingPoint;
+
+    private final int size;
+
+    private ByteBuffer data;
+
+    private ByteBuffer uploadedData;
+
+    private boolean uploaded;
+
+    public UniformBuffer(int bindingPoint, int size) {
+        this.bindingPoint = bindingPoint;
+        this.size = size;
+        data = MemoryUtil.memCalloc(size);
+        uploadedData = MemoryUtil.memCalloc(size);
+        uploaded = false;
+
+        bufferId = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+        glBufferData(GL_UNIFORM_BUFFER, size, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, bufferId);
+    }
+
+    public int getBindingPoint() {
+        return bindingPoint;
+    }
+
+    /**
+     * Gets the CPU side copy of the block. It must be written with absolute
+     * puts so its position and limit are preserved.
+     *
+     * @return The block data
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     * Uploads the block if it has changed since the last upload.
+     *
+     * @return true if the buffer has been uploaded
+     */
+    public boolean upload() {
+        if (uploaded && data.equals(uploadedData)) {
+            return false;
+        }
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), MemoryUtil.memAddress(uploadedData), size);
+        uploaded = true;
+        return true;
+    }
+
+    public void cleanup() {
+        glDeleteBuffers(bufferId);
+        if (data != null) {
+            MemoryUtil.memFree(data);
+            data = null;
+        }
+        if (uploadedData != null) {
+            MemoryUtil.memFree(uploadedData);
+            uploadedData = null;
+        }
+    }
+}
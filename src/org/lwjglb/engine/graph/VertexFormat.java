@@ -0,0 +1,326 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Layout of the vertices of a mesh, all the attributes interleaved in a
+ * single buffer:
+ * <ul>
+ * <li>0: position, three floats.</li>
+ * <li>1: texture coordinates, two half floats, or two floats when they are
+ * too large to be stored as half floats without visible error.</li>
+ * <li>2: normal, octahedral encoded in two normalized shorts. Shaders decode
+ * it with octDecode.</li>
+ * <li>3: joint weights, four normalized unsigned bytes. Skinned meshes only.</li>
+ * <li>4: joint indices, four unsigned bytes. Skinned meshes only.</li>
+ * </ul>
+ * A static vertex takes 20 bytes, a skinned one 28, instead of the 64 bytes
+ * of separate float streams.
+ */
+public class VertexFormat {
+
+    /**
+     * Largest texture coordinate stored as a half float. Up to 2 the error is
+     * below 1/1024 of the texture.
+     */
+    public static final float MAX_HALF_TEXT_COORD = 2.0f;
+
+    private static final int POSITION_SIZE_BYTES = 3 * 4;
+
+    private static final int NORMAL_SIZE_BYTES = 2 * 2;
+
+    private static final int JOINTS_SIZE_BYTES = Mesh.MAX_WEIGHTS;
+
+    private final boolean halfTextCoords;
+
+    private final boolean skinned;
+
+    private final int textCoordsOffset;
+
+    private final int normalOffset;
+
+    private final int weightsOffset;
+
+    private final int jointIndicesOffset;
+
+    private final int stride;
+
+    public VertexFormat(boolean halfTextCoords, boolean skinned) {
+        this.halfTextCoords = halfTextCoords;
+        this.skinned = skinned;
+        textCoordsOffset = POSITION_SIZE_BYTES;
+        normalOffset = textCoordsOffset + (halfTextCoords ? 2 * 2 : 2 * 4);
+        weightsOffset = normalOffset + NORMAL_SIZE_BYTES;
+        jointIndicesOffset = weightsOffset + (skinned ? JOINTS_SIZE_BYTES : 0);
+        stride = jointIndicesOffset + (skinned ? JOINTS_SIZE_BYTES : 0);
+    }
+
+    /**
+     * Chooses the most compact format for the given vertex data.
+     *
+     * @param textCoords The texture coordinates
+     * @param skinned If the mesh has joint weights and indices
+     * @return The format
+     */
+    public static VertexFormat forMesh(float[] textCoords, boolean skinned) {
+        boolean halfTextCoords = true;
+        for (float textCoord : textCoords) {
+            if (Math.abs(textCoord) > MAX_HALF_TEXT_COORD) {
+                halfTextCoords = false;
+                break;
+            }
+        }
+        return new VertexFormat(halfTextCoords, skinned);
+    }
+
+    public boolean isHalfTextCoords() {
+        return halfTextCoords;
+    }
+
+    public boolean isSkinned() {
+        return skinned;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof VertexFormat)) {
+            return false;
+        }
+        VertexFormat other = (VertexFormat) obj;
+        return halfTextCoords == other.halfTextCoords && skinned == other.skinned;
+    }
+
+    @Override
+    public int hashCode() {
+        return (halfTextCoords ? 1 : 0) | (skinned ? 2 : 0);
+    }
+
+    /**
+     * @return Size of a vertex in bytes
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Writes the vertices interleaved. Missing texture coordinates are
+     * written as zero and missing normals as +Z.
+     *
+     * @param buffer Where the vertices are written, in native order
+     * @param positions The positions
+     * @param textCoords The texture coordinates
+     * @param normals The normals
+     * @param jointIndices The joint indices, ignored if the format is not skinned
+     * @param weights The joint weights, ignored if the format is not skinned
+     */
+    public void put(ByteBuffer buffer, float[] positions, float[] textCoords, float[] normals, int[] jointIndices, float[] weights) {
+        int numVertices = positions.length / 3;
+        for (int i = 0; i < numVertices; i++) {
+            buffer.putFloat(positions[i * 3]);
+            buffer.putFloat(positions[i * 3 + 1]);
+            buffer.putFloat(positions[i * 3 + 2]);
+
+            float u = i * 2 + 1 < textCoords.length ? textCoords[i * 2] : 0;
+            float v = i * 2 + 1 < textCoords.length ? textCoords[i * 2 + 1] : 0;
+            if (halfTextCoords) {
+                buffer.putShort(toHalf(u));
+                buffer.putShort(toHalf(v));
+            } else {
+                buffer.putFloat(u);
+                buffer.putFloat(v);
+            }
+
+            int normal = 0;
+            if (i * 3 + 2 < normals.length) {
+                normal = encodeOctahedral(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]);
+            }
+            buffer.putShort((short) normal);
+            buffer.putShort((short) (normal >> 16));
+
+            if (skinned) {
+                for (int j = 0; j < Mesh.MAX_WEIGHTS; j++) {
+                    float weight = Math.max(0, Math.min(1, weights[i * Mesh.MAX_WEIGHTS + j]));
+                    buffer.put((byte) Math.round(weight * 255.0f));
+                }
+                for (int j = 0; j < Mesh.MAX_WEIGHTS; j++) {
+                    int jointIndex = jointIndices[i * Mesh.MAX_WEIGHTS + j];
+                    if (jointIndex < 0 || jointIndex > 255) {
+                        throw new IllegalArgumentException("Joint index out of range: " + jointIndex);
+                    }
+                    buffer.put((byte) jointIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies vertices in this format, transforming their positions and
+     * normals. Texture coordinates and skinning attributes are copied as
+     * they are.
+     *
+     * @param src The vertices to copy, from its position to its limit
+     * @param dst Where the vertices are written, from its position
+     * @param matrix Transforms the positions
+     * @param normalMatrix Transforms the normals, the inverse transpose of
+     * the upper left 3x3 of the matrix
+     * @param min Lower corner of the transformed positions, updated
+     * @param max Upper corner of the transformed positions, updated
+     */
+    public void transform(ByteBuffer src, ByteBuffer dst, Matrix4f matrix, Matrix3f normalMatrix,
+            Vector3f min, Vector3f max) {
+        Vector3f v = new Vector3f();
+        int numVertices = src.remaining() / stride;
+        int srcPos = src.position();
+        int dstPos = dst.position();
+        for (int i = 0; i < numVertices; i++) {
+            int from = srcPos + i * stride;
+            int to = dstPos + i * stride;
+            for (int j = 0; j < stride; j++) {
+                dst.put(to + j, src.get(from + j));
+            }
+
+            matrix.transformPosition(src.getFloat(from), src.getFloat(from + 4), src.getFloat(from + 8), v);
+            dst.putFloat(to, v.x);
+            dst.putFloat(to + 4, v.y);
+            dst.putFloat(to + 8, v.z);
+            min.min(v);
+            max.max(v);
+
+            decodeOctahedral(src.getShort(from + normalOffset), src.getShort(from + normalOffset + 2), v);
+            normalMatrix.transform(v);
+            int normal = encodeOctahedral(v.x, v.y, v.z);
+            dst.putShort(to + normalOffset, (short) normal);
+            dst.putShort(to + normalOffset + 2, (short) (normal >> 16));
+        }
+        dst.position(dstPos + numVertices * stride);
+    }
+
+    /**
+     * Sets up the attributes of the vertex array bound, reading from the
+     * array buffer bound.
+     */
+    public void setupAttributes() {
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0);
+        glVertexAttribPointer(1, 2, halfTextCoords ? GL_HALF_FLOAT : GL_FLOAT, false, stride, textCoordsOffset);
+        glVertexAttribPointer(2, 2, GL_SHORT, true, stride, normalOffset);
+        if (skinned) {
+            glVertexAttribPointer(3, 4, GL_UNSIGNED_BYTE, true, stride, weightsOffset);
+            glVertexAttribIPointer(4, 4, GL_UNSIGNED_BYTE, stride, jointIndicesOffset);
+        }
+    }
+
+    public void enableAttributes() {
+        glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+        glEnableVertexAttribArray(2);
+        if (skinned) {
+            glEnableVertexAttribArray(3);
+            glEnableVertexAttribArray(4);
+        } else {
+            // Disabled attributes read the current value, which must not weight any joint
+            glVertexAttrib4f(3, 0, 0, 0, 0);
+        }
+    }
+
+    public void disableAttributes() {
+        glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
+        glDisableVertexAttribArray(2);
+        if (skinned) {
+            glDisableVertexAttribArray(3);
+            glDisableVertexAttribArray(4);
+        }
+    }
+
+    /**
+     * Converts a float to a half float, rounding to the nearest value.
+     *
+     * @param value The value
+     * @return The bits of the half float
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent >= 0x1F) {
+            // Too large, infinity or NaN
+            boolean nan = (bits & 0x7F800000) == 0x7F800000 && mantissa != 0;
+            return (short) (sign | 0x7C00 | (nan ? 0x200 : 0));
+        }
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            // Subnormal half float
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            if (((mantissa >> (shift - 1)) & 1) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = sign | (exponent << 10) | (mantissa >> 13);
+        if ((mantissa & 0x1000) != 0) {
+            // A carry into the exponent is still the right value
+            half++;
+        }
+        return (short) half;
+    }
+
+    /**
+     * Encodes a normal as a point of the octahedron unfolded over a square.
+     *
+     * @param x The x coordinate of the normal
+     * @param y The y coordinate of the normal
+     * @param z The z coordinate of the normal
+     * @return Two normalized shorts, the first one in the lowest bits
+     */
+    static int encodeOctahedral(float x, float y, float z) {
+        float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (length == 0) {
+            return 0;
+        }
+        float u = x / length;
+        float v = y / length;
+        if (z < 0) {
+            // Fold the lower half over the diagonals
+            float foldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+            float foldedV = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+            u = foldedU;
+            v = foldedV;
+        }
+        int su = Math.round(Math.max(-1, Math.min(1, u)) * 32767.0f);
+        int sv = Math.round(Math.max(-1, Math.min(1, v)) * 32767.0f);
+        return (su & 0xFFFF) | (sv << 16);
+    }
+
+    /**
+     * Decodes a normal encoded by encodeOctahedral, as octDecode does in the
+     * shaders.
+     *
+     * @param su The first normalized short
+     * @param sv The second normalized short
+     * @param dest Where the unit normal is written
+     * @return dest
+     */
+    static Vector3f decodeOctahedral(short su, short sv, Vector3f dest) {
+        float u = Math.max(su / 32767.0f, -1);
+        float v = Math.max(sv / 32767.0f, -1);
+        float z = 1 - Math.abs(u) - Math.abs(v);
+        if (z < 0) {
+            float unfoldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+            float unfoldedV = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+            u = unfoldedU;
+            v = unfoldedV;
+        }
+        return dest.set(u, v, z).normalize();
+    }
+}
@@ -0,0 +1,159 @@
+package org.lwjglb.engine.graph;
+
+import java.util.Arrays;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.anim.AnimGameItem;
+import org.lwjglb.engine.graph.arena.RangeAllocator;
+import org.lwjglb.engine.graph.shadow.ShadowRenderer;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Visibility of each mesh of each item of a scene, kept per view in a
+ * bitset. Every item gets a range of slots, one per mesh, when it is added
+ * to the scene. Each view is written by the pass that culls for it and read
+ * by the passes that draw it, so an item with several meshes only draws the
+ * ones that are inside the view.
+ */
+public class VisibilitySet {
+
+    public static final int VIEW_CAMERA = 0;
+
+    public static final int VIEW_PICKING = 1;
+
+    /**
+     * View of the first shadow cascade, the others follow it.
+     */
+    public static final int VIEW_SHADOW_CASCADE = 2;
+
+    public static final int NUM_VIEWS = VIEW_SHADOW_CASCADE + ShadowRenderer.NUM_CASCADES;
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final RangeAllocator slotAllocator;
+
+    private final long[][] views;
+
+    private final Vector3f tmpCenter;
+
+    public VisibilitySet() {
+        slotAllocator = new RangeAllocator(INITIAL_SLOTS);
+        views = new long[NUM_VIEWS][INITIAL_SLOTS >>> 6];
+        tmpCenter = new Vector3f();
+    }
+
+    /**
+     * Gives an item a slot for each of its meshes. Items whose number of
+     * meshes has changed get a new range.
+     *
+     * @param gameItem The item
+     */
+    public void register(GameItem gameItem) {
+        int numSlots = Math.max(1, gameItem.getMeshes() != null ? gameItem.getMeshes().length : 0);
+        if (gameItem.getVisibilitySlot() >= 0) {
+            if (gameItem.getNumVisibilitySlots() == numSlots) {
+                return;
+            }
+            unregister(gameItem);
+        }
+        int slot = slotAllocator.allocate(numSlots);
+        if (slot < 0) {
+            int capacity = slotAllocator.getCapacity();
+            grow(Math.max(capacity * 2, capacity + numSlots));
+            slot = slotAllocator.allocate(numSlots);
+        }
+        for (long[] bits : views) {
+            for (int i = slot; i < slot + numSlots; i++) {
+                bits[i >>> 6] &= ~(1L << i);
+            }
+        }
+        gameItem.setVisibilitySlots(slot, numSlots);
+    }
+
+    public void unregister(GameItem gameItem) {
+        if (gameItem.getVisibilitySlot() < 0) {
+            return;
+        }
+        slotAllocator.free(gameItem.getVisibilitySlot(), gameItem.getNumVisibilitySlots());
+        gameItem.setVisibilitySlots(-1, 0);
+    }
+
+    /**
+     * Marks every mesh of every item as not visible in a view.
+     *
+     * @param view The view
+     */
+    public void clear(int view) {
+        Arrays.fill(views[view], 0L);
+    }
+
+    public void set(int view, GameItem gameItem, int meshIndex) {
+        int slot = gameItem.getVisibilitySlot() + meshIndex;
+        views[view][slot >>> 6] |= 1L << slot;
+    }
+
+    /**
+     * Marks all the meshes of an item as visible in a view.
+     *
+     * @param view The view
+     * @param gameItem The item
+     */
+    public void setAll(int view, GameItem gameItem) {
+        int first = gameItem.getVisibilitySlot();
+        int end = first + gameItem.getNumVisibilitySlots();
+        long[] bits = views[view];
+        for (int slot = first; slot < end; slot++) {
+            bits[slot >>> 6] |= 1L << slot;
+        }
+    }
+
+    /**
+     * @param view The view
+     * @param gameItem The item
+     * @param meshIndex Index of the mesh in the meshes of the item
+     * @return True if the mesh of the item is visible in the view
+     */
+    public boolean isVisible(int view, GameItem gameItem, int meshIndex) {
+        int slot = gameItem.getVisibilitySlot() + meshIndex;
+        return (views[view][slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Writes the visibility of the meshes of an item in a view, testing the
+     * bounding sphere of each mesh in world space.
+     *
+     * @param view The view
+     * @param gameItem The item, whose bounding sphere intersects the frustum
+     * @param frustum The frustum of the view
+     * @return True if any mesh of the item is visible
+     */
+    public boolean cull(int view, GameItem gameItem, FrustumIntersection frustum) {
+        register(gameItem);
+        Mesh[] meshes = gameItem.getMeshes();
+        if (gameItem.isDisableFrustumCulling() || meshes.length == 1 || gameItem instanceof AnimGameItem) {
+            // The bounds of the item are those of its single mesh, or of its animation for skinned meshes
+            setAll(view, gameItem);
+            return true;
+        }
+        Matrix4f modelMatrix = gameItem.getModelMatrix();
+        float scale = Math.abs(gameItem.getWorldScale());
+        boolean visible = false;
+        for (int i = 0; i < meshes.length; i++) {
+            Vector3f center = modelMatrix.transformPosition(meshes[i].getBoundingCenter(), tmpCenter);
+            if (frustum.testSphere(center.x, center.y, center.z, meshes[i].getBoundingRadius() * scale)) {
+                set(view, gameItem, i);
+                visible = true;
+            }
+        }
+        return visible;
+    }
+
+    private void grow(int capacity) {
+        slotAllocator.grow(capacity);
+        int numWords = (capacity + 63) >>> 6;
+        for (int i = 0; i < views.length; i++) {
+            views[i] = Arrays.copyOf(views[i], numWords);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.lwjglb.engine.graph.anim;
 import java.util.Map;
 import java.util.Optional;
 
+import org.joml.Vector3f;
 import org.lwjglb.engine.graph.Mesh;
 import org.lwjglb.engine.items.GameItem;
 
@@ -29,5 +30,22 @@ public class AnimGameItem extends GameItem {
 
     public void setCurrentAnimation(Animation currentAnimation) {
         this.currentAnimation = currentAnimation;
+        // The bounds of the item come from the animation
+        invalidate();
+    }
+
+    /**
+     * Uses the box that contains every frame of the current animation, the
+     * bind pose of the meshes may be far from it.
+     */
+    @Override
+    protected float getLocalBounds(Vector3f center) {
+        if (currentAnimation == null || currentAnimation.getBoundsMin() == null) {
+            return super.getLocalBounds(center);
+        }
+        Vector3f min = currentAnimation.getBoundsMin();
+        Vector3f max = currentAnimation.getBoundsMax();
+        center.set(min).add(max).mul(0.5f);
+        return min.distance(max) * 0.5f;
     }
 }
@@ -1,6 +1,7 @@
 package org.lwjglb.engine.graph.anim;
 
 import java.util.List;
+import org.joml.Vector3f;
 
 public class Animation {
 
@@ -12,6 +13,10 @@ public class Animation {
     
     private double duration;
 
+    private Vector3f boundsMin;
+
+    private Vector3f boundsMax;
+
     public Animation(String name, List<AnimatedFrame> frames, double duration) {
         this.name = name;
         this.frames = frames;
@@ -23,6 +28,14 @@ public class Animation {
         return this.frames.get(currentFrame);
     }
 
+    public int getCurrentFrameIndex() {
+        return currentFrame;
+    }
+
+    public void setCurrentFrameIndex(int currentFrame) {
+        this.currentFrame = currentFrame % frames.size();
+    }
+
     public double getDuration() {
         return this.duration;        
     }
@@ -35,6 +48,23 @@ public class Animation {
         return name;
     }
 
+    /**
+     * @return Lower corner of the box that contains the skinned meshes in
+     * every frame, or null if it has not been calculated
+     */
+    public Vector3f getBoundsMin() {
+        return boundsMin;
+    }
+
+    public Vector3f getBoundsMax() {
+        return boundsMax;
+    }
+
+    public void setBounds(Vector3f boundsMin, Vector3f boundsMax) {
+        this.boundsMin = boundsMin;
+        this.boundsMax = boundsMax;
+    }
+
     public AnimatedFrame getNextFrame() {
         nextFrame();
         return this.frames.get(currentFrame);
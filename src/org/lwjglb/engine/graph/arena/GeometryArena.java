@@ -0,0 +1,323 @@
+package org.lwjglb.engine.graph.arena;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.lwjglb.engine.graph.VertexFormat;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glVertexAttrib4f;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * Vertex and index buffers shared by the meshes of a vertex format, with a
+ * single VAO. Each mesh gets a range of vertices and a range of indices and
+ * is drawn with glDrawElementsBaseVertex, so switching from a mesh to
+ * another one does not change any vertex state.
+ * <p>
+ * When a range does not fit, the live ranges are packed at the start of a
+ * new buffer, twice as large if packing alone is not enough.
+ */
+public class GeometryArena {
+
+    public static final int INITIAL_VERTICES = 1 << 16;
+
+    public static final int INITIAL_INDICES = 1 << 18;
+
+    private static final int INDEX_SIZE_BYTES = 4;
+
+    private static final Map<VertexFormat, GeometryArena> ARENAS = new HashMap<>();
+
+    private final VertexFormat vertexFormat;
+
+    private final int vaoId;
+
+    private int vboId;
+
+    private int iboId;
+
+    private final RangeAllocator vertexAllocator;
+
+    private final RangeAllocator indexAllocator;
+
+    private final List<GeometryRange> ranges;
+
+    public GeometryArena(VertexFormat vertexFormat, int vertexCapacity, int indexCapacity) {
+        this.vertexFormat = vertexFormat;
+        vertexAllocator = new RangeAllocator(vertexCapacity);
+        indexAllocator = new RangeAllocator(indexCapacity);
+        ranges = new ArrayList<>();
+
+        vaoId = glGenVertexArrays();
+        vboId = createBuffer((long) vertexCapacity * vertexFormat.getStride());
+        iboId = createBuffer((long) indexCapacity * INDEX_SIZE_BYTES);
+        attachBuffers();
+    }
+
+    /**
+     * Gets the arena of a vertex format, it is created the first time.
+     *
+     * @param vertexFormat The vertex format
+     * @return The arena
+     */
+    public static GeometryArena get(VertexFormat vertexFormat) {
+        GeometryArena arena = ARENAS.get(vertexFormat);
+        if (arena == null) {
+            arena = new GeometryArena(vertexFormat, INITIAL_VERTICES, INITIAL_INDICES);
+            ARENAS.put(vertexFormat, arena);
+        }
+        return arena;
+    }
+
+    public static void cleanupAll() {
+        for (GeometryArena arena : ARENAS.values()) {
+            arena.cleanup();
+        }
+        ARENAS.clear();
+    }
+
+    public VertexFormat getVertexFormat() {
+        return vertexFormat;
+    }
+
+    public int getVaoId() {
+        return vaoId;
+    }
+
+    public int getVertexCapacity() {
+        return vertexAllocator.getCapacity();
+    }
+
+    public int getIndexCapacity() {
+        return indexAllocator.getCapacity();
+    }
+
+    public int getNumRanges() {
+        return ranges.size();
+    }
+
+    /**
+     * Copies a mesh into the arena.
+     *
+     * @param vertices Vertices in the format of the arena
+     * @param indices The indices, relative to the first vertex of the mesh
+     * @return The range of the mesh
+     */
+    public GeometryRange allocate(ByteBuffer vertices, IntBuffer indices) {
+        int numVertices = vertices.remaining() / vertexFormat.getStride();
+        int numIndices = indices.remaining();
+        int baseVertex = allocateVertices(numVertices);
+        int firstIndex = allocateIndices(numIndices);
+
+        glBindBuffer(GL_COPY_WRITE_BUFFER, vboId);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) baseVertex * vertexFormat.getStride(), vertices);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, iboId);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) firstIndex * INDEX_SIZE_BYTES, indices);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        GeometryRange range = new GeometryRange(this, baseVertex, numVertices, firstIndex, numIndices);
+        ranges.add(range);
+        return range;
+    }
+
+    /**
+     * Moves the indices of a range to a larger one. The current indices are
+     * kept at its start.
+     *
+     * @param range The range
+     * @param numIndices The new number of indices
+     */
+    public void resizeIndices(GeometryRange range, int numIndices) {
+        int newFirstIndex = allocateIndices(numIndices);
+        // Read after allocating, packing the buffer may have moved the range
+        int oldFirstIndex = range.getFirstIndex();
+        int oldNumIndices = range.getNumIndices();
+        glBindBuffer(GL_COPY_READ_BUFFER, iboId);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, iboId);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) oldFirstIndex * INDEX_SIZE_BYTES,
+                (long) newFirstIndex * INDEX_SIZE_BYTES, (long) Math.min(oldNumIndices, numIndices) * INDEX_SIZE_BYTES);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        indexAllocator.free(oldFirstIndex, oldNumIndices);
+        range.setIndices(newFirstIndex, numIndices);
+    }
+
+    /**
+     * Writes indices of a range.
+     *
+     * @param range The range
+     * @param offset Offset, in indices, from the first index of the range
+     * @param indices The indices
+     */
+    public void updateIndices(GeometryRange range, int offset, IntBuffer indices) {
+        glBindBuffer(GL_COPY_WRITE_BUFFER, iboId);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) (range.getFirstIndex() + offset) * INDEX_SIZE_BYTES, indices);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    /**
+     * Reads the vertices of a range back from the arena.
+     *
+     * @param range The range
+     * @param vertices Where the vertices are written, from its position
+     */
+    public void readVertices(GeometryRange range, ByteBuffer vertices) {
+        int stride = vertexFormat.getStride();
+        ByteBuffer dst = vertices.slice();
+        dst.limit(range.getNumVertices() * stride);
+        glBindBuffer(GL_COPY_READ_BUFFER, vboId);
+        glGetBufferSubData(GL_COPY_READ_BUFFER, (long) range.getBaseVertex() * stride, dst);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+    }
+
+    /**
+     * Reads indices of a range back from the arena.
+     *
+     * @param range The range
+     * @param offset Offset, in indices, from the first index of the range
+     * @param indices Where the indices are written, from its position to its limit
+     */
+    public void readIndices(GeometryRange range, int offset, IntBuffer indices) {
+        glBindBuffer(GL_COPY_READ_BUFFER, iboId);
+        glGetBufferSubData(GL_COPY_READ_BUFFER, (long) (range.getFirstIndex() + offset) * INDEX_SIZE_BYTES, indices);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+    }
+
+    public void free(GeometryRange range) {
+        if (range.isFreed()) {
+            return;
+        }
+        vertexAllocator.free(range.getBaseVertex(), range.getNumVertices());
+        indexAllocator.free(range.getFirstIndex(), range.getNumIndices());
+        ranges.remove(range);
+        range.setFreed(true);
+    }
+
+    /**
+     * Packs the live ranges at the start of the buffers, leaving all the
+     * free space in one range at the end.
+     */
+    public void defragment() {
+        packVertices(vertexAllocator.getCapacity());
+        packIndices(indexAllocator.getCapacity());
+    }
+
+    public void bind() {
+        glBindVertexArray(vaoId);
+        if (!vertexFormat.isSkinned()) {
+            // Disabled attributes read the current value, which must not weight any joint
+            glVertexAttrib4f(3, 0, 0, 0, 0);
+        }
+    }
+
+    public void unbind() {
+        glBindVertexArray(0);
+    }
+
+    public void cleanup() {
+        glBindVertexArray(0);
+        glDeleteBuffers(vboId);
+        glDeleteBuffers(iboId);
+        glDeleteVertexArrays(vaoId);
+        for (GeometryRange range : ranges) {
+            range.setFreed(true);
+        }
+        ranges.clear();
+    }
+
+    private int allocateVertices(int numVertices) {
+        int baseVertex = vertexAllocator.allocate(numVertices);
+        if (baseVertex < 0) {
+            int capacity = vertexAllocator.getCapacity();
+            int used = capacity - vertexAllocator.getFreeUnits();
+            packVertices(used + numVertices <= capacity ? capacity : Math.max(capacity * 2, used + numVertices));
+            baseVertex = vertexAllocator.allocate(numVertices);
+        }
+        return baseVertex;
+    }
+
+    private int allocateIndices(int numIndices) {
+        int firstIndex = indexAllocator.allocate(numIndices);
+        if (firstIndex < 0) {
+            int capacity = indexAllocator.getCapacity();
+            int used = capacity - indexAllocator.getFreeUnits();
+            packIndices(used + numIndices <= capacity ? capacity : Math.max(capacity * 2, used + numIndices));
+            firstIndex = indexAllocator.allocate(numIndices);
+        }
+        return firstIndex;
+    }
+
+    private void packVertices(int capacity) {
+        int stride = vertexFormat.getStride();
+        int newVboId = createBuffer((long) capacity * stride);
+        List<GeometryRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingInt(GeometryRange::getBaseVertex));
+        glBindBuffer(GL_COPY_READ_BUFFER, vboId);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newVboId);
+        int used = 0;
+        for (GeometryRange range : sorted) {
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) range.getBaseVertex() * stride,
+                    (long) used * stride, (long) range.getNumVertices() * stride);
+            range.setBaseVertex(used);
+            used += range.getNumVertices();
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(vboId);
+        vboId = newVboId;
+
+        if (capacity > vertexAllocator.getCapacity()) {
+            vertexAllocator.grow(capacity);
+        }
+        vertexAllocator.reset(used);
+        attachBuffers();
+    }
+
+    private void packIndices(int capacity) {
+        int newIboId = createBuffer((long) capacity * INDEX_SIZE_BYTES);
+        List<GeometryRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingInt(GeometryRange::getFirstIndex));
+        glBindBuffer(GL_COPY_READ_BUFFER, iboId);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newIboId);
+        int used = 0;
+        for (GeometryRange range : sorted) {
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) range.getFirstIndex() * INDEX_SIZE_BYTES,
+                    (long) used * INDEX_SIZE_BYTES, (long) range.getNumIndices() * INDEX_SIZE_BYTES);
+            range.setIndices(used, range.getNumIndices());
+            used += range.getNumIndices();
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(iboId);
+        iboId = newIboId;
+
+        if (capacity > indexAllocator.getCapacity()) {
+            indexAllocator.grow(capacity);
+        }
+        indexAllocator.reset(used);
+        attachBuffers();
+    }
+
+    private static int createBuffer(long size) {
+        int bufferId = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+        glBufferData(GL_COPY_WRITE_BUFFER, size, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return bufferId;
+    }
+
+    private void attachBuffers() {
+        glBindVertexArray(vaoId);
+        glBindBuffer(GL_ARRAY_BUFFER, vboId);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, iboId);
+        vertexFormat.setupAttributes();
+        // Attribute arrays are part of the VAO state, they stay enabled
+        vertexFormat.enableAttributes();
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+}
@@ -0,0 +1,72 @@
+package org.lwjglb.engine.graph.arena;
+
+/**
+ * The vertices and indices of a mesh inside a geometry arena. The arena may
+ * move them when it is compacted, so offsets must be read when drawing and
+ * not kept.
+ */
+public class GeometryRange {
+
+    private final GeometryArena arena;
+
+    private int baseVertex;
+
+    private final int numVertices;
+
+    private int firstIndex;
+
+    private int numIndices;
+
+    private boolean freed;
+
+    GeometryRange(GeometryArena arena, int baseVertex, int numVertices, int firstIndex, int numIndices) {
+        this.arena = arena;
+        this.baseVertex = baseVertex;
+        this.numVertices = numVertices;
+        this.firstIndex = firstIndex;
+        this.numIndices = numIndices;
+    }
+
+    public GeometryArena getArena() {
+        return arena;
+    }
+
+    /**
+     * @return Offset, in vertices, added to the indices when drawing
+     */
+    public int getBaseVertex() {
+        return baseVertex;
+    }
+
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    /**
+     * @return Offset, in indices, of the first index in the index buffer
+     */
+    public int getFirstIndex() {
+        return firstIndex;
+    }
+
+    public int getNumIndices() {
+        return numIndices;
+    }
+
+    public boolean isFreed() {
+        return freed;
+    }
+
+    void setBaseVertex(int baseVertex) {
+        this.baseVertex = baseVertex;
+    }
+
+    void setIndices(int firstIndex, int numIndices) {
+        this.firstIndex = firstIndex;
+        this.numIndices = numIndices;
+    }
+
+    void setFreed(boolean freed) {
+        this.freed = freed;
+    }
+}
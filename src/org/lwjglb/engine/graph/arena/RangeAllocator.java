@@ -0,0 +1,113 @@
+package org.lwjglb.engine.graph.arena;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Hands out ranges of a buffer of a given capacity. Free ranges are kept
+ * sorted by offset and merged with their neighbours when released, ranges are
+ * allocated from the first free one that is large enough. Units are whatever
+ * the caller counts, vertices or indices.
+ */
+public class RangeAllocator {
+
+    /**
+     * Size of each free range, by offset.
+     */
+    private final TreeMap<Integer, Integer> freeRanges;
+
+    private int capacity;
+
+    private int freeUnits;
+
+    public RangeAllocator(int capacity) {
+        freeRanges = new TreeMap<>();
+        this.capacity = capacity;
+        reset(0);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getFreeUnits() {
+        return freeUnits;
+    }
+
+    public int getLargestFreeRange() {
+        int largest = 0;
+        for (int size : freeRanges.values()) {
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+
+    /**
+     * @param size Number of units
+     * @return Offset of the range, or -1 if there is no free range large enough
+     */
+    public int allocate(int size) {
+        if (size <= 0) {
+            return size == 0 ? 0 : -1;
+        }
+        Iterator<Map.Entry<Integer, Integer>> it = freeRanges.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Integer> range = it.next();
+            int rangeSize = range.getValue();
+            if (rangeSize >= size) {
+                int offset = range.getKey();
+                it.remove();
+                if (rangeSize > size) {
+                    freeRanges.put(offset + size, rangeSize - size);
+                }
+                freeUnits -= size;
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    public void free(int offset, int size) {
+        if (size <= 0) {
+            return;
+        }
+        freeUnits += size;
+        Map.Entry<Integer, Integer> previous = freeRanges.floorEntry(offset);
+        if (previous != null && previous.getKey() + previous.getValue() == offset) {
+            offset = previous.getKey();
+            size += previous.getValue();
+            freeRanges.remove(offset);
+        }
+        Integer nextSize = freeRanges.remove(offset + size);
+        if (nextSize != null) {
+            size += nextSize;
+        }
+        freeRanges.put(offset, size);
+    }
+
+    /**
+     * Adds units at the end of the buffer.
+     *
+     * @param newCapacity The new capacity, not smaller than the current one
+     */
+    public void grow(int newCapacity) {
+        int oldCapacity = capacity;
+        capacity = newCapacity;
+        free(oldCapacity, newCapacity - oldCapacity);
+    }
+
+    /**
+     * Marks everything up to an offset as used and the rest as free, which
+     * is the state of the buffer once it has been compacted.
+     *
+     * @param usedUnits Units used at the start of the buffer
+     */
+    public void reset(int usedUnits) {
+        freeRanges.clear();
+        freeUnits = capacity - usedUnits;
+        if (freeUnits > 0) {
+            freeRanges.put(usedUnits, freeUnits);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.lwjglb.engine.graph.impostor;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.InstancedMesh;
+import org.lwjglb.engine.graph.Material;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * The impostor of a set of meshes: its atlas, the quad it is drawn with and
+ * the proxies of the items that use it in the current frame. Proxies are
+ * billboards placed at the centre of the items, showing the cell of the
+ * atlas closest to the direction they are seen from.
+ */
+public class Impostor {
+
+    private final ImpostorAtlas atlas;
+
+    private final InstancedMesh mesh;
+
+    /**
+     * Radius of the sphere, in mesh space, covered by each cell.
+     */
+    private final float radius;
+
+    private final List<GameItem> proxies;
+
+    private final List<GameItem> proxyPool;
+
+    private final Vector3f tmpDir;
+
+    public Impostor(ImpostorAtlas atlas, float radius, int numInstances) {
+        this.atlas = atlas;
+        this.radius = radius;
+        float[] positions = new float[]{-1, -1, 0, 1, -1, 0, 1, 1, 0, -1, 1, 0};
+        float[] textCoords = new float[]{0, 0, 1, 0, 1, 1, 0, 1};
+        float[] normals = new float[]{0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1};
+        int[] indices = new int[]{0, 1, 2, 2, 3, 0};
+        mesh = new InstancedMesh(positions, textCoords, normals, indices, numInstances);
+        Material material = new Material(atlas.getColourTexture(), 0);
+        material.setNormalMap(atlas.getNormalTexture());
+        mesh.setMaterial(material);
+        proxies = new ArrayList<>();
+        proxyPool = new ArrayList<>();
+        tmpDir = new Vector3f();
+    }
+
+    public ImpostorAtlas getAtlas() {
+        return atlas;
+    }
+
+    public InstancedMesh getMesh() {
+        return mesh;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public List<GameItem> getProxies() {
+        return proxies;
+    }
+
+    public void clearProxies() {
+        proxies.clear();
+    }
+
+    /**
+     * Adds the proxy of an item for the current frame.
+     *
+     * @param gameItem The item
+     * @param cameraPosition Position of the camera
+     */
+    public void addProxy(GameItem gameItem, Vector3f cameraPosition) {
+        int numProxies = proxies.size();
+        if (numProxies == proxyPool.size()) {
+            proxyPool.add(new GameItem());
+        }
+        GameItem proxy = proxyPool.get(numProxies);
+
+        // Bring the direction to the camera into the space of the item, the transpose is enough for the rotation
+        Vector3f pos = gameItem.getWorldPosition();
+        Matrix4f modelMatrix = gameItem.getModelMatrix();
+        float dx = cameraPosition.x - pos.x;
+        float dy = cameraPosition.y - pos.y;
+        float dz = cameraPosition.z - pos.z;
+        tmpDir.set(modelMatrix.m00() * dx + modelMatrix.m01() * dy + modelMatrix.m02() * dz,
+                modelMatrix.m10() * dx + modelMatrix.m11() * dy + modelMatrix.m12() * dz,
+                modelMatrix.m20() * dx + modelMatrix.m21() * dy + modelMatrix.m22() * dz);
+
+        proxy.setPosition(pos.x, pos.y, pos.z);
+        proxy.setScale(radius * gameItem.getWorldScale());
+        proxy.setTextPos(atlas.getCell(tmpDir));
+        proxies.add(proxy);
+    }
+
+    public void cleanup() {
+        // The textures belong to the atlas
+        mesh.getMaterial().setTexture(null);
+        mesh.getMaterial().setNormalMap(null);
+        mesh.cleanUp();
+        atlas.cleanup();
+    }
+}
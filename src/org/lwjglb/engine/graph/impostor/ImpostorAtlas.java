@@ -0,0 +1,156 @@
+package org.lwjglb.engine.graph.impostor;
+
+import java.nio.ByteBuffer;
+import org.joml.Vector3f;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL20.glDrawBuffers;
+import static org.lwjgl.opengl.GL30.*;
+import org.lwjglb.engine.graph.Texture;
+
+/**
+ * Render target holding the views of an item from a grid of directions.
+ * Directions are mapped to cells with an octahedral mapping: the sphere of
+ * directions is projected onto an octahedron, whose lower half is folded
+ * over the upper one to fill a square. The y axis is the up axis.
+ *
+ * Two textures are written: the colour of the item, with alpha marking its
+ * silhouette, and its normals in the view space of each cell.
+ */
+public class ImpostorAtlas {
+
+    private final int gridSize;
+
+    private final int cellSize;
+
+    private final int fboId;
+
+    private final int depthBufferId;
+
+    private final Texture colourTexture;
+
+    private final Texture normalTexture;
+
+    public ImpostorAtlas(int gridSize, int cellSize) throws Exception {
+        this.gridSize = gridSize;
+        this.cellSize = cellSize;
+        int size = gridSize * cellSize;
+
+        colourTexture = new Texture(createTexture(size), size, size, gridSize, gridSize);
+        normalTexture = new Texture(createTexture(size), size, size, gridSize, gridSize);
+
+        depthBufferId = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBufferId);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, size, size);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        fboId = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, fboId);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colourTexture.getId(), 0);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_TEXTURE_2D, normalTexture.getId(), 0);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBufferId);
+        glDrawBuffers(new int[]{GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1});
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new Exception("Could not create FrameBuffer");
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    private static int createTexture(int size) {
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, size, size, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return id;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getFboId() {
+        return fboId;
+    }
+
+    public Texture getColourTexture() {
+        return colourTexture;
+    }
+
+    public Texture getNormalTexture() {
+        return normalTexture;
+    }
+
+    /**
+     * Gets the cell whose view direction is closest to a direction.
+     *
+     * @param dir Direction from the item to the viewer, in the space of the
+     * item. It does not need to be normalized
+     * @return Index of the cell, row * gridSize + col
+     */
+    public int getCell(Vector3f dir) {
+        float l1 = Math.abs(dir.x) + Math.abs(dir.y) + Math.abs(dir.z);
+        if (l1 == 0) {
+            return 0;
+        }
+        float u = dir.x / l1;
+        float v = dir.z / l1;
+        if (dir.y < 0) {
+            float foldedU = (1 - Math.abs(v)) * sign(u);
+            float foldedV = (1 - Math.abs(u)) * sign(v);
+            u = foldedU;
+            v = foldedV;
+        }
+        int col = Math.min((int) ((u * 0.5f + 0.5f) * gridSize), gridSize - 1);
+        int row = Math.min((int) ((v * 0.5f + 0.5f) * gridSize), gridSize - 1);
+        return row * gridSize + col;
+    }
+
+    /**
+     * Gets the view direction of the centre of a cell.
+     *
+     * @param col Column of the cell
+     * @param row Row of the cell
+     * @param dir Normalized direction from the item to the viewer
+     * @return The direction
+     */
+    public Vector3f getCellDirection(int col, int row, Vector3f dir) {
+        float u = (col + 0.5f) / gridSize * 2 - 1;
+        float v = (row + 0.5f) / gridSize * 2 - 1;
+        float y = 1 - Math.abs(u) - Math.abs(v);
+        float x = u;
+        float z = v;
+        if (y < 0) {
+            x = (1 - Math.abs(v)) * sign(u);
+            z = (1 - Math.abs(u)) * sign(v);
+        }
+        return dir.set(x, y, z).normalize();
+    }
+
+    private static float sign(float value) {
+        return value >= 0 ? 1.0f : -1.0f;
+    }
+
+    public void generateMipmaps() {
+        glBindTexture(GL_TEXTURE_2D, colourTexture.getId());
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, normalTexture.getId());
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    public void cleanup() {
+        glDeleteFramebuffers(fboId);
+        glDeleteRenderbuffers(depthBufferId);
+        colourTexture.cleanup();
+        normalTexture.cleanup();
+    }
+}
@@ -0,0 +1,297 @@
+package org.lwjglb.engine.graph.impostor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+import org.lwjglb.engine.Utils;
+import org.lwjglb.engine.graph.Camera;
+import org.lwjglb.engine.graph.FrameUniforms;
+import org.lwjglb.engine.graph.InstancedMesh;
+import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.ShaderProgram;
+import org.lwjglb.engine.graph.Transformation;
+import org.lwjglb.engine.graph.anim.AnimGameItem;
+import org.lwjglb.engine.graph.uniforms.IntUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4Uniform;
+import org.lwjglb.engine.graph.uniforms.Vec4Uniform;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Replaces static items further than a distance with camera facing
+ * impostors. The first time a set of meshes needs an impostor, it is rendered
+ * into an atlas from a grid of directions. All the impostors of a set of
+ * meshes are then drawn with a single instanced billboard draw.
+ */
+public class ImpostorRenderer {
+
+    public static final float DEFAULT_DISTANCE = 200.0f;
+
+    public static final int DEFAULT_GRID_SIZE = 8;
+
+    public static final int DEFAULT_CELL_SIZE = 128;
+
+    private static final int INSTANCES_PER_DRAW = 1024;
+
+    private final Map<List<Mesh>, Impostor> impostors;
+
+    private final Set<GameItem> impostorItems;
+
+    private final Matrix4f bakeProjectionMatrix;
+
+    private final Matrix4f bakeViewMatrix;
+
+    private final Vector3f bakeDir;
+
+    private final Vector3f bakeUp;
+
+    private ShaderProgram bakeShaderProgram;
+
+    private Mat4Uniform bakeProjection;
+
+    private Mat4Uniform bakeView;
+
+    private Vec4Uniform bakeDiffuseColour;
+
+    private IntUniform bakeHasTexture;
+
+    private IntUniform bakeTextureSampler;
+
+    private ShaderProgram impostorShaderProgram;
+
+    private IntUniform impostorTextureSampler;
+
+    private IntUniform impostorNormalMap;
+
+    private IntUniform impostorNumCols;
+
+    private IntUniform impostorNumRows;
+
+    private float distance;
+
+    private int gridSize;
+
+    private int cellSize;
+
+    public ImpostorRenderer() {
+        impostors = new HashMap<>();
+        impostorItems = Collections.newSetFromMap(new IdentityHashMap<>());
+        bakeProjectionMatrix = new Matrix4f();
+        bakeViewMatrix = new Matrix4f();
+        bakeDir = new Vector3f();
+        bakeUp = new Vector3f();
+        distance = DEFAULT_DISTANCE;
+        gridSize = DEFAULT_GRID_SIZE;
+        cellSize = DEFAULT_CELL_SIZE;
+    }
+
+    public void init() throws Exception {
+        bakeShaderProgram = new ShaderProgram();
+        bakeShaderProgram.createVertexShader(Utils.loadResource("/shaders/impostor_bake_vertex.vs"));
+        bakeShaderProgram.createFragmentShader(Utils.loadResource("/shaders/impostor_bake_fragment.fs"));
+        bakeShaderProgram.link();
+        bakeProjection = bakeShaderProgram.createMat4Uniform("projectionMatrix");
+        bakeView = bakeShaderProgram.createMat4Uniform("viewMatrix");
+        bakeDiffuseColour = bakeShaderProgram.createVec4Uniform("diffuseColour");
+        bakeHasTexture = bakeShaderProgram.createIntUniform("hasTexture");
+        bakeTextureSampler = bakeShaderProgram.createIntUniform("texture_sampler");
+
+        impostorShaderProgram = new ShaderProgram();
+        impostorShaderProgram.createVertexShader(Utils.loadResource("/shaders/impostor_vertex.vs"));
+        impostorShaderProgram.createFragmentShader(Utils.loadResource("/shaders/impostor_fragment.fs"));
+        impostorShaderProgram.link();
+        impostorShaderProgram.createUniformBlock(FrameUniforms.MATRICES_BLOCK, FrameUniforms.MATRICES_BINDING);
+        impostorShaderProgram.createUniformBlock(FrameUniforms.LIGHTS_BLOCK, FrameUniforms.LIGHTS_BINDING);
+        impostorTextureSampler = impostorShaderProgram.createIntUniform("texture_sampler");
+        impostorNormalMap = impostorShaderProgram.createIntUniform("normalMap");
+        impostorNumCols = impostorShaderProgram.createIntUniform("numCols");
+        impostorNumRows = impostorShaderProgram.createIntUniform("numRows");
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    /**
+     * Sets the distance from which static items are drawn as impostors.
+     * Float.POSITIVE_INFINITY disables them.
+     *
+     * @param distance Distance to the bounding sphere of the items
+     */
+    public void setDistance(float distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * Sets the resolution of the atlases created from now on.
+     *
+     * @param gridSize Number of views along each side of the atlas
+     * @param cellSize Size, in pixels, of each view
+     */
+    public void setAtlasSize(int gridSize, int cellSize) {
+        this.gridSize = gridSize;
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Moves the distant static items out of the lists of visible items, and
+     * queues their impostors instead. Missing atlases are baked, so it must
+     * be called before the view port of the frame is set up.
+     *
+     * @param camera The camera
+     * @param visibleMeshes Visible items grouped by mesh
+     */
+    public void update(Camera camera, Map<Mesh, List<GameItem>> visibleMeshes) {
+        for (Impostor impostor : impostors.values()) {
+            if (impostor != null) {
+                impostor.clearProxies();
+            }
+        }
+        impostorItems.clear();
+        if (distance == Float.POSITIVE_INFINITY) {
+            return;
+        }
+
+        Vector3f cameraPosition = camera.getPosition();
+        for (List<GameItem> gameItems : visibleMeshes.values()) {
+            for (GameItem gameItem : gameItems) {
+                if (!gameItem.isStatic() || gameItem instanceof AnimGameItem || impostorItems.contains(gameItem)) {
+                    continue;
+                }
+                float itemDistance = cameraPosition.distance(gameItem.getBoundingCenter()) - gameItem.getBoundingRadius();
+                if (itemDistance < distance) {
+                    continue;
+                }
+                Impostor impostor = getImpostor(gameItem.getMeshes());
+                if (impostor != null) {
+                    impostor.addProxy(gameItem, cameraPosition);
+                    impostorItems.add(gameItem);
+                }
+            }
+        }
+        if (!impostorItems.isEmpty()) {
+            for (List<GameItem> gameItems : visibleMeshes.values()) {
+                gameItems.removeIf(impostorItems::contains);
+            }
+        }
+    }
+
+    public void render(Transformation transformation, Matrix4f viewMatrix) {
+        if (impostorItems.isEmpty()) {
+            return;
+        }
+        impostorShaderProgram.bind();
+        impostorTextureSampler.set(0);
+        impostorNormalMap.set(1);
+        for (Impostor impostor : impostors.values()) {
+            List<GameItem> proxies = impostor != null ? impostor.getProxies() : null;
+            if (proxies == null || proxies.isEmpty()) {
+                continue;
+            }
+            impostorNumCols.set(impostor.getAtlas().getGridSize());
+            impostorNumRows.set(impostor.getAtlas().getGridSize());
+            impostor.getMesh().renderListInstanced(proxies, true, transformation, viewMatrix);
+        }
+        impostorShaderProgram.unbind();
+    }
+
+    private Impostor getImpostor(Mesh[] meshes) {
+        List<Mesh> key = Arrays.asList(meshes);
+        Impostor impostor = impostors.get(key);
+        if (impostor == null && !impostors.containsKey(key)) {
+            try {
+                impostor = createImpostor(meshes);
+            } catch (Exception excp) {
+                // Without render targets there cannot be any impostor, keep drawing the full meshes
+                excp.printStackTrace();
+                distance = Float.POSITIVE_INFINITY;
+            }
+            // Meshes that cannot have an impostor are remembered too
+            impostors.put(key, impostor);
+        }
+        return impostor;
+    }
+
+    private Impostor createImpostor(Mesh[] meshes) throws Exception {
+        float radius = 0;
+        for (Mesh mesh : meshes) {
+            if (mesh instanceof InstancedMesh) {
+                return null;
+            }
+            // Impostors are baked around the origin of the mesh, not the center of its bounds
+            radius = Math.max(radius, mesh.getBoundingCenter().length() + mesh.getBoundingRadius());
+        }
+        if (radius == 0) {
+            return null;
+        }
+
+        ImpostorAtlas atlas = new ImpostorAtlas(gridSize, cellSize);
+        bake(atlas, meshes, radius);
+        return new Impostor(atlas, radius, INSTANCES_PER_DRAW);
+    }
+
+    private void bake(ImpostorAtlas atlas, Mesh[] meshes, float radius) {
+        glBindFramebuffer(GL_FRAMEBUFFER, atlas.getFboId());
+        glClearBufferfv(GL_COLOR, 0, new float[]{0, 0, 0, 0});
+        glClearBufferfv(GL_COLOR, 1, new float[]{0.5f, 0.5f, 1, 0});
+        glClearBufferfv(GL_DEPTH, 0, new float[]{1});
+
+        bakeShaderProgram.bind();
+        bakeTextureSampler.set(0);
+        bakeProjectionMatrix.setOrtho(-radius, radius, -radius, radius, 0, 4 * radius);
+        bakeProjection.set(bakeProjectionMatrix);
+
+        int grid = atlas.getGridSize();
+        int size = atlas.getCellSize();
+        for (int row = 0; row < grid; row++) {
+            for (int col = 0; col < grid; col++) {
+                atlas.getCellDirection(col, row, bakeDir);
+                // Looking straight up or down the up vector must change
+                if (Math.abs(bakeDir.y) > 0.99f) {
+                    bakeUp.set(0, 0, -Math.signum(bakeDir.y));
+                } else {
+                    bakeUp.set(0, 1, 0);
+                }
+                bakeViewMatrix.setLookAt(bakeDir.x * 2 * radius, bakeDir.y * 2 * radius, bakeDir.z * 2 * radius,
+                        0, 0, 0, bakeUp.x, bakeUp.y, bakeUp.z);
+                bakeView.set(bakeViewMatrix);
+                glViewport(col * size, row * size, size, size);
+                for (Mesh mesh : meshes) {
+                    bakeDiffuseColour.set(mesh.getMaterial().getDiffuseColour());
+                    bakeHasTexture.set(mesh.getMaterial().isTextured());
+                    mesh.bindTextures();
+                    mesh.bindVertexArray();
+                    mesh.draw();
+                    mesh.unbindVertexArray();
+                }
+            }
+        }
+
+        bakeShaderProgram.unbind();
+        glBindTexture(GL_TEXTURE_2D, 0);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        atlas.generateMipmaps();
+    }
+
+    public void cleanup() {
+        for (Impostor impostor : impostors.values()) {
+            if (impostor != null) {
+                impostor.cleanup();
+            }
+        }
+        impostors.clear();
+        if (bakeShaderProgram != null) {
+            bakeShaderProgram.cleanup();
+        }
+        if (impostorShaderProgram != null) {
+            impostorShaderProgram.cleanup();
+        }
+    }
+}
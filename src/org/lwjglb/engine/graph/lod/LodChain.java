@@ -0,0 +1,31 @@
+package org.lwjglb.engine.graph.lod;
+
+/**
+ * The simplified levels of a mesh, from the most to the least detailed. The
+ * full resolution mesh is not included. Each level is a list of triangles
+ * over the vertices of the original mesh, together with its error: the
+ * largest distance, in mesh units, to the original surface.
+ */
+public class LodChain {
+
+    private final int[][] levels;
+
+    private final float[] errors;
+
+    public LodChain(int[][] levels, float[] errors) {
+        this.levels = levels;
+        this.errors = errors;
+    }
+
+    public int getNumLevels() {
+        return levels.length;
+    }
+
+    public int[] getIndices(int level) {
+        return levels[level];
+    }
+
+    public float getError(int level) {
+        return errors[level];
+    }
+}
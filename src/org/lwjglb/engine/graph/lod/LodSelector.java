@@ -0,0 +1,93 @@
+package org.lwjglb.engine.graph.lod;
+
+import org.joml.Vector3f;
+import org.lwjglb.engine.EWindow;
+import org.lwjglb.engine.graph.Camera;
+import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Picks the level of detail of the meshes of an item from the size, in
+ * pixels, its errors would have on screen: the coarsest level whose error
+ * stays under a pixel threshold is used.
+ *
+ * The projected scale of each item is kept between frames and only updated
+ * when it drifts away more than the hysteresis fraction, so items near the
+ * distance where two levels meet do not switch back and forth.
+ */
+public class LodSelector {
+
+    public static final float DEFAULT_MAX_PIXEL_ERROR = 1.0f;
+
+    public static final float DEFAULT_HYSTERESIS = 0.15f;
+
+    private final Vector3f cameraPosition;
+
+    private float maxPixelError;
+
+    private float hysteresis;
+
+    /**
+     * Pixels covered by a unit length at unit distance.
+     */
+    private float pixelsPerUnit;
+
+    public LodSelector() {
+        cameraPosition = new Vector3f();
+        maxPixelError = DEFAULT_MAX_PIXEL_ERROR;
+        hysteresis = DEFAULT_HYSTERESIS;
+    }
+
+    public float getMaxPixelError() {
+        return maxPixelError;
+    }
+
+    public void setMaxPixelError(float maxPixelError) {
+        this.maxPixelError = maxPixelError;
+    }
+
+    public float getHysteresis() {
+        return hysteresis;
+    }
+
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    public void update(EWindow window, Camera camera) {
+        pixelsPerUnit = window.getHeight() / (2.0f * (float) Math.tan(EWindow.FOV / 2.0f));
+        cameraPosition.set(camera.getPosition());
+    }
+
+    public int selectLevel(GameItem gameItem, Mesh mesh) {
+        int numLods = mesh.getNumLods();
+        if (numLods == 1) {
+            return 0;
+        }
+        float lodScale = updateLodScale(gameItem);
+        for (int level = numLods - 1; level > 0; level--) {
+            if (mesh.getLodError(level) * lodScale <= maxPixelError) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the pixels covered by a unit length of mesh space at the distance
+     * of the item, updating the value kept in the item if it is outside the
+     * hysteresis band.
+     */
+    private float updateLodScale(GameItem gameItem) {
+        float radius = gameItem.getBoundingRadius();
+        float distance = Math.max(cameraPosition.distance(gameItem.getBoundingCenter()) - radius, EWindow.Z_NEAR);
+        float lodScale = pixelsPerUnit * gameItem.getWorldScale() / distance;
+        float lastLodScale = gameItem.getLodScale();
+        if (lastLodScale > 0 && lodScale >= lastLodScale * (1 - hysteresis)
+                && lodScale <= lastLodScale * (1 + hysteresis)) {
+            return lastLodScale;
+        }
+        gameItem.setLodScale(lodScale);
+        return lodScale;
+    }
+}
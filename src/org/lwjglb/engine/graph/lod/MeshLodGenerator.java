@@ -0,0 +1,187 @@
+package org.lwjglb.engine.graph.lod;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.Mesh;
+
+/**
+ * Builds the levels of detail of meshes at import time. Each level keeps a
+ * fraction of the triangles of the previous one. When a cache directory is
+ * set, the levels are stored there and loaded back the next time the same
+ * geometry is imported with the same settings.
+ */
+public class MeshLodGenerator {
+
+    public static final int DEFAULT_NUM_LEVELS = 4;
+
+    public static final float DEFAULT_REDUCTION = 0.5f;
+
+    /**
+     * Meshes with fewer triangles are not simplified.
+     */
+    private static final int MIN_TRIANGLES = 64;
+
+    /**
+     * A level is only kept if it removes at least this fraction of the
+     * triangles of the previous one.
+     */
+    private static final float MIN_LEVEL_REDUCTION = 0.1f;
+
+    /**
+     * Changed whenever the levels generated for the same settings change.
+     */
+    private static final int CACHE_MAGIC = 0x4C4F4432;
+
+    private final int numLevels;
+
+    private final float reduction;
+
+    private final File cacheDir;
+
+    private float maxError;
+
+    public MeshLodGenerator() {
+        this(DEFAULT_NUM_LEVELS, DEFAULT_REDUCTION, null);
+    }
+
+    /**
+     * @param numLevels Maximum number of simplified levels
+     * @param reduction Fraction of the triangles of a level kept by the next
+     * one
+     * @param cacheDir Directory where the levels are cached, or null to
+     * always generate them
+     */
+    public MeshLodGenerator(int numLevels, float reduction, String cacheDir) {
+        this.numLevels = numLevels;
+        this.reduction = reduction;
+        this.cacheDir = cacheDir != null ? new File(cacheDir) : null;
+        this.maxError = Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Limits the error of the levels, relative to the radius of the mesh.
+     * Simplification stops when it cannot go further without exceeding it.
+     *
+     * @param maxError Maximum error as a fraction of the mesh radius
+     */
+    public void setMaxError(float maxError) {
+        this.maxError = maxError;
+    }
+
+    public LodChain generate(float[] positions, int[] indices) throws IOException {
+        File cacheFile = null;
+        if (cacheDir != null) {
+            cacheFile = new File(cacheDir, cacheKey(positions, indices) + ".lod");
+            LodChain chain = readCache(cacheFile);
+            if (chain != null) {
+                return chain;
+            }
+        }
+
+        LodChain chain = simplify(positions, indices);
+        if (cacheFile != null) {
+            writeCache(cacheFile, chain);
+        }
+        return chain;
+    }
+
+    private LodChain simplify(float[] positions, int[] indices) {
+        List<int[]> levels = new ArrayList<>();
+        List<Float> errors = new ArrayList<>();
+        int numTriangles = indices.length / 3;
+        if (numTriangles >= MIN_TRIANGLES) {
+            // The error is relative to the bounding sphere, wherever the mesh is centered
+            float radius = Mesh.calculateBounds(positions, new Vector3f(), new Vector3f(), new Vector3f());
+            MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+            int previous = simplifier.getNumTriangles();
+            for (int i = 0; i < numLevels && previous >= MIN_TRIANGLES; i++) {
+                float error = simplifier.simplify((int) (previous * reduction), maxError * radius);
+                int current = simplifier.getNumTriangles();
+                if (current > previous * (1 - MIN_LEVEL_REDUCTION)) {
+                    break;
+                }
+                levels.add(simplifier.getIndices());
+                errors.add(error);
+                previous = current;
+            }
+        }
+        float[] errorsArr = new float[errors.size()];
+        for (int i = 0; i < errorsArr.length; i++) {
+            errorsArr[i] = errors.get(i);
+        }
+        return new LodChain(levels.toArray(new int[levels.size()][]), errorsArr);
+    }
+
+    private String cacheKey(float[] positions, int[] indices) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Math.max(positions.length, indices.length));
+        for (float pos : positions) {
+            buffer.putFloat(pos);
+        }
+        buffer.flip();
+        crc.update(buffer);
+        buffer.clear();
+        for (int index : indices) {
+            buffer.putInt(index);
+        }
+        buffer.flip();
+        crc.update(buffer);
+        return String.format("%08x_%d_%d_%d_%08x", crc.getValue(), indices.length, numLevels,
+                Float.floatToIntBits(reduction), Float.floatToIntBits(maxError));
+    }
+
+    private static LodChain readCache(File cacheFile) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_MAGIC) {
+                return null;
+            }
+            int numLevels = in.readInt();
+            int[][] levels = new int[numLevels][];
+            float[] errors = new float[numLevels];
+            for (int i = 0; i < numLevels; i++) {
+                errors[i] = in.readFloat();
+                levels[i] = new int[in.readInt()];
+                for (int j = 0; j < levels[i].length; j++) {
+                    levels[i][j] = in.readInt();
+                }
+            }
+            return new LodChain(levels, errors);
+        } catch (IOException excp) {
+            // A damaged cache is just generated again
+            return null;
+        }
+    }
+
+    private static void writeCache(File cacheFile, LodChain chain) throws IOException {
+        File dir = cacheFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create LOD cache directory " + dir);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(chain.getNumLevels());
+            for (int i = 0; i < chain.getNumLevels(); i++) {
+                int[] indices = chain.getIndices(i);
+                out.writeFloat(chain.getError(i));
+                out.writeInt(indices.length);
+                for (int index : indices) {
+                    out.writeInt(index);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package org.lwjglb.engine.graph.lod;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the number of triangles of a mesh by collapsing edges, cheapest
+ * first, using quadric error metrics. Vertices are only ever moved onto one
+ * of their neighbours, so the simplified triangles index the original vertex
+ * data and every level of detail can share the vertex buffers of the mesh.
+ *
+ * Vertices on open borders are never moved. Since texture seams split
+ * vertices, this also keeps the seams, and the uv coordinates, intact.
+ *
+ * Calls to simplify can be chained, each one starting where the previous one
+ * left the mesh, to build successive levels of detail.
+ */
+public class MeshSimplifier {
+
+    private static final int QUADRIC_SIZE = 10;
+
+    /**
+     * Minimum cosine between the normal of a triangle before and after a
+     * collapse, to reject collapses that fold the surface.
+     */
+    private static final float MIN_NORMAL_COS = 0.2f;
+
+    private final float[] positions;
+
+    private final int[] triangles;
+
+    private final boolean[] removedTriangles;
+
+    private final double[] quadrics;
+
+    private final boolean[] locked;
+
+    private final boolean[] removedVertices;
+
+    private final int[] versions;
+
+    private final int[][] vertexTriangles;
+
+    private final int[] numVertexTriangles;
+
+    private final int[] marks;
+
+    private final PriorityQueue<Collapse> collapses;
+
+    private int numTriangles;
+
+    private int mark;
+
+    private double maxCost;
+
+    public MeshSimplifier(float[] positions, int[] indices) {
+        this.positions = positions;
+        int numVertices = positions.length / 3;
+        triangles = Arrays.copyOf(indices, indices.length);
+        int numInputTriangles = indices.length / 3;
+        removedTriangles = new boolean[numInputTriangles];
+        quadrics = new double[numVertices * QUADRIC_SIZE];
+        locked = new boolean[numVertices];
+        removedVertices = new boolean[numVertices];
+        versions = new int[numVertices];
+        vertexTriangles = new int[numVertices][];
+        numVertexTriangles = new int[numVertices];
+        marks = new int[numVertices];
+        collapses = new PriorityQueue<>();
+
+        // Edges used by a single triangle are open borders
+        Map<Long, Integer> edgeUses = new HashMap<>();
+        for (int t = 0; t < numInputTriangles; t++) {
+            int a = triangles[t * 3];
+            int b = triangles[t * 3 + 1];
+            int c = triangles[t * 3 + 2];
+            if (a == b || b == c || a == c) {
+                removedTriangles[t] = true;
+                continue;
+            }
+            numTriangles++;
+            addPlaneQuadric(a, b, c);
+            addVertexTriangle(a, t);
+            addVertexTriangle(b, t);
+            addVertexTriangle(c, t);
+            edgeUses.merge(edgeKey(a, b), 1, Integer::sum);
+            edgeUses.merge(edgeKey(b, c), 1, Integer::sum);
+            edgeUses.merge(edgeKey(c, a), 1, Integer::sum);
+        }
+        for (Map.Entry<Long, Integer> entry : edgeUses.entrySet()) {
+            if (entry.getValue() == 1) {
+                long key = entry.getKey();
+                locked[(int) (key >>> 32)] = true;
+                locked[(int) key] = true;
+            }
+        }
+        for (int t = 0; t < numInputTriangles; t++) {
+            if (!removedTriangles[t]) {
+                for (int i = 0; i < 3; i++) {
+                    pushCollapse(triangles[t * 3 + i], triangles[t * 3 + (i + 1) % 3]);
+                }
+            }
+        }
+    }
+
+    public int getNumTriangles() {
+        return numTriangles;
+    }
+
+    /**
+     * Collapses edges until the mesh has no more than the given number of
+     * triangles, or no collapse can be made without exceeding the maximum
+     * error.
+     *
+     * @param targetTriangles Number of triangles to reach
+     * @param maxError Maximum distance, in mesh units, a collapse may move
+     * the surface
+     * @return The error of the simplified mesh, an estimate of the largest
+     * distance to the original surface
+     */
+    public float simplify(int targetTriangles, float maxError) {
+        double maxAllowedCost = (double) maxError * maxError;
+        while (numTriangles > targetTriangles && !collapses.isEmpty()) {
+            Collapse collapse = collapses.poll();
+            if (collapse.cost > maxAllowedCost) {
+                collapses.add(collapse);
+                break;
+            }
+            int from = collapse.from;
+            int to = collapse.to;
+            if (removedVertices[from] || removedVertices[to] || versions[from] != collapse.fromVersion
+                    || versions[to] != collapse.toVersion) {
+                continue;
+            }
+            if (!canCollapse(from, to)) {
+                continue;
+            }
+            collapse(from, to);
+            maxCost = Math.max(maxCost, collapse.cost);
+        }
+        return (float) Math.sqrt(maxCost);
+    }
+
+    /**
+     * Gets the indices of the triangles left.
+     *
+     * @return The indices
+     */
+    public int[] getIndices() {
+        int[] result = new int[numTriangles * 3];
+        int pos = 0;
+        for (int t = 0; t < removedTriangles.length; t++) {
+            if (!removedTriangles[t]) {
+                result[pos++] = triangles[t * 3];
+                result[pos++] = triangles[t * 3 + 1];
+                result[pos++] = triangles[t * 3 + 2];
+            }
+        }
+        return result;
+    }
+
+    private void collapse(int from, int to) {
+        int count = numVertexTriangles[from];
+        int[] fromTriangles = vertexTriangles[from];
+        for (int i = 0; i < count; i++) {
+            int t = fromTriangles[i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            int offset = t * 3;
+            if (triangles[offset] == to || triangles[offset + 1] == to || triangles[offset + 2] == to) {
+                removedTriangles[t] = true;
+                numTriangles--;
+            } else {
+                for (int j = 0; j < 3; j++) {
+                    if (triangles[offset + j] == from) {
+                        triangles[offset + j] = to;
+                    }
+                }
+                addVertexTriangle(to, t);
+            }
+        }
+        removedVertices[from] = true;
+        numVertexTriangles[from] = 0;
+        vertexTriangles[from] = null;
+        for (int i = 0; i < QUADRIC_SIZE; i++) {
+            quadrics[to * QUADRIC_SIZE + i] += quadrics[from * QUADRIC_SIZE + i];
+        }
+        versions[to]++;
+        compactVertexTriangles(to);
+
+        // The quadric of the target has changed, so the cost of all its edges too
+        int[] toTriangles = vertexTriangles[to];
+        for (int i = 0; i < numVertexTriangles[to]; i++) {
+            int offset = toTriangles[i] * 3;
+            for (int j = 0; j < 3; j++) {
+                int other = triangles[offset + j];
+                if (other != to) {
+                    pushCollapse(to, other);
+                }
+            }
+        }
+    }
+
+    private boolean canCollapse(int from, int to) {
+        // Link condition: the only neighbours shared by both ends must be the ones of the triangles on the edge
+        mark++;
+        int sharedTriangles = 0;
+        int count = numVertexTriangles[from];
+        int[] fromTriangles = vertexTriangles[from];
+        for (int i = 0; i < count; i++) {
+            int t = fromTriangles[i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            int offset = t * 3;
+            boolean shared = false;
+            for (int j = 0; j < 3; j++) {
+                int v = triangles[offset + j];
+                marks[v] = mark;
+                shared |= v == to;
+            }
+            if (shared) {
+                sharedTriangles++;
+            } else if (flips(offset, from, to)) {
+                return false;
+            }
+        }
+        int sharedNeighbours = 0;
+        mark++;
+        int toCount = numVertexTriangles[to];
+        int[] toTriangles = vertexTriangles[to];
+        for (int i = 0; i < toCount; i++) {
+            int t = toTriangles[i];
+            if (removedTriangles[t]) {
+                continue;
+            }
+            int offset = t * 3;
+            for (int j = 0; j < 3; j++) {
+                int v = triangles[offset + j];
+                if (v != from && v != to && marks[v] == mark - 1) {
+                    sharedNeighbours++;
+                    // Counted once
+                    marks[v] = mark;
+                }
+            }
+        }
+        return sharedNeighbours == sharedTriangles;
+    }
+
+    private boolean flips(int offset, int from, int to) {
+        int a = triangles[offset];
+        int b = triangles[offset + 1];
+        int c = triangles[offset + 2];
+        float[] before = normal(a, b, c);
+        float[] after = normal(a == from ? to : a, b == from ? to : b, c == from ? to : c);
+        float lengthBefore = length(before);
+        float lengthAfter = length(after);
+        if (lengthAfter == 0 || lengthBefore == 0) {
+            return true;
+        }
+        float cos = (before[0] * after[0] + before[1] * after[1] + before[2] * after[2]) / (lengthBefore * lengthAfter);
+        return cos < MIN_NORMAL_COS;
+    }
+
+    private void pushCollapse(int a, int b) {
+        if (!locked[a]) {
+            collapses.add(new Collapse(a, b, cost(a, b), versions[a], versions[b]));
+        }
+        if (!locked[b]) {
+            collapses.add(new Collapse(b, a, cost(b, a), versions[b], versions[a]));
+        }
+    }
+
+    /**
+     * Error of moving a vertex onto another: the sum of the squared distances
+     * from the target position to the planes of both quadrics.
+     */
+    private double cost(int from, int to) {
+        double x = positions[to * 3];
+        double y = positions[to * 3 + 1];
+        double z = positions[to * 3 + 2];
+        int qf = from * QUADRIC_SIZE;
+        int qt = to * QUADRIC_SIZE;
+        double[] q = quadrics;
+        double error = (q[qf] + q[qt]) * x * x + 2 * (q[qf + 1] + q[qt + 1]) * x * y
+                + 2 * (q[qf + 2] + q[qt + 2]) * x * z + 2 * (q[qf + 3] + q[qt + 3]) * x
+                + (q[qf + 4] + q[qt + 4]) * y * y + 2 * (q[qf + 5] + q[qt + 5]) * y * z
+                + 2 * (q[qf + 6] + q[qt + 6]) * y + (q[qf + 7] + q[qt + 7]) * z * z
+                + 2 * (q[qf + 8] + q[qt + 8]) * z + (q[qf + 9] + q[qt + 9]);
+        return Math.max(error, 0);
+    }
+
+    private void addPlaneQuadric(int a, int b, int c) {
+        float[] n = normal(a, b, c);
+        float length = length(n);
+        if (length == 0) {
+            return;
+        }
+        double nx = n[0] / length;
+        double ny = n[1] / length;
+        double nz = n[2] / length;
+        double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2]);
+        double[] plane = {nx * nx, nx * ny, nx * nz, nx * d, ny * ny, ny * nz, ny * d, nz * nz, nz * d, d * d};
+        for (int v : new int[]{a, b, c}) {
+            for (int i = 0; i < QUADRIC_SIZE; i++) {
+                quadrics[v * QUADRIC_SIZE + i] += plane[i];
+            }
+        }
+    }
+
+    private float[] normal(int a, int b, int c) {
+        float e1x = positions[b * 3] - positions[a * 3];
+        float e1y = positions[b * 3 + 1] - positions[a * 3 + 1];
+        float e1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+        float e2x = positions[c * 3] - positions[a * 3];
+        float e2y = positions[c * 3 + 1] - positions[a * 3 + 1];
+        float e2z = positions[c * 3 + 2] - positions[a * 3 + 2];
+        return new float[]{e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+    }
+
+    private static float length(float[] v) {
+        return (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    private void addVertexTriangle(int vertex, int triangle) {
+        int[] list = vertexTriangles[vertex];
+        int count = numVertexTriangles[vertex];
+        if (list == null) {
+            list = new int[8];
+        } else if (count == list.length) {
+            list = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = triangle;
+        vertexTriangles[vertex] = list;
+        numVertexTriangles[vertex] = count + 1;
+    }
+
+    private void compactVertexTriangles(int vertex) {
+        int[] list = vertexTriangles[vertex];
+        int count = numVertexTriangles[vertex];
+        int newCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!removedTriangles[list[i]]) {
+                list[newCount++] = list[i];
+            }
+        }
+        numVertexTriangles[vertex] = newCount;
+    }
+
+    private static long edgeKey(int a, int b) {
+        int min = Math.min(a, b);
+        int max = Math.max(a, b);
+        return ((long) min << 32) | (max & 0xFFFFFFFFL);
+    }
+
+    private static class Collapse implements Comparable<Collapse> {
+
+        private final int from;
+
+        private final int to;
+
+        private final double cost;
+
+        private final int fromVersion;
+
+        private final int toVersion;
+
+        Collapse(int from, int to, double cost, int fromVersion, int toVersion) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+}
@@ -21,13 +21,25 @@ public class Particle extends GameItem {
     private int animFrames;
     
     public Particle(Mesh mesh, Vector3f speed, long ttl, long updateTextureMillis) {
+        this(mesh, speed, ttl, updateTextureMillis, getAnimFrames(mesh));
+    }
+
+    /**
+     * @param animFrames Number of frames of the texture animation, instead of
+     * the ones in the texture of the mesh
+     */
+    public Particle(Mesh mesh, Vector3f speed, long ttl, long updateTextureMillis, int animFrames) {
         super(mesh);
         this.speed = new Vector3f(speed);
         this.ttl = ttl;
         this.updateTextureMillis = updateTextureMillis;
         this.currentAnimTimeMillis = 0;
-        Texture texture = this.getMesh().getMaterial().getTexture();
-        this.animFrames = texture.getNumCols() * texture.getNumRows();
+        this.animFrames = animFrames;
+    }
+
+    private static int getAnimFrames(Mesh mesh) {
+        Texture texture = mesh.getMaterial().getTexture();
+        return texture.getNumCols() * texture.getNumRows();
     }
 
     public Particle(Particle baseParticle) {
@@ -0,0 +1,247 @@
+package org.lwjglb.engine.graph.profiler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Measures the passes of each frame on the CPU and on the GPU. CPU times
+ * come from System.nanoTime, GPU times from GL_TIME_ELAPSED queries that are
+ * read back QUERY_FRAMES later so that the CPU never waits for them. The
+ * timings of a frame are stored in the ring once its queries are read.
+ * Passes cannot overlap: GL only allows one time query at a time.
+ */
+public class FrameProfiler {
+
+    public enum Pass {
+        CULLING,
+        SHADOWS,
+        SCENE,
+        SCENE_INSTANCED,
+        IMPOSTORS,
+        SKYBOX,
+        PARTICLES,
+        HUD
+    }
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * Frames in flight before the queries of a frame are read.
+     */
+    private static final int QUERY_FRAMES = 4;
+
+    private static final int NUM_PASSES = Pass.values().length;
+
+    private final ProfilerRing ring;
+
+    private final FrameTimings[] pending;
+
+    private final long[] cpuStart;
+
+    private int[][] queries;
+
+    private final boolean[][] issued;
+
+    private boolean gpuTimers;
+
+    private boolean enabled;
+
+    /**
+     * Number of the current frame, -1 before the first one.
+     */
+    private long frame;
+
+    private int slot;
+
+    public FrameProfiler() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FrameProfiler(int capacity) {
+        ring = new ProfilerRing(capacity);
+        pending = new FrameTimings[QUERY_FRAMES];
+        for (int i = 0; i < QUERY_FRAMES; i++) {
+            pending[i] = new FrameTimings();
+        }
+        cpuStart = new long[NUM_PASSES];
+        issued = new boolean[QUERY_FRAMES][NUM_PASSES];
+        enabled = true;
+        frame = -1;
+    }
+
+    public void init() {
+        GLCapabilities caps = GL.getCapabilities();
+        gpuTimers = caps.OpenGL33 || caps.GL_ARB_timer_query;
+        if (gpuTimers) {
+            queries = new int[QUERY_FRAMES][NUM_PASSES];
+            for (int[] frameQueries : queries) {
+                glGenQueries(frameQueries);
+            }
+        }
+    }
+
+    public ProfilerRing getRing() {
+        return ring;
+    }
+
+    public boolean isGpuTimers() {
+        return gpuTimers;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Frames that have not been stored yet are dropped when disabling.
+     *
+     * @param enabled If passes are measured
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            frame = -1;
+        }
+    }
+
+    /**
+     * Starts a new frame. The oldest frame in flight is stored in the ring.
+     */
+    public void beginFrame() {
+        if (!enabled) {
+            return;
+        }
+        frame++;
+        slot = (int) (frame % QUERY_FRAMES);
+        if (frame >= QUERY_FRAMES) {
+            store(slot);
+        }
+        FrameTimings timings = pending[slot];
+        timings.setFrame(frame, System.nanoTime());
+        Arrays.fill(timings.getCpuStarts(), 0);
+        Arrays.fill(timings.getCpuTimes(), -1);
+        Arrays.fill(timings.getGpuTimes(), -1);
+        Arrays.fill(issued[slot], false);
+    }
+
+    public void begin(Pass pass) {
+        if (!enabled || frame < 0) {
+            return;
+        }
+        int i = pass.ordinal();
+        cpuStart[i] = System.nanoTime();
+        if (gpuTimers) {
+            glBeginQuery(GL_TIME_ELAPSED, queries[slot][i]);
+            issued[slot][i] = true;
+        }
+    }
+
+    public void end(Pass pass) {
+        if (!enabled || frame < 0) {
+            return;
+        }
+        int i = pass.ordinal();
+        long now = System.nanoTime();
+        FrameTimings timings = pending[slot];
+        timings.getCpuStarts()[i] = cpuStart[i];
+        timings.getCpuTimes()[i] = now - cpuStart[i];
+        if (gpuTimers && issued[slot][i]) {
+            glEndQuery(GL_TIME_ELAPSED);
+        }
+    }
+
+    private void store(int storeSlot) {
+        FrameTimings timings = pending[storeSlot];
+        if (gpuTimers) {
+            long[] gpuTime = timings.getGpuTimes();
+            for (int i = 0; i < NUM_PASSES; i++) {
+                int query = queries[storeSlot][i];
+                // Results that are still not ready are dropped rather than stalling the pipeline
+                if (issued[storeSlot][i] && glGetQueryObjecti(query, GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+                    gpuTime[i] = glGetQueryObjectui64(query, GL_QUERY_RESULT);
+                }
+            }
+        }
+        ring.write(timings);
+    }
+
+    /**
+     * Gets the latest stored frame, it can be called from any thread.
+     *
+     * @param dest Where the timings are stored
+     * @return False if no frame has been stored yet
+     */
+    public boolean getLatest(FrameTimings dest) {
+        return ring.readLatest(dest);
+    }
+
+    /**
+     * Writes the frames in the ring as a trace that can be loaded in
+     * chrome://tracing. CPU and GPU times are shown as two threads, GPU
+     * passes are placed where their CPU pass started since only their
+     * durations are known. It can be called from any thread.
+     *
+     * @param path Path of the file
+     * @throws IOException If the file cannot be written
+     */
+    public void writeChromeTrace(String path) throws IOException {
+        FrameTimings timings = new FrameTimings();
+        long last = ring.getNumWritten();
+        long first = Math.max(0, last - ring.getCapacity());
+        long origin = -1;
+        Pass[] passes = Pass.values();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))) {
+            out.println("{\"traceEvents\":[");
+            out.print("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"CPU\"}},");
+            out.print("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":2,\"args\":{\"name\":\"GPU\"}}");
+            for (long index = first; index < last; index++) {
+                if (!ring.read(index, timings)) {
+                    continue;
+                }
+                if (origin < 0) {
+                    origin = timings.getFrameStart();
+                }
+                for (Pass pass : passes) {
+                    long cpuTime = timings.getCpuTime(pass);
+                    if (cpuTime < 0) {
+                        continue;
+                    }
+                    double ts = (timings.getCpuStart(pass) - origin) / 1000.0;
+                    writeEvent(out, pass, timings.getFrame(), 1, ts, cpuTime / 1000.0);
+                    long gpuTime = timings.getGpuTime(pass);
+                    if (gpuTime >= 0) {
+                        writeEvent(out, pass, timings.getFrame(), 2, ts, gpuTime / 1000.0);
+                    }
+                }
+            }
+            out.println();
+            out.println("],\"displayTimeUnit\":\"ms\"}");
+        }
+    }
+
+    private static void writeEvent(PrintWriter out, Pass pass, long frame, int tid, double ts, double dur) {
+        out.print(String.format(Locale.ROOT,
+                ",%n{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f,\"args\":{\"frame\":%d}}",
+                pass.name(), tid == 1 ? "cpu" : "gpu", tid, ts, dur, frame));
+    }
+
+    public void cleanup() {
+        if (queries != null) {
+            for (int[] frameQueries : queries) {
+                glDeleteQueries(frameQueries);
+            }
+            queries = null;
+        }
+        gpuTimers = false;
+    }
+}
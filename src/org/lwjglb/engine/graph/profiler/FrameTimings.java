@@ -0,0 +1,77 @@
+package org.lwjglb.engine.graph.profiler;
+
+/**
+ * Timings of the passes of one frame. Times are in nanoseconds, passes that
+ * did not run have a duration of -1, and so do GPU times that could not be
+ * measured.
+ */
+public class FrameTimings {
+
+    private long frame;
+
+    private long frameStart;
+
+    private final long[] cpuStart;
+
+    private final long[] cpuTime;
+
+    private final long[] gpuTime;
+
+    public FrameTimings() {
+        int numPasses = FrameProfiler.Pass.values().length;
+        cpuStart = new long[numPasses];
+        cpuTime = new long[numPasses];
+        gpuTime = new long[numPasses];
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    void setFrame(long frame, long frameStart) {
+        this.frame = frame;
+        this.frameStart = frameStart;
+    }
+
+    /**
+     * @return Value of System.nanoTime when the frame started
+     */
+    public long getFrameStart() {
+        return frameStart;
+    }
+
+    long[] getCpuStarts() {
+        return cpuStart;
+    }
+
+    long[] getCpuTimes() {
+        return cpuTime;
+    }
+
+    long[] getGpuTimes() {
+        return gpuTime;
+    }
+
+    /**
+     * @param pass The pass
+     * @return Value of System.nanoTime when the pass started
+     */
+    public long getCpuStart(FrameProfiler.Pass pass) {
+        return cpuStart[pass.ordinal()];
+    }
+
+    public long getCpuTime(FrameProfiler.Pass pass) {
+        return cpuTime[pass.ordinal()];
+    }
+
+    public long getGpuTime(FrameProfiler.Pass pass) {
+        return gpuTime[pass.ordinal()];
+    }
+
+    public void set(FrameTimings timings) {
+        setFrame(timings.frame, timings.frameStart);
+        System.arraycopy(timings.cpuStart, 0, cpuStart, 0, cpuStart.length);
+        System.arraycopy(timings.cpuTime, 0, cpuTime, 0, cpuTime.length);
+        System.arraycopy(timings.gpuTime, 0, gpuTime, 0, gpuTime.length);
+    }
+}
@@ -0,0 +1,115 @@
+package org.lwjglb.engine.graph.profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the timings of the last frames. It is written by the render thread
+ * only and can be read from any thread without locks: each slot carries a
+ * stamp that is cleared while the slot is written, readers retry or give up
+ * when the stamp changes under them.
+ */
+public class ProfilerRing {
+
+    private final int capacity;
+
+    private final int numPasses;
+
+    private final int stride;
+
+    private final AtomicLongArray data;
+
+    /**
+     * Number of the record stored in each slot plus one, 0 while being written.
+     */
+    private final AtomicLongArray stamps;
+
+    private final AtomicLong numWritten;
+
+    public ProfilerRing(int capacity) {
+        this.capacity = capacity;
+        numPasses = FrameProfiler.Pass.values().length;
+        stride = 2 + 3 * numPasses;
+        data = new AtomicLongArray(capacity * stride);
+        stamps = new AtomicLongArray(capacity);
+        numWritten = new AtomicLong();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of records written since the ring was created
+     */
+    public long getNumWritten() {
+        return numWritten.get();
+    }
+
+    public void write(FrameTimings timings) {
+        long index = numWritten.get();
+        int slot = (int) (index % capacity);
+        int base = slot * stride;
+        stamps.set(slot, 0);
+        data.set(base, timings.getFrame());
+        data.set(base + 1, timings.getFrameStart());
+        long[] cpuStart = timings.getCpuStarts();
+        long[] cpuTime = timings.getCpuTimes();
+        long[] gpuTime = timings.getGpuTimes();
+        for (int i = 0; i < numPasses; i++) {
+            data.set(base + 2 + i * 3, cpuStart[i]);
+            data.set(base + 3 + i * 3, cpuTime[i]);
+            data.set(base + 4 + i * 3, gpuTime[i]);
+        }
+        stamps.set(slot, index + 1);
+        numWritten.set(index + 1);
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param index Number of the record, from getNumWritten() - capacity
+     * to getNumWritten() - 1
+     * @param dest Where the timings are stored
+     * @return False if the record is not in the ring any more
+     */
+    public boolean read(long index, FrameTimings dest) {
+        if (index < 0 || index >= numWritten.get()) {
+            return false;
+        }
+        int slot = (int) (index % capacity);
+        int base = slot * stride;
+        if (stamps.get(slot) != index + 1) {
+            return false;
+        }
+        dest.setFrame(data.get(base), data.get(base + 1));
+        long[] cpuStart = dest.getCpuStarts();
+        long[] cpuTime = dest.getCpuTimes();
+        long[] gpuTime = dest.getGpuTimes();
+        for (int i = 0; i < numPasses; i++) {
+            cpuStart[i] = data.get(base + 2 + i * 3);
+            cpuTime[i] = data.get(base + 3 + i * 3);
+            gpuTime[i] = data.get(base + 4 + i * 3);
+        }
+        // Overwritten while it was being copied
+        return stamps.get(slot) == index + 1;
+    }
+
+    /**
+     * Reads the most recent record.
+     *
+     * @param dest Where the timings are stored
+     * @return False if nothing has been written yet
+     */
+    public boolean readLatest(FrameTimings dest) {
+        long index = numWritten.get() - 1;
+        // The writer can only overwrite the oldest records, a couple of tries are enough
+        for (int i = 0; i < 3 && index >= 0; i++) {
+            if (read(index, dest)) {
+                return true;
+            }
+            index = numWritten.get() - 1;
+        }
+        return false;
+    }
+}
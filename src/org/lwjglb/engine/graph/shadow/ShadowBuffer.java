@@ -1,9 +1,14 @@
 package org.lwjglb.engine.graph.shadow;
 
-import org.lwjglb.engine.graph.ArrTexture;
+import java.nio.ByteBuffer;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
 import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_FUNC;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.glFramebufferTexture;
 
 public class ShadowBuffer {
 
@@ -13,19 +18,32 @@ public class ShadowBuffer {
 
     private final int depthMapFBO;
 
-    private final ArrTexture depthMap;
+    /**
+     * Depth texture array with one layer per cascade.
+     */
+    private final int depthMap;
 
     public ShadowBuffer() throws Exception {
         // Create a FBO to render the depth map
         depthMapFBO = glGenFramebuffers();
 
-        // Create the depth map textures
-        depthMap = new ArrTexture(ShadowRenderer.NUM_CASCADES, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_COMPONENT);
+        // Create the depth map texture array, sampled with hardware depth comparison
+        depthMap = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D_ARRAY, depthMap);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT,
+                ShadowRenderer.NUM_CASCADES, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
 
-        // Attach the the depth map texture to the FBO
+        // Attach all the layers so the geometry shader can select the cascade
         glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthMap.getIds()[0], 0);
-        
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap, 0);
+
         // Set only depth
         glDrawBuffer(GL_NONE);
         glReadBuffer(GL_NONE);
@@ -38,7 +56,7 @@ public class ShadowBuffer {
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
     }
 
-    public ArrTexture getDepthMapTexture() {
+    public int getDepthMapTexture() {
         return depthMap;
     }
 
@@ -46,16 +64,34 @@ public class ShadowBuffer {
         return depthMapFBO;
     }
 
-    public void bindTextures(int start) {
+    /**
+     * Clears the depth of the cascades in the mask. The FBO must be bound.
+     *
+     * @param cascadeMask One bit per cascade to clear
+     */
+    public void clearLayers(int cascadeMask) {
+        int allCascades = (1 << ShadowRenderer.NUM_CASCADES) - 1;
+        if (cascadeMask == allCascades) {
+            // Clearing a layered attachment clears all the layers
+            glClear(GL_DEPTH_BUFFER_BIT);
+            return;
+        }
         for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            glActiveTexture(start + i);
-            glBindTexture(GL_TEXTURE_2D, depthMap.getIds()[i]);
+            if ((cascadeMask & (1 << i)) != 0) {
+                glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap, 0, i);
+                glClear(GL_DEPTH_BUFFER_BIT);
+            }
         }
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap, 0);
+    }
+
+    public void bindTextures(int start) {
+        glActiveTexture(start);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, depthMap);
     }
     
     public void cleanup() {
         glDeleteFramebuffers(depthMapFBO);
-        depthMap.cleanup();
+        glDeleteTextures(depthMap);
     }
-    
 }
@@ -1,22 +1,49 @@
 package org.lwjglb.engine.graph.shadow;
 
+import java.util.ArrayList;
+import java.util.List;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjglb.engine.EWindow;
+import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.graph.Transformation;
+import org.lwjglb.engine.graph.VisibilitySet;
+import org.lwjglb.engine.graph.anim.AnimGameItem;
 import org.lwjglb.engine.graph.lights.DirectionalLight;
+import org.lwjglb.engine.items.GameItem;
 
 public class ShadowCascade {
 
     private static final int FRUSTUM_CORNERS = 8;
 
+    /**
+     * How far the caster volume extends from the cascade towards the light.
+     * Casters in that range are clamped to the near plane when rendered.
+     */
+    private static final float CASTER_EXTENSION = EWindow.Z_FAR;
+
+    private static final float RADIUS_QUANTUM = 16.0f;
+
+    private static final long HASH_PRIME = 0x100000001B3L;
+
     private final Matrix4f projViewMatrix;
 
+    /**
+     * Matrices used to render the current contents of the depth map.
+     */
     private final Matrix4f orthoProjMatrix;
 
     private final Matrix4f lightViewMatrix;
 
+    /**
+     * Matrices calculated for this frame, committed when the cascade is rendered.
+     */
+    private final Matrix4f pendingOrthoProjMatrix;
+
+    private final Matrix4f pendingLightViewMatrix;
+
     /**
      * Center of the view cuboid un world space coordinates.
      */
@@ -29,7 +56,21 @@ public class ShadowCascade {
     private final float zFar;
 
     private final Vector4f tmpVec;
-    
+
+    private final Matrix4f casterMatrix;
+
+    private final FrustumIntersection casterVolume;
+
+    private final List<GameItem> casters;
+
+    private long casterHash;
+
+    private long renderedCasterHash;
+
+    private boolean rendered;
+
+    private int updateInterval;
+
     public ShadowCascade(float zNear, float zFar) {
         this.zNear = zNear;
         this.zFar = zFar;
@@ -37,11 +78,18 @@ public class ShadowCascade {
         this.orthoProjMatrix = new Matrix4f();
         this.centroid = new Vector3f();
         this.lightViewMatrix = new Matrix4f();
+        this.pendingOrthoProjMatrix = new Matrix4f();
+        this.pendingLightViewMatrix = new Matrix4f();
         this.frustumCorners = new Vector3f[FRUSTUM_CORNERS];
         for (int i = 0; i < FRUSTUM_CORNERS; i++) {
             frustumCorners[i] = new Vector3f();
         }
         tmpVec = new Vector4f();
+        casterMatrix = new Matrix4f();
+        casterVolume = new FrustumIntersection();
+        casters = new ArrayList<>();
+        rendered = false;
+        updateInterval = 1;
     }
 
     public Matrix4f getLightViewMatrix() {
@@ -52,6 +100,21 @@ public class ShadowCascade {
         return orthoProjMatrix;
     }
 
+    public int getUpdateInterval() {
+        return updateInterval;
+    }
+
+    /**
+     * Sets how often, in frames, this cascade may be re-rendered when it is
+     * out of date. Far cascades cover more texels per pixel and can be
+     * refreshed less often.
+     *
+     * @param updateInterval Number of frames between updates, at least 1
+     */
+    public void setUpdateInterval(int updateInterval) {
+        this.updateInterval = Math.max(1, updateInterval);
+    }
+
     public void update(EWindow EWindow, Matrix4f viewMatrix, DirectionalLight light) {
         // Build projection view matrix for this cascade
         float aspectRatio = (float) EWindow.getWidth() / (float) EWindow.getHeight();
@@ -59,61 +122,149 @@ public class ShadowCascade {
         projViewMatrix.mul(viewMatrix);
 
         // Calculate frustum corners in world space
-        float maxZ = Float.MIN_VALUE;
-        float minZ = Float.MAX_VALUE;
+        centroid.set(0, 0, 0);
         for (int i = 0; i < FRUSTUM_CORNERS; i++) {
             Vector3f corner = frustumCorners[i];
             corner.set(0, 0, 0);
             projViewMatrix.frustumCorner(i, corner);
             centroid.add(corner);
-            centroid.div(8.0f);
-            minZ = Math.min(minZ, corner.z);
-            maxZ = Math.max(maxZ, corner.z);
         }
+        centroid.div(FRUSTUM_CORNERS);
 
-        // Go back from the centroid up to max.z - min.z in the direction of light
-        Vector3f lightDirection = light.getDirection();
-        Vector3f lightPosInc = new Vector3f().set(lightDirection);
-        float distance = maxZ - minZ;
-        lightPosInc.mul(distance);
-        Vector3f lightPosition = new Vector3f();
-        lightPosition.set(centroid);
-        lightPosition.add(lightPosInc);
-
-        updateLightViewMatrix(lightDirection, lightPosition);
+        updateLightViewMatrix(light.getDirection());
 
         updateLightProjectionMatrix();
     }
 
-    private void updateLightViewMatrix(Vector3f lightDirection, Vector3f lightPosition) {
+    private void updateLightViewMatrix(Vector3f lightDirection) {
+        // Only the orientation matters, the projection bounds are calculated in light space
         float lightAngleX = (float) Math.toDegrees(Math.acos(lightDirection.z));
         float lightAngleY = (float) Math.toDegrees(Math.asin(lightDirection.x));
         float lightAngleZ = 0;
-        Transformation.updateGenericViewMatrix(lightPosition, new Vector3f(lightAngleX, lightAngleY, lightAngleZ), lightViewMatrix);
+        Transformation.updateGenericViewMatrix(new Vector3f(), new Vector3f(lightAngleX, lightAngleY, lightAngleZ), pendingLightViewMatrix);
     }
 
     private void updateLightProjectionMatrix() {
-        // Now calculate frustum dimensions in light space
-        float minX =  Float.MAX_VALUE;
-        float maxX = -Float.MIN_VALUE;
-        float minY =  Float.MAX_VALUE;
-        float maxY = -Float.MIN_VALUE;
-        float minZ =  Float.MAX_VALUE;
-        float maxZ = -Float.MIN_VALUE;
+        // Bound the frustum slice with a sphere so the projection size does not change when the camera rotates
+        float radius = 0;
         for (int i = 0; i < FRUSTUM_CORNERS; i++) {
-            Vector3f corner = frustumCorners[i];
-            tmpVec.set(corner, 1);
-            tmpVec.mul(lightViewMatrix);
-            minX = Math.min(tmpVec.x, minX);
-            maxX = Math.max(tmpVec.x, maxX);
-            minY = Math.min(tmpVec.y, minY);
-            maxY = Math.max(tmpVec.y, maxY);
-            minZ = Math.min(tmpVec.z, minZ);
-            maxZ = Math.max(tmpVec.z, maxZ);
+            radius = Math.max(radius, frustumCorners[i].distance(centroid));
+        }
+        radius = (float) Math.ceil(radius * RADIUS_QUANTUM) / RADIUS_QUANTUM;
+
+        // Snap the center to whole texels so that the map does not change when the camera moves slightly
+        float texelSize = 2 * radius / ShadowBuffer.SHADOW_MAP_WIDTH;
+        tmpVec.set(centroid, 1);
+        tmpVec.mul(pendingLightViewMatrix);
+        float x = (float) Math.floor(tmpVec.x / texelSize) * texelSize;
+        float y = (float) Math.floor(tmpVec.y / texelSize) * texelSize;
+        float z = (float) Math.floor(tmpVec.z / texelSize) * texelSize;
+
+        // The light looks along -z in light space
+        pendingOrthoProjMatrix.setOrtho(x - radius, x + radius, y - radius, y + radius, -z - radius, -z + radius);
+
+        // Same volume, but open towards the light so casters between the light and the cascade are kept
+        casterMatrix.setOrtho(x - radius, x + radius, y - radius, y + radius, -z - radius - CASTER_EXTENSION, -z + radius);
+        casterMatrix.mul(pendingLightViewMatrix);
+        casterVolume.set(casterMatrix);
+    }
+
+    /**
+     * Checks if the depth map must be rendered again in this frame: the light
+     * matrices (and so the light direction) or the state of its casters have
+     * changed since the last time it was rendered, and the cascade is
+     * scheduled for the frame.
+     *
+     * @param frame Number of the current frame
+     * @return true if the cascade must be rendered
+     */
+    public boolean needsRender(long frame) {
+        if (!rendered) {
+            return true;
         }
-        float distz = maxZ - minZ;
+        boolean dirty = casterHash != renderedCasterHash
+                || !pendingLightViewMatrix.equals(lightViewMatrix)
+                || !pendingOrthoProjMatrix.equals(orthoProjMatrix);
+        return dirty && frame % updateInterval == 0;
+    }
+
+    /**
+     * Makes the matrices of this frame the ones used to render and sample the
+     * depth map.
+     */
+    public void commit() {
+        lightViewMatrix.set(pendingLightViewMatrix);
+        orthoProjMatrix.set(pendingOrthoProjMatrix);
+        renderedCasterHash = casterHash;
+        rendered = true;
+    }
+
+    public void invalidate() {
+        rendered = false;
+    }
+
+    public List<GameItem> getCasters() {
+        return casters;
+    }
+
+    /**
+     * Collects the items that can cast a shadow into this cascade from the
+     * scene spatial index, and tracks their state so that a change in any of
+     * them marks the cascade as out of date. It does not depend on the camera
+     * frustum culling, items outside the view can still shadow visible ones.
+     * The meshes of the casters that are inside the volume are written to the
+     * view of the cascade in the scene visibility set.
+     *
+     * @param scene The scene
+     * @param view The view of the cascade
+     */
+    public void updateCasters(Scene scene, int view) {
+        casters.clear();
+        scene.getSpatialIndex().queryFrustum(casterVolume, casters);
+        for (GameItem gameItem : scene.getUnculledItems()) {
+            Vector3f pos = gameItem.getBoundingCenter();
+            if (!casterVolume.testSphere(pos.x, pos.y, pos.z, gameItem.getBoundingRadius())) {
+                casters.add(gameItem);
+            }
+        }
+
+        // Drop the items none of whose meshes reach the volume
+        VisibilitySet visibility = scene.getVisibility();
+        visibility.clear(view);
+        int numCasters = 0;
+        for (int i = 0; i < casters.size(); i++) {
+            GameItem gameItem = casters.get(i);
+            if (visibility.cull(view, gameItem, casterVolume)) {
+                casters.set(numCasters++, gameItem);
+            }
+        }
+        casters.subList(numCasters, casters.size()).clear();
+
+        // The order of the query results depends on the shape of the tree, so the hash must not
+        casterHash = 0;
+        for (GameItem gameItem : casters) {
+            casterHash += hashCaster(gameItem);
+        }
+    }
+
+    /**
+     * Hashes the state of a caster that affects the depth map: which item it
+     * is, its world transformation, tracked through the version of its model
+     * matrix, the scale its level of detail was selected with and, for
+     * animated items, the current frame.
+     */
+    private static long hashCaster(GameItem gameItem) {
+        long hash = hash(0, System.identityHashCode(gameItem));
+        hash = hash(hash, gameItem.getModelVersion());
+        hash = hash(hash, Float.floatToIntBits(gameItem.getLodScale()));
+        if (gameItem instanceof AnimGameItem) {
+            hash = hash(hash, System.identityHashCode(((AnimGameItem) gameItem).getCurrentAnimation().getCurrentFrame()));
+        }
+        return hash;
+    }
 
-        orthoProjMatrix.setOrtho(minX, maxX, minY, maxY, 0, distz);
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * HASH_PRIME;
     }
 
 }
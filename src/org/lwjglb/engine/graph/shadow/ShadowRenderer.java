@@ -1,12 +1,17 @@
 package org.lwjglb.engine.graph.shadow;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.joml.Matrix4f;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE2;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
 import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.SceneLight;
 import org.lwjglb.engine.Utils;
@@ -14,12 +19,20 @@ import org.lwjglb.engine.EWindow;
 import org.lwjglb.engine.graph.Camera;
 import org.lwjglb.engine.graph.InstancedMesh;
 import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.AutoInstancer;
+import org.lwjglb.engine.graph.MultiDrawBatch;
+import org.lwjglb.engine.graph.VisibilitySet;
+import org.lwjglb.engine.graph.RenderQueue;
 import org.lwjglb.engine.graph.Renderer;
 import org.lwjglb.engine.graph.ShaderProgram;
 import org.lwjglb.engine.graph.Transformation;
 import org.lwjglb.engine.graph.anim.AnimGameItem;
 import org.lwjglb.engine.graph.anim.AnimatedFrame;
 import org.lwjglb.engine.graph.lights.DirectionalLight;
+import org.lwjglb.engine.graph.lod.LodSelector;
+import org.lwjglb.engine.graph.uniforms.IntUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4ArrayUniform;
+import org.lwjglb.engine.graph.uniforms.Mat4Uniform;
 import org.lwjglb.engine.items.GameItem;
 
 public class ShadowRenderer {
@@ -28,16 +41,55 @@ public class ShadowRenderer {
 
     public static final float[] CASCADE_SPLITS = new float[]{EWindow.Z_FAR / 20.0f, EWindow.Z_FAR / 10.0f, EWindow.Z_FAR};
 
+    /**
+     * Default number of frames between updates of each cascade, from the
+     * nearest to the farthest one.
+     */
+    public static final int[] DEFAULT_UPDATE_INTERVALS = new int[]{1, 2, 4};
+
+    private static final int DEPTH_SHADER_ID = 1;
+
     private ShaderProgram depthShaderProgram;
 
+    private IntUniform depthIsInstanced;
+
+    private Mat4Uniform depthModelNonInstancedMatrix;
+
+    private Mat4ArrayUniform depthJointsMatrix;
+
+    private Mat4Uniform[] depthLightProjViewMatrix;
+
+    private IntUniform depthCascadeMask;
+
     private List<ShadowCascade> shadowCascades;
 
     private ShadowBuffer shadowBuffer;
 
-    private final List<GameItem> filteredItems;
+    private long frame;
+
+    private final Matrix4f lightProjViewMatrix;
+
+    /**
+     * Items that cast into any of the cascades rendered in this frame.
+     */
+    private final RenderQueue renderQueue;
+
+    private final Map<InstancedMesh, List<GameItem>> instancedCasters;
+
+    private final Map<Mesh, List<GameItem>> meshCasters;
+
+    private final Set<GameItem> casterSet;
+
+    private MultiDrawBatch multiDrawBatch;
+
+    private AutoInstancer autoInstancer;
 
     public ShadowRenderer() {
-        filteredItems = new ArrayList<>();
+        lightProjViewMatrix = new Matrix4f();
+        renderQueue = new RenderQueue();
+        instancedCasters = new HashMap<>();
+        meshCasters = new HashMap<>();
+        casterSet = Collections.newSetFromMap(new IdentityHashMap<GameItem, Boolean>());
     }
 
     public void init(EWindow EWindow) throws Exception {
@@ -46,9 +98,18 @@ public class ShadowRenderer {
 
         setupDepthShader();
 
+        if (EWindow.getOptions().multiDrawIndirect && MultiDrawBatch.isSupported()) {
+            // Depth does not depend on the material, draws are only split by geometry arena
+            multiDrawBatch = new MultiDrawBatch(false);
+        }
+        if (EWindow.getOptions().autoInstanceThreshold > 0) {
+            autoInstancer = new AutoInstancer(EWindow.getOptions().autoInstanceThreshold);
+        }
+
         float zNear = EWindow.Z_NEAR;
         for (int i = 0; i < NUM_CASCADES; i++) {
             ShadowCascade shadowCascade = new ShadowCascade(zNear, CASCADE_SPLITS[i]);
+            shadowCascade.setUpdateInterval(DEFAULT_UPDATE_INTERVALS[i]);
             shadowCascades.add(shadowCascade);
             zNear = CASCADE_SPLITS[i];
         }
@@ -58,6 +119,21 @@ public class ShadowRenderer {
         return shadowCascades;
     }
 
+    public void setUpdateIntervals(int... updateIntervals) {
+        for (int i = 0; i < NUM_CASCADES && i < updateIntervals.length; i++) {
+            shadowCascades.get(i).setUpdateInterval(updateIntervals[i]);
+        }
+    }
+
+    /**
+     * Forces all the cascades to be rendered in the next frame.
+     */
+    public void invalidate() {
+        for (ShadowCascade shadowCascade : shadowCascades) {
+            shadowCascade.invalidate();
+        }
+    }
+
     public void bindTextures(int start) {
         this.shadowBuffer.bindTextures(start);
     }
@@ -65,14 +141,15 @@ public class ShadowRenderer {
     private void setupDepthShader() throws Exception {
         depthShaderProgram = new ShaderProgram();
         depthShaderProgram.createVertexShader(Utils.loadResource("/shaders/depth_vertex.vs"));
+        depthShaderProgram.createGeometryShader(Utils.loadResource("/shaders/depth_geometry.gs"));
         depthShaderProgram.createFragmentShader(Utils.loadResource("/shaders/depth_fragment.fs"));
         depthShaderProgram.link();
 
-        depthShaderProgram.createUniform("isInstanced");
-        depthShaderProgram.createUniform("modelNonInstancedMatrix");
-        depthShaderProgram.createUniform("lightViewMatrix");
-        depthShaderProgram.createUniform("jointsMatrix");
-        depthShaderProgram.createUniform("orthoProjectionMatrix");
+        depthIsInstanced = depthShaderProgram.createIntUniform("isInstanced");
+        depthModelNonInstancedMatrix = depthShaderProgram.createMat4Uniform("modelNonInstancedMatrix");
+        depthJointsMatrix = depthShaderProgram.createMat4ArrayUniform("jointsMatrix");
+        depthLightProjViewMatrix = depthShaderProgram.createMat4Uniform("lightProjViewMatrix", NUM_CASCADES);
+        depthCascadeMask = depthShaderProgram.createIntUniform("cascadeMask");
     }
 
     private void update(EWindow EWindow, Matrix4f viewMatrix, Scene scene) {
@@ -81,73 +158,201 @@ public class ShadowRenderer {
         for (int i = 0; i < NUM_CASCADES; i++) {
             ShadowCascade shadowCascade = shadowCascades.get(i);
             shadowCascade.update(EWindow, viewMatrix, directionalLight);
+            shadowCascade.updateCasters(scene, VisibilitySet.VIEW_SHADOW_CASCADE + i);
         }
     }
 
     public void render(EWindow EWindow, Scene scene, Camera camera, Transformation transformation, Renderer renderer) {
         update(EWindow, camera.getViewMatrix(), scene);
+        frame++;
+
+        // Only the cascades whose depth map is out of date are rendered
+        int cascadeMask = 0;
+        for (int i = 0; i < NUM_CASCADES; i++) {
+            ShadowCascade shadowCascade = shadowCascades.get(i);
+            if (shadowCascade.needsRender(frame)) {
+                shadowCascade.commit();
+                cascadeMask |= 1 << i;
+            }
+        }
+        if (cascadeMask == 0) {
+            return;
+        }
 
         // Setup view port to match the texture size
         glBindFramebuffer(GL_FRAMEBUFFER, shadowBuffer.getDepthMapFBO());
         glViewport(0, 0, ShadowBuffer.SHADOW_MAP_WIDTH, ShadowBuffer.SHADOW_MAP_HEIGHT);
-        glClear(GL_DEPTH_BUFFER_BIT);
+        shadowBuffer.clearLayers(cascadeMask);
 
         depthShaderProgram.bind();
 
-        // Render scene for each cascade map
+        // Casters between the light and the cascade near plane are flattened onto it instead of being clipped
+        glEnable(GL_DEPTH_CLAMP);
+
         for (int i = 0; i < NUM_CASCADES; i++) {
             ShadowCascade shadowCascade = shadowCascades.get(i);
+            lightProjViewMatrix.set(shadowCascade.getOrthoProjMatrix()).mul(shadowCascade.getLightViewMatrix());
+            depthLightProjViewMatrix[i].set(lightProjViewMatrix);
+        }
+        depthCascadeMask.set(cascadeMask);
 
-            depthShaderProgram.setUniform("orthoProjectionMatrix", shadowCascade.getOrthoProjMatrix());
-            depthShaderProgram.setUniform("lightViewMatrix", shadowCascade.getLightViewMatrix());
+        // All the cascades are written in a single pass, the geometry shader sends each triangle to its layers
+        buildCasters(cascadeMask, scene.getVisibility(), renderer.getLodSelector());
 
-            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowBuffer.getDepthMapTexture().getIds()[i], 0);
-            glClear(GL_DEPTH_BUFFER_BIT);
+        renderAutoInstanced();
 
-            renderNonInstancedMeshes(scene, transformation);
+        renderNonInstancedMeshes(transformation, renderer.getLodSelector());
 
-            renderInstancedMeshes(scene, transformation);
-        }
+        renderInstancedMeshes(transformation);
+
+        glDisable(GL_DEPTH_CLAMP);
 
         // Unbind
         depthShaderProgram.unbind();
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
     }
 
-    private void renderNonInstancedMeshes(Scene scene, Transformation transformation) {
-        depthShaderProgram.setUniform("isInstanced", 0);
-
-        // Render each mesh with the associated game Items
-        Map<Mesh, List<GameItem>> mapMeshes = scene.getGameMeshes();
-        for (Mesh mesh : mapMeshes.keySet()) {
-            mesh.renderList(mapMeshes.get(mesh), (GameItem gameItem) -> {
-                Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
-                depthShaderProgram.setUniform("modelNonInstancedMatrix", modelMatrix);
-                if (gameItem instanceof AnimGameItem) {
-                    AnimGameItem animGameItem = (AnimGameItem) gameItem;
-                    AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
-                    depthShaderProgram.setUniform("jointsMatrix", frame.getJointMatrices());
+    private void buildCasters(int cascadeMask, VisibilitySet visibility, LodSelector lodSelector) {
+        // Items can cast into several of the cascades being rendered, but must be drawn once
+        casterSet.clear();
+        renderQueue.clear();
+        for (List<GameItem> casters : instancedCasters.values()) {
+            casters.clear();
+        }
+        for (List<GameItem> casters : meshCasters.values()) {
+            casters.clear();
+        }
+        for (int i = 0; i < NUM_CASCADES; i++) {
+            if ((cascadeMask & (1 << i)) == 0) {
+                continue;
+            }
+            for (GameItem gameItem : shadowCascades.get(i).getCasters()) {
+                if (!casterSet.add(gameItem)) {
+                    continue;
                 }
+                Mesh[] meshes = gameItem.getMeshes();
+                for (int j = 0; j < meshes.length; j++) {
+                    if (!castsInto(cascadeMask, visibility, gameItem, j)) {
+                        continue;
+                    }
+                    Mesh mesh = meshes[j];
+                    if (mesh instanceof InstancedMesh) {
+                        List<GameItem> casters = instancedCasters.get((InstancedMesh) mesh);
+                        if (casters == null) {
+                            casters = new ArrayList<>();
+                            instancedCasters.put((InstancedMesh) mesh, casters);
+                        }
+                        casters.add(gameItem);
+                    } else {
+                        List<GameItem> casters = meshCasters.get(mesh);
+                        if (casters == null) {
+                            casters = new ArrayList<>();
+                            meshCasters.put(mesh, casters);
+                        }
+                        casters.add(gameItem);
+                    }
+                }
+            }
+        }
+
+        // Meshes shared by many casters are drawn instanced, the rest one by one
+        if (autoInstancer != null) {
+            autoInstancer.clear();
+        }
+        for (Map.Entry<Mesh, List<GameItem>> entry : meshCasters.entrySet()) {
+            Mesh mesh = entry.getKey();
+            if (autoInstancer != null && autoInstancer.accepts(mesh, entry.getValue())) {
+                autoInstancer.add(mesh, entry.getValue(), lodSelector);
+                continue;
+            }
+            for (GameItem gameItem : entry.getValue()) {
+                renderQueue.add(RenderQueue.PASS_SHADOW, DEPTH_SHADER_ID, mesh, gameItem, 0);
+            }
+        }
+        renderQueue.sort();
+    }
+
+    /**
+     * Checks if a mesh of an item is inside any of the cascades being
+     * rendered.
+     */
+    private static boolean castsInto(int cascadeMask, VisibilitySet visibility, GameItem gameItem, int meshIndex) {
+        for (int i = 0; i < NUM_CASCADES; i++) {
+            if ((cascadeMask & (1 << i)) != 0
+                    && visibility.isVisible(VisibilitySet.VIEW_SHADOW_CASCADE + i, gameItem, meshIndex)) {
+                return true;
             }
-            );
         }
+        return false;
+    }
+
+    private void renderAutoInstanced() {
+        if (autoInstancer == null) {
+            return;
+        }
+        autoInstancer.upload();
+        depthIsInstanced.set(1);
+        for (int i = 0; i < autoInstancer.getNumGroups(); i++) {
+            autoInstancer.drawGroup(i);
+        }
+        autoInstancer.end();
     }
 
-    private void renderInstancedMeshes(Scene scene, Transformation transformation) {
-        depthShaderProgram.setUniform("isInstanced", 1);
+    private void renderNonInstancedMeshes(Transformation transformation, LodSelector lodSelector) {
+        if (multiDrawBatch != null) {
+            multiDrawBatch.build(renderQueue, lodSelector);
+            depthIsInstanced.set(1);
+            for (int i = 0; i < multiDrawBatch.getNumBuckets(); i++) {
+                multiDrawBatch.drawBucket(i);
+            }
+            multiDrawBatch.end();
+        }
+
+        depthIsInstanced.set(0);
 
-        // Render each mesh with the associated game Items
-        Map<InstancedMesh, List<GameItem>> mapMeshes = scene.getGameInstancedMeshes();
-        for (InstancedMesh mesh : mapMeshes.keySet()) {
-            filteredItems.clear();
-            for (GameItem gameItem : mapMeshes.get(mesh)) {
-                if (gameItem.isInsideFrustum()) {
-                    filteredItems.add(gameItem);
+        // Only the geometry matters for the depth map, so draws are grouped by VAO
+        Mesh lastMesh = null;
+        int numDraws = renderQueue.size();
+        for (int i = 0; i < numDraws; i++) {
+            Mesh mesh = renderQueue.getMesh(i);
+            GameItem gameItem = renderQueue.getGameItem(i);
+            if (multiDrawBatch != null && MultiDrawBatch.accepts(mesh, gameItem)) {
+                continue;
+            }
+            if (mesh != lastMesh) {
+                // Meshes in the same geometry arena share the VAO
+                if (lastMesh == null || mesh.getVaoId() != lastMesh.getVaoId()) {
+                    mesh.bindVertexArray();
                 }
+                lastMesh = mesh;
+            }
+            Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
+            depthModelNonInstancedMatrix.set(modelMatrix);
+            if (gameItem instanceof AnimGameItem) {
+                AnimGameItem animGameItem = (AnimGameItem) gameItem;
+                AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
+                depthJointsMatrix.set(frame.getJointMatrices());
+            }
+            // Same level as in the scene pass, so surfaces do not shadow themselves
+            mesh.draw(lodSelector.selectLevel(gameItem, mesh));
+        }
+        if (lastMesh != null) {
+            lastMesh.unbindVertexArray();
+        }
+    }
+
+    private void renderInstancedMeshes(Transformation transformation) {
+        depthIsInstanced.set(1);
+
+        // Render each mesh with the items that cast into the cascades being rendered
+        for (Map.Entry<InstancedMesh, List<GameItem>> entry : instancedCasters.entrySet()) {
+            List<GameItem> casters = entry.getValue();
+            if (casters.isEmpty()) {
+                continue;
             }
             bindTextures(GL_TEXTURE2);
 
-            mesh.renderListInstanced(filteredItems, transformation, null);
+            entry.getKey().renderListInstanced(casters, transformation, null);
         }
     }
 
@@ -158,6 +363,12 @@ public class ShadowRenderer {
         if (depthShaderProgram != null) {
             depthShaderProgram.cleanup();
         }
+        if (multiDrawBatch != null) {
+            multiDrawBatch.cleanup();
+        }
+        if (autoInstancer != null) {
+            autoInstancer.cleanup();
+        }
     }
 
 }
@@ -2,6 +2,9 @@ package org.lwjglb.engine.graph.shadow;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL30.GL_COMPARE_REF_TO_TEXTURE;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
 import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.EWindow;
 import org.lwjglb.engine.graph.Mesh;
@@ -24,9 +27,8 @@ public class ShadowTestRenderer {
         testShaderProgram.createFragmentShader(Utils.loadResource("/shaders/test_fragment.fs"));
         testShaderProgram.link();
 
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            testShaderProgram.createUniform("texture_sampler[" + i + "]");
-        }
+        testShaderProgram.createUniform("texture_sampler");
+        testShaderProgram.createUniform("cascade");
 
         quadMesh = StaticMeshesLoader.load("/models/quad.obj", "")[0];
     }
@@ -34,13 +36,18 @@ public class ShadowTestRenderer {
     public void renderTest(ShadowBuffer shadowMap) {
         testShaderProgram.bind();
 
-        testShaderProgram.setUniform("texture_sampler[0]", 0);
+        testShaderProgram.setUniform("texture_sampler", 0);
+        testShaderProgram.setUniform("cascade", 0);
 
+        // Read the raw depth values instead of the comparison result
         glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, shadowMap.getDepthMapTexture().getIds()[0]);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, shadowMap.getDepthMapTexture());
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_NONE);
 
         quadMesh.render();
 
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+
         testShaderProgram.unbind();
     }
 
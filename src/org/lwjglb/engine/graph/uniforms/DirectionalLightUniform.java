@@ -0,0 +1,30 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.ShaderProgram;
+import org.lwjglb.engine.graph.lights.DirectionalLight;
+
+public class DirectionalLightUniform {
+
+    private final Vec3Uniform colour;
+
+    private final Vec3Uniform direction;
+
+    private final FloatUniform intensity;
+
+    public DirectionalLightUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        colour = shaderProgram.createVec3Uniform(uniformName + ".colour");
+        direction = shaderProgram.createVec3Uniform(uniformName + ".direction");
+        intensity = shaderProgram.createFloatUniform(uniformName + ".intensity");
+    }
+
+    public void set(DirectionalLight dirLight) {
+        set(dirLight, dirLight.getDirection());
+    }
+
+    public void set(DirectionalLight dirLight, Vector3f lightDirection) {
+        colour.set(dirLight.getColor());
+        direction.set(lightDirection);
+        intensity.set(dirLight.getIntensity());
+    }
+}
@@ -0,0 +1,21 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import static org.lwjgl.opengl.GL20.glUniform1f;
+
+public class FloatUniform extends Uniform {
+
+    private float value;
+
+    public FloatUniform(int location) {
+        super(location);
+    }
+
+    public void set(float value) {
+        if (cached && this.value == value) {
+            return;
+        }
+        glUniform1f(location, value);
+        this.value = value;
+        cached = true;
+    }
+}
@@ -0,0 +1,25 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.lwjglb.engine.graph.ShaderProgram;
+import org.lwjglb.engine.graph.weather.Fog;
+
+public class FogUniform {
+
+    private final IntUniform activeFog;
+
+    private final Vec3Uniform colour;
+
+    private final FloatUniform density;
+
+    public FogUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        activeFog = shaderProgram.createIntUniform(uniformName + ".activeFog");
+        colour = shaderProgram.createVec3Uniform(uniformName + ".colour");
+        density = shaderProgram.createFloatUniform(uniformName + ".density");
+    }
+
+    public void set(Fog fog) {
+        activeFog.set(fog.isActive());
+        colour.set(fog.getColour());
+        density.set(fog.getDensity());
+    }
+}
@@ -0,0 +1,25 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import static org.lwjgl.opengl.GL20.glUniform1i;
+
+public class IntUniform extends Uniform {
+
+    private int value;
+
+    public IntUniform(int location) {
+        super(location);
+    }
+
+    public void set(int value) {
+        if (cached && this.value == value) {
+            return;
+        }
+        glUniform1i(location, value);
+        this.value = value;
+        cached = true;
+    }
+
+    public void set(boolean value) {
+        set(value ? 1 : 0);
+    }
+}
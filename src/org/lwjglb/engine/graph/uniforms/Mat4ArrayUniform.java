@@ -0,0 +1,42 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import java.nio.FloatBuffer;
+import org.joml.Matrix4f;
+import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
+import org.lwjgl.system.MemoryStack;
+
+/**
+ * Handle to a whole array of matrices, such as the joint matrices of an
+ * animation frame, uploaded with a single call.
+ */
+public class Mat4ArrayUniform extends Uniform {
+
+    private Matrix4f[] value;
+
+    public Mat4ArrayUniform(int location) {
+        super(location);
+    }
+
+    /**
+     * Uploads the matrices. The array is compared by reference, so it must not
+     * be modified once it has been uploaded (animation frames are built once at
+     * load time).
+     *
+     * @param matrices Matrices to upload
+     */
+    public void set(Matrix4f[] matrices) {
+        if (cached && this.value == matrices) {
+            return;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            int length = matrices != null ? matrices.length : 0;
+            FloatBuffer fb = stack.mallocFloat(16 * length);
+            for (int i = 0; i < length; i++) {
+                matrices[i].get(16 * i, fb);
+            }
+            glUniformMatrix4fv(location, false, fb);
+        }
+        this.value = matrices;
+        cached = true;
+    }
+}
@@ -0,0 +1,30 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import java.nio.FloatBuffer;
+import org.joml.Matrix4f;
+import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
+import org.lwjgl.system.MemoryStack;
+
+public class Mat4Uniform extends Uniform {
+
+    private final Matrix4f value;
+
+    public Mat4Uniform(int location) {
+        super(location);
+        value = new Matrix4f();
+    }
+
+    public void set(Matrix4f value) {
+        if (cached && this.value.equals(value)) {
+            return;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            // Dump the matrix into a float buffer
+            FloatBuffer fb = stack.mallocFloat(16);
+            value.get(fb);
+            glUniformMatrix4fv(location, false, fb);
+        }
+        this.value.set(value);
+        cached = true;
+    }
+}
@@ -0,0 +1,37 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.lwjglb.engine.graph.Material;
+import org.lwjglb.engine.graph.ShaderProgram;
+
+public class MaterialUniform {
+
+    private final Vec4Uniform ambient;
+
+    private final Vec4Uniform diffuse;
+
+    private final Vec4Uniform specular;
+
+    private final IntUniform hasTexture;
+
+    private final IntUniform hasNormalMap;
+
+    private final FloatUniform reflectance;
+
+    public MaterialUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        ambient = shaderProgram.createVec4Uniform(uniformName + ".ambient");
+        diffuse = shaderProgram.createVec4Uniform(uniformName + ".diffuse");
+        specular = shaderProgram.createVec4Uniform(uniformName + ".specular");
+        hasTexture = shaderProgram.createIntUniform(uniformName + ".hasTexture");
+        hasNormalMap = shaderProgram.createIntUniform(uniformName + ".hasNormalMap");
+        reflectance = shaderProgram.createFloatUniform(uniformName + ".reflectance");
+    }
+
+    public void set(Material material) {
+        ambient.set(material.getAmbientColour());
+        diffuse.set(material.getDiffuseColour());
+        specular.set(material.getSpecularColour());
+        hasTexture.set(material.isTextured());
+        hasNormalMap.set(material.hasNormalMap());
+        reflectance.set(material.getReflectance());
+    }
+}
@@ -0,0 +1,50 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.ShaderProgram;
+import org.lwjglb.engine.graph.lights.PointLight;
+
+public class PointLightUniform {
+
+    private final Vec3Uniform colour;
+
+    private final Vec3Uniform position;
+
+    private final FloatUniform intensity;
+
+    private final FloatUniform constant;
+
+    private final FloatUniform linear;
+
+    private final FloatUniform exponent;
+
+    public PointLightUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        colour = shaderProgram.createVec3Uniform(uniformName + ".colour");
+        position = shaderProgram.createVec3Uniform(uniformName + ".position");
+        intensity = shaderProgram.createFloatUniform(uniformName + ".intensity");
+        constant = shaderProgram.createFloatUniform(uniformName + ".att.constant");
+        linear = shaderProgram.createFloatUniform(uniformName + ".att.linear");
+        exponent = shaderProgram.createFloatUniform(uniformName + ".att.exponent");
+    }
+
+    public void set(PointLight pointLight) {
+        set(pointLight, pointLight.getPosition());
+    }
+
+    /**
+     * Sets the light replacing its position, so callers can pass an already
+     * transformed position without copying the light.
+     *
+     * @param pointLight The light
+     * @param lightPosition The position to upload
+     */
+    public void set(PointLight pointLight, Vector3f lightPosition) {
+        colour.set(pointLight.getColor());
+        position.set(lightPosition);
+        intensity.set(pointLight.getIntensity());
+        PointLight.Attenuation att = pointLight.getAttenuation();
+        constant.set(att.getConstant());
+        linear.set(att.getLinear());
+        exponent.set(att.getExponent());
+    }
+}
@@ -0,0 +1,30 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.ShaderProgram;
+import org.lwjglb.engine.graph.lights.SpotLight;
+
+public class SpotLightUniform {
+
+    private final PointLightUniform pointLight;
+
+    private final Vec3Uniform coneDirection;
+
+    private final FloatUniform cutOff;
+
+    public SpotLightUniform(ShaderProgram shaderProgram, String uniformName) throws Exception {
+        pointLight = shaderProgram.createPointLightUniform(uniformName + ".pl");
+        coneDirection = shaderProgram.createVec3Uniform(uniformName + ".conedir");
+        cutOff = shaderProgram.createFloatUniform(uniformName + ".cutoff");
+    }
+
+    public void set(SpotLight spotLight) {
+        set(spotLight, spotLight.getPointLight().getPosition(), spotLight.getConeDirection());
+    }
+
+    public void set(SpotLight spotLight, Vector3f lightPosition, Vector3f lightConeDirection) {
+        pointLight.set(spotLight.getPointLight(), lightPosition);
+        coneDirection.set(lightConeDirection);
+        cutOff.set(spotLight.getCutOff());
+    }
+}
@@ -0,0 +1,29 @@
+package org.lwjglb.engine.graph.uniforms;
+
+/**
+ * Handle to a uniform location of a linked shader program. Handles remember
+ * the last uploaded value so setting the same value again is a no-op. Values
+ * must be set while the owning program is bound.
+ */
+public abstract class Uniform {
+
+    protected final int location;
+
+    protected boolean cached;
+
+    public Uniform(int location) {
+        this.location = location;
+        this.cached = false;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * Forces the next set call to upload its value.
+     */
+    public void invalidate() {
+        cached = false;
+    }
+}
@@ -0,0 +1,27 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.joml.Vector3f;
+import static org.lwjgl.opengl.GL20.glUniform3f;
+
+public class Vec3Uniform extends Uniform {
+
+    private final Vector3f value;
+
+    public Vec3Uniform(int location) {
+        super(location);
+        value = new Vector3f();
+    }
+
+    public void set(Vector3f value) {
+        set(value.x, value.y, value.z);
+    }
+
+    public void set(float x, float y, float z) {
+        if (cached && value.x == x && value.y == y && value.z == z) {
+            return;
+        }
+        glUniform3f(location, x, y, z);
+        value.set(x, y, z);
+        cached = true;
+    }
+}
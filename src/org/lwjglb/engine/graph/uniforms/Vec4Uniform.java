@@ -0,0 +1,27 @@
+package org.lwjglb.engine.graph.uniforms;
+
+import org.joml.Vector4f;
+import static org.lwjgl.opengl.GL20.glUniform4f;
+
+public class Vec4Uniform extends Uniform {
+
+    private final Vector4f value;
+
+    public Vec4Uniform(int location) {
+        super(location);
+        value = new Vector4f();
+    }
+
+    public void set(Vector4f value) {
+        set(value.x, value.y, value.z, value.w);
+    }
+
+    public void set(float x, float y, float z, float w) {
+        if (cached && value.x == x && value.y == y && value.z == z && value.w == w) {
+            return;
+        }
+        glUniform4f(location, x, y, z, w);
+        value.set(x, y, z, w);
+        cached = true;
+    }
+}
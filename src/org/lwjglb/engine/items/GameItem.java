@@ -1,5 +1,9 @@
 package org.lwjglb.engine.items;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.joml.Matrix4f;
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
 import org.lwjglb.engine.graph.Mesh;
@@ -20,7 +24,55 @@ public class GameItem {
     
     private boolean disableFrustumCulling;
 
-    private boolean insideFrustum;
+    private float lodScale;
+
+    private final Matrix4f modelMatrix;
+
+    private final Vector3f modelPosition;
+
+    private final Quaternionf modelRotation;
+
+    private float modelScale;
+
+    private final Vector3f boundingCenter;
+
+    private final Vector3f localCenter;
+
+    private float boundingRadius;
+
+    private boolean modelDirty;
+
+    private boolean staticItem;
+
+    private GameItem parent;
+
+    private final List<GameItem> children;
+
+    private final Vector3f worldPosition;
+
+    private float worldScale;
+
+    /**
+     * Incremented each time the model matrix is rebuilt, so children can
+     * tell whether the world transformation of their parent has changed.
+     */
+    private int modelVersion;
+
+    private int parentModelVersion;
+
+    /**
+     * First slot of the item in the visibility set of its scene, -1 if it
+     * has none. There is a slot for each mesh.
+     */
+    private int visibilitySlot;
+
+    private int numVisibilitySlots;
+
+    SceneGraph sceneGraph;
+
+    int graphIndex;
+
+    boolean queued;
 
     public GameItem() {
         selected = false;
@@ -28,8 +80,18 @@ public class GameItem {
         scale = 1;
         rotation = new Quaternionf();
         textPos = 0;
-        insideFrustum = true;
         disableFrustumCulling = false;
+        modelMatrix = new Matrix4f();
+        modelPosition = new Vector3f();
+        modelRotation = new Quaternionf();
+        modelDirty = true;
+        staticItem = false;
+        children = new ArrayList<>();
+        worldPosition = new Vector3f();
+        boundingCenter = new Vector3f();
+        localCenter = new Vector3f();
+        worldScale = 1;
+        visibilitySlot = -1;
     }
 
     public GameItem(Mesh mesh) {
@@ -58,6 +120,7 @@ public class GameItem {
         this.position.x = x;
         this.position.y = y;
         this.position.z = z;
+        invalidate();
     }
 
     public float getScale() {
@@ -66,6 +129,205 @@ public class GameItem {
 
     public final void setScale(float scale) {
         this.scale = scale;
+        invalidate();
+    }
+
+    /**
+     * Gets the radius of a sphere, centered in getBoundingCenter, that
+     * contains all the meshes of the item. It is cached along with the model
+     * matrix.
+     *
+     * @return The scaled bounding radius
+     */
+    public float getBoundingRadius() {
+        validateModel();
+        return boundingRadius;
+    }
+
+    /**
+     * @return The center, in world space, of the bounding sphere
+     */
+    public Vector3f getBoundingCenter() {
+        validateModel();
+        return boundingCenter;
+    }
+
+    /**
+     * Gets the world matrix of the item, the matrix of its parent combined
+     * with its own position, rotation and scale. It is only rebuilt when any
+     * of them have changed, and must not be modified.
+     *
+     * @return The model matrix
+     */
+    public Matrix4f getModelMatrix() {
+        validateModel();
+        return modelMatrix;
+    }
+
+    public Vector3f getWorldPosition() {
+        validateModel();
+        return worldPosition;
+    }
+
+    public float getWorldScale() {
+        validateModel();
+        return worldScale;
+    }
+
+    public int getModelVersion() {
+        validateModel();
+        return modelVersion;
+    }
+
+    public boolean isStatic() {
+        return staticItem;
+    }
+
+    /**
+     * Marks the item as static. The cached matrix and bounds of static items
+     * are only rebuilt through the setters, changes made directly to the
+     * vectors returned by getPosition and getRotation are not detected.
+     *
+     * @param staticItem true if the item does not move
+     */
+    public void setStatic(boolean staticItem) {
+        this.staticItem = staticItem;
+    }
+
+    public int getVisibilitySlot() {
+        return visibilitySlot;
+    }
+
+    public int getNumVisibilitySlots() {
+        return numVisibilitySlots;
+    }
+
+    public void setVisibilitySlots(int visibilitySlot, int numVisibilitySlots) {
+        this.visibilitySlot = visibilitySlot;
+        this.numVisibilitySlots = numVisibilitySlots;
+    }
+
+    public GameItem getParent() {
+        return parent;
+    }
+
+    public List<GameItem> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Attaches an item to this one, its position, rotation and scale become
+     * relative to this item. If the child is not part of the scene it must
+     * still be added to it to be rendered.
+     *
+     * @param child The item to attach
+     */
+    public void addChild(GameItem child) {
+        for (GameItem ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == child) {
+                throw new IllegalArgumentException("An item cannot be attached to one of its descendants");
+            }
+        }
+        if (child.parent != null) {
+            child.parent.children.remove(child);
+        }
+        child.parent = this;
+        children.add(child);
+        child.parentChanged();
+    }
+
+    public void removeChild(GameItem child) {
+        if (child.parent == this) {
+            children.remove(child);
+            child.parent = null;
+            child.parentChanged();
+        }
+    }
+
+    private void parentChanged() {
+        if (sceneGraph != null) {
+            sceneGraph.parentChanged(this);
+        }
+        invalidate();
+    }
+
+    protected void invalidate() {
+        modelDirty = true;
+        if (sceneGraph != null) {
+            sceneGraph.markDirty(this);
+        }
+    }
+
+    void updateModel() {
+        validateModel();
+    }
+
+    private void validateModel() {
+        Matrix4f parentMatrix = null;
+        boolean parentChanged = false;
+        if (parent != null) {
+            // Brings the parent up to date first, which walks up the hierarchy if needed
+            parentMatrix = parent.getModelMatrix();
+            parentChanged = parent.modelVersion != parentModelVersion;
+        }
+        // Dynamic items may be moved through the returned position and rotation, so compare them too
+        if (!modelDirty && !parentChanged && (staticItem || (modelPosition.equals(position)
+                && modelRotation.equals(rotation) && modelScale == scale))) {
+            return;
+        }
+        modelMatrix.translationRotateScale(position.x, position.y, position.z,
+                rotation.x, rotation.y, rotation.z, rotation.w, scale, scale, scale);
+        modelPosition.set(position);
+        modelRotation.set(rotation);
+        modelScale = scale;
+        worldScale = scale;
+        if (parentMatrix != null) {
+            parentMatrix.mulAffine(modelMatrix, modelMatrix);
+            parentModelVersion = parent.modelVersion;
+            worldScale *= parent.worldScale;
+        }
+        modelMatrix.getTranslation(worldPosition);
+
+        float radius = getLocalBounds(localCenter);
+        modelMatrix.transformPosition(localCenter, boundingCenter);
+        boundingRadius = radius * Math.abs(worldScale);
+        modelDirty = false;
+        modelVersion++;
+    }
+
+    /**
+     * Gets the sphere, in the space of the item, that contains all its
+     * meshes: the smallest one that contains their bounding spheres, merged
+     * one at a time.
+     *
+     * @param center Where the center of the sphere is written
+     * @return The radius of the sphere
+     */
+    protected float getLocalBounds(Vector3f center) {
+        int numMeshes = this.meshes != null ? this.meshes.length : 0;
+        if (numMeshes == 0) {
+            center.zero();
+            return 0;
+        }
+        center.set(this.meshes[0].getBoundingCenter());
+        float radius = this.meshes[0].getBoundingRadius();
+        for (int i = 1; i < numMeshes; i++) {
+            Vector3f meshCenter = this.meshes[i].getBoundingCenter();
+            float meshRadius = this.meshes[i].getBoundingRadius();
+            float distance = center.distance(meshCenter);
+            if (distance + meshRadius <= radius) {
+                continue;
+            }
+            if (distance + radius <= meshRadius) {
+                center.set(meshCenter);
+                radius = meshRadius;
+                continue;
+            }
+            float newRadius = (distance + radius + meshRadius) * 0.5f;
+            center.lerp(meshCenter, (newRadius - radius) / distance);
+            radius = newRadius;
+        }
+        return radius;
     }
 
     public Quaternionf getRotation() {
@@ -74,6 +336,7 @@ public class GameItem {
 
     public final void setRotation(Quaternionf q) {
         this.rotation.set(q);
+        invalidate();
     }
 
     public Mesh getMesh() {
@@ -86,10 +349,12 @@ public class GameItem {
 
     public void setMeshes(Mesh[] meshes) {
         this.meshes = meshes;
+        invalidate();
     }
 
     public void setMesh(Mesh mesh) {
         this.meshes = new Mesh[]{mesh};
+        invalidate();
     }
 
     public void cleanup() {
@@ -107,14 +372,20 @@ public class GameItem {
         this.textPos = textPos;
     }
 
-    public boolean isInsideFrustum() {
-        return insideFrustum;
+    /**
+     * Gets the projected scale last used to select the level of detail of
+     * the meshes of the item, 0 if none has been selected yet.
+     *
+     * @return Pixels covered by a unit length of mesh space
+     */
+    public float getLodScale() {
+        return lodScale;
     }
 
-    public void setInsideFrustum(boolean insideFrustum) {
-        this.insideFrustum = insideFrustum;
+    public void setLodScale(float lodScale) {
+        this.lodScale = lodScale;
     }
-    
+
     public boolean isDisableFrustumCulling() {
         return disableFrustumCulling;
     }
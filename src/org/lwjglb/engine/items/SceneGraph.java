@@ -0,0 +1,188 @@
+package org.lwjglb.engine.items;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the hierarchy of the scene items flattened in depth first order, so
+ * every subtree is a contiguous range that starts with its root. Items
+ * changed through their setters are queued, and update only walks the
+ * subtrees of the queued items, parents before children.
+ */
+public class SceneGraph {
+
+    private final List<GameItem> roots;
+
+    private final List<GameItem> dirtyItems;
+
+    private GameItem[] nodes;
+
+    /**
+     * Index after the last node of the subtree of each node.
+     */
+    private int[] subtreeEnd;
+
+    private int numNodes;
+
+    private boolean structureChanged;
+
+    private int[] dirtyIndices;
+
+    public SceneGraph() {
+        roots = new ArrayList<>();
+        dirtyItems = new ArrayList<>();
+        nodes = new GameItem[0];
+        subtreeEnd = new int[0];
+        dirtyIndices = new int[0];
+    }
+
+    /**
+     * Adds an item to the graph. Children already in the graph are moved
+     * under it.
+     *
+     * @param gameItem The item
+     */
+    public void add(GameItem gameItem) {
+        if (gameItem.sceneGraph == this) {
+            return;
+        }
+        gameItem.sceneGraph = this;
+        if (gameItem.getParent() == null || gameItem.getParent().sceneGraph != this) {
+            roots.add(gameItem);
+        }
+        for (GameItem child : gameItem.getChildren()) {
+            if (child.sceneGraph == this) {
+                roots.remove(child);
+            }
+        }
+        markDirty(gameItem);
+        structureChanged = true;
+    }
+
+    /**
+     * Removes an item from the graph. Its descendants stay in the graph until
+     * they are removed too, as roots if their ancestors have been removed.
+     *
+     * @param gameItem The item
+     */
+    public void remove(GameItem gameItem) {
+        if (gameItem.sceneGraph != this) {
+            return;
+        }
+        roots.remove(gameItem);
+        gameItem.sceneGraph = null;
+        gameItem.queued = false;
+        dirtyItems.remove(gameItem);
+        for (GameItem child : gameItem.getChildren()) {
+            if (child.sceneGraph == this) {
+                roots.add(child);
+            }
+        }
+        structureChanged = true;
+    }
+
+    public boolean contains(GameItem gameItem) {
+        return gameItem.sceneGraph == this;
+    }
+
+    void parentChanged(GameItem gameItem) {
+        roots.remove(gameItem);
+        if (gameItem.getParent() == null || gameItem.getParent().sceneGraph != this) {
+            roots.add(gameItem);
+        }
+        structureChanged = true;
+    }
+
+    void markDirty(GameItem gameItem) {
+        if (!gameItem.queued) {
+            gameItem.queued = true;
+            dirtyItems.add(gameItem);
+        }
+    }
+
+    /**
+     * Recalculates the world transformation of the queued items and their
+     * descendants.
+     *
+     * @param changedItems List where the items whose world transformation has
+     * been recalculated are added
+     */
+    public void update(List<GameItem> changedItems) {
+        if (structureChanged) {
+            flatten();
+        }
+        int numDirty = dirtyItems.size();
+        if (numDirty == 0) {
+            return;
+        }
+        if (dirtyIndices.length < numDirty) {
+            dirtyIndices = new int[Math.max(numDirty, dirtyIndices.length * 2)];
+        }
+        for (int i = 0; i < numDirty; i++) {
+            GameItem gameItem = dirtyItems.get(i);
+            gameItem.queued = false;
+            dirtyIndices[i] = gameItem.graphIndex;
+        }
+        dirtyItems.clear();
+
+        // Ancestors come first, so a subtree already updated can be skipped
+        Arrays.sort(dirtyIndices, 0, numDirty);
+        int updatedEnd = 0;
+        for (int i = 0; i < numDirty; i++) {
+            int start = dirtyIndices[i];
+            if (start < updatedEnd) {
+                continue;
+            }
+            int end = subtreeEnd[start];
+            for (int j = start; j < end; j++) {
+                GameItem gameItem = nodes[j];
+                gameItem.updateModel();
+                changedItems.add(gameItem);
+            }
+            updatedEnd = end;
+        }
+    }
+
+    private void flatten() {
+        numNodes = 0;
+        for (GameItem root : roots) {
+            numNodes += countNodes(root);
+        }
+        if (nodes.length < numNodes) {
+            nodes = new GameItem[numNodes];
+            subtreeEnd = new int[numNodes];
+        } else {
+            Arrays.fill(nodes, numNodes, nodes.length, null);
+        }
+        int index = 0;
+        for (GameItem root : roots) {
+            index = flatten(root, index);
+        }
+        structureChanged = false;
+    }
+
+    private int flatten(GameItem gameItem, int index) {
+        int nodeIndex = index;
+        nodes[nodeIndex] = gameItem;
+        gameItem.graphIndex = nodeIndex;
+        int next = nodeIndex + 1;
+        for (GameItem child : gameItem.getChildren()) {
+            if (child.sceneGraph == this) {
+                next = flatten(child, next);
+            }
+        }
+        subtreeEnd[nodeIndex] = next;
+        return next;
+    }
+
+    private int countNodes(GameItem gameItem) {
+        int count = 1;
+        for (GameItem child : gameItem.getChildren()) {
+            if (child.sceneGraph == this) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+}
@@ -40,9 +40,44 @@ public class Terrain {
      * @throws Exception
      */
     public Terrain(int terrainSize, float scale, float minY, float maxY, String heightMapFile, String textureFile, int textInc) throws Exception {
+        this(terrainSize, scale, loadHeightMapMesh(minY, maxY, heightMapFile, textureFile, textInc));
+    }
+
+    /**
+     * Creates a Terrain from an existing height map. Its blocks have no mesh
+     * if the mesh of the height map has not been created.
+     *
+     * @param terrainSize The number of blocks will be terrainSize * terrainSize
+     * @param scale The scale to be applied to each terrain block
+     * @param heightMapMesh The height map shared by all the blocks
+     */
+    public Terrain(int terrainSize, float scale, HeightMapMesh heightMapMesh) {
         this.terrainSize = terrainSize;
+        this.heightMapMesh = heightMapMesh;
         gameItems = new GameItem[terrainSize * terrainSize];
 
+        // The number of vertices per column and row
+        verticesPerCol = heightMapMesh.getNumCols() - 1;
+        verticesPerRow = heightMapMesh.getNumRows() - 1;
+
+        boundingBoxes = new Box2D[terrainSize][terrainSize];
+        for (int row = 0; row < terrainSize; row++) {
+            for (int col = 0; col < terrainSize; col++) {
+                float xDisplacement = (col - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getXLength();
+                float zDisplacement = (row - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getZLength();
+
+                GameItem terrainBlock = heightMapMesh.getMesh() != null ? new GameItem(heightMapMesh.getMesh()) : new GameItem();
+                terrainBlock.setScale(scale);
+                terrainBlock.setPosition(xDisplacement, 0, zDisplacement);
+                terrainBlock.setStatic(true);
+                gameItems[row * terrainSize + col] = terrainBlock;
+
+                boundingBoxes[row][col] = getBoundingBox(terrainBlock);
+            }
+        }
+    }
+
+    private static HeightMapMesh loadHeightMapMesh(float minY, float maxY, String heightMapFile, String textureFile, int textInc) throws Exception {
         try (MemoryStack stack = stackPush()) {
             IntBuffer w = stack.mallocInt(1);
             IntBuffer h = stack.mallocInt(1);
@@ -56,25 +91,7 @@ public class Terrain {
             int width = w.get();
             int height = h.get();
 
-            // The number of vertices per column and row
-            verticesPerCol = width - 1;
-            verticesPerRow = height - 1;
-
-            heightMapMesh = new HeightMapMesh(minY, maxY, decodedImage, width, height, textureFile, textInc);
-            boundingBoxes = new Box2D[terrainSize][terrainSize];
-            for (int row = 0; row < terrainSize; row++) {
-                for (int col = 0; col < terrainSize; col++) {
-                    float xDisplacement = (col - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getXLength();
-                    float zDisplacement = (row - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getZLength();
-
-                    GameItem terrainBlock = new GameItem(heightMapMesh.getMesh());
-                    terrainBlock.setScale(scale);
-                    terrainBlock.setPosition(xDisplacement, 0, zDisplacement);
-                    gameItems[row * terrainSize + col] = terrainBlock;
-
-                    boundingBoxes[row][col] = getBoundingBox(terrainBlock);
-                }
-            }
+            return new HeightMapMesh(minY, maxY, decodedImage, width, height, textureFile, textInc);
         }
     }
 
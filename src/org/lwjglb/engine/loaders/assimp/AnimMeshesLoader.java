@@ -15,6 +15,7 @@ import java.util.Map;
 
 import org.joml.Matrix4f;
 import org.joml.Quaternionf;
+import org.joml.Vector3f;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.AIAnimation;
 import org.lwjgl.assimp.AIBone;
@@ -96,9 +97,12 @@ public class AnimMeshesLoader extends StaticMeshesLoader {
         int numMeshes = aiScene.mNumMeshes();
         PointerBuffer aiMeshes = aiScene.mMeshes();
         Mesh[] meshes = new Mesh[numMeshes];
+        List<float[]> meshPositions = new ArrayList<>();
+        List<int[]> meshBoneIds = new ArrayList<>();
+        List<float[]> meshWeights = new ArrayList<>();
         for (int i = 0; i < numMeshes; i++) {
             AIMesh aiMesh = AIMesh.create(aiMeshes.get(i));
-            Mesh mesh = processMesh(aiMesh, materials, boneList);
+            Mesh mesh = processMesh(aiMesh, materials, boneList, meshPositions, meshBoneIds, meshWeights);
             meshes[i] = mesh;
         }
 
@@ -106,12 +110,15 @@ public class AnimMeshesLoader extends StaticMeshesLoader {
         Matrix4f rootTransfromation = AnimMeshesLoader.toMatrix(aiRootNode.mTransformation());
         Node rootNode = processNodesHierarchy(aiRootNode, null);
         Map<String, Animation> animations = processAnimations(aiScene, boneList, rootNode, rootTransfromation);
+        for (Animation animation : animations.values()) {
+            calculateAnimationBounds(animation, meshPositions, meshBoneIds, meshWeights);
+        }
         AnimGameItem item = new AnimGameItem(meshes, animations);
 
         return item;
     }
 
-    private static List<AnimatedFrame> buildAnimationFrames(List<Bone> boneList, Node rootNode,
+    static List<AnimatedFrame> buildAnimationFrames(List<Bone> boneList, Node rootNode,
             Matrix4f rootTransformation) {
 
         int numFrames = rootNode.getAnimationFrames();
@@ -134,6 +141,49 @@ public class AnimMeshesLoader extends StaticMeshesLoader {
         return frameList;
     }
 
+    /**
+     * Calculates the box that contains the vertices of the meshes, skinned
+     * as the vertex shader does, in every frame of an animation.
+     */
+    static void calculateAnimationBounds(Animation animation, List<float[]> meshPositions, List<int[]> meshBoneIds,
+            List<float[]> meshWeights) {
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY);
+        Vector3f skinned = new Vector3f();
+        Vector3f jointPos = new Vector3f();
+        for (AnimatedFrame frame : animation.getFrames()) {
+            Matrix4f[] jointMatrices = frame.getJointMatrices();
+            for (int m = 0; m < meshPositions.size(); m++) {
+                float[] positions = meshPositions.get(m);
+                int[] boneIds = meshBoneIds.get(m);
+                float[] weights = meshWeights.get(m);
+                for (int v = 0; v < positions.length / 3; v++) {
+                    float x = positions[v * 3];
+                    float y = positions[v * 3 + 1];
+                    float z = positions[v * 3 + 2];
+                    skinned.zero();
+                    int count = 0;
+                    for (int j = 0; j < Mesh.MAX_WEIGHTS; j++) {
+                        float weight = weights[v * Mesh.MAX_WEIGHTS + j];
+                        if (weight > 0) {
+                            count++;
+                            jointMatrices[boneIds[v * Mesh.MAX_WEIGHTS + j]].transformPosition(x, y, z, jointPos);
+                            skinned.fma(weight, jointPos);
+                        }
+                    }
+                    if (count == 0) {
+                        skinned.set(x, y, z);
+                    }
+                    min.min(skinned);
+                    max.max(skinned);
+                }
+            }
+        }
+        if (min.x <= max.x) {
+            animation.setBounds(min, max);
+        }
+    }
+
     private static Map<String, Animation> processAnimations(AIScene aiScene, List<Bone> boneList,
             Node rootNode, Matrix4f rootTransformation) {
         Map<String, Animation> animations = new HashMap<>();
@@ -203,7 +253,8 @@ public class AnimMeshesLoader extends StaticMeshesLoader {
         }
     }
 
-    private static Mesh processMesh(AIMesh aiMesh, List<Material> materials, List<Bone> boneList) {
+    private static Mesh processMesh(AIMesh aiMesh, List<Material> materials, List<Bone> boneList,
+            List<float[]> meshPositions, List<int[]> meshBoneIds, List<float[]> meshWeights) {
         List<Float> vertices = new ArrayList<>();
         List<Float> textures = new ArrayList<>();
         List<Float> normals = new ArrayList<>();
@@ -217,9 +268,15 @@ public class AnimMeshesLoader extends StaticMeshesLoader {
         processIndices(aiMesh, indices);
         processBones(aiMesh, boneList, boneIds, weights);
 
-        Mesh mesh = new Mesh(Utils.listToArray(vertices), Utils.listToArray(textures),
-                Utils.listToArray(normals), Utils.listIntToArray(indices),
-                Utils.listIntToArray(boneIds), Utils.listToArray(weights));
+        float[] positions = Utils.listToArray(vertices);
+        int[] boneIdsArr = Utils.listIntToArray(boneIds);
+        float[] weightsArr = Utils.listToArray(weights);
+        // Kept to calculate the bounds of the animations
+        meshPositions.add(positions);
+        meshBoneIds.add(boneIdsArr);
+        meshWeights.add(weightsArr);
+        Mesh mesh = new Mesh(positions, Utils.listToArray(textures),
+                Utils.listToArray(normals), Utils.listIntToArray(indices), boneIdsArr, weightsArr);
         Material material;
         int materialIdx = aiMesh.mMaterialIndex();
         if (materialIdx >= 0 && materialIdx < materials.size()) {
@@ -30,6 +30,7 @@ import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.graph.Material;
 import org.lwjglb.engine.graph.Mesh;
 import org.lwjglb.engine.graph.Texture;
+import org.lwjglb.engine.graph.lod.MeshLodGenerator;
 
 public class StaticMeshesLoader {
 
@@ -40,6 +41,26 @@ public class StaticMeshesLoader {
     }
 
     public static Mesh[] load(String resourcePath, String texturesDir, int flags) throws Exception {
+        return load(resourcePath, texturesDir, flags, null);
+    }
+
+    /**
+     * Loads the meshes of a model, generating their levels of detail.
+     *
+     * @param resourcePath Path of the model
+     * @param texturesDir Directory of the textures
+     * @param lodGenerator Generator of the levels of detail, null to load
+     * the meshes without them
+     * @return The meshes
+     * @throws Exception If the model cannot be loaded
+     */
+    public static Mesh[] load(String resourcePath, String texturesDir, MeshLodGenerator lodGenerator) throws Exception {
+        return load(resourcePath, texturesDir,
+                aiProcess_GenSmoothNormals | aiProcess_JoinIdenticalVertices | aiProcess_Triangulate
+                        | aiProcess_FixInfacingNormals, lodGenerator);
+    }
+
+    public static Mesh[] load(String resourcePath, String texturesDir, int flags, MeshLodGenerator lodGenerator) throws Exception {
      	AIScene aiScene = aiImportFile(resourcePath, flags);
         if (aiScene == null) {
             throw new Exception("Error loading model");
@@ -58,7 +79,7 @@ public class StaticMeshesLoader {
         Mesh[] meshes = new Mesh[numMeshes];
         for (int i = 0; i < numMeshes; i++) {
             AIMesh aiMesh = AIMesh.create(aiMeshes.get(i));
-            Mesh mesh = processMesh(aiMesh, materials);
+            Mesh mesh = processMesh(aiMesh, materials, lodGenerator);
             meshes[i] = mesh;
         }
 
@@ -119,7 +140,8 @@ public class StaticMeshesLoader {
         materials.add(material);
     }
 
-    private static Mesh processMesh(AIMesh aiMesh, List<Material> materials) {
+    private static Mesh processMesh(AIMesh aiMesh, List<Material> materials, MeshLodGenerator lodGenerator)
+            throws Exception {
         List<Float> vertices = new ArrayList<>();
         List<Float> textures = new ArrayList<>();
         List<Float> normals = new ArrayList<>();
@@ -130,8 +152,13 @@ public class StaticMeshesLoader {
         processTextCoords(aiMesh, textures);
         processIndices(aiMesh, indices);
 
-        Mesh mesh = new Mesh(Utils.listToArray(vertices), Utils.listToArray(textures),
-                Utils.listToArray(normals), Utils.listIntToArray(indices));
+        float[] positions = Utils.listToArray(vertices);
+        int[] indicesArr = Utils.listIntToArray(indices);
+        Mesh mesh = new Mesh(positions, Utils.listToArray(textures),
+                Utils.listToArray(normals), indicesArr);
+        if (lodGenerator != null) {
+            mesh.setLodChain(lodGenerator.generate(positions, indicesArr));
+        }
         Material material;
         int materialIdx = aiMesh.mMaterialIndex();
         if (materialIdx >= 0 && materialIdx < materials.size()) {
@@ -0,0 +1,552 @@
+package org.lwjglb.engine.spatial;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joml.FrustumIntersection;
+import org.joml.Intersectionf;
+import org.joml.Vector3f;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Dynamic bounding volume hierarchy of game items. Each item is stored in a
+ * leaf whose box is enlarged by a margin, so items that move a little do not
+ * need to change the tree. Leaves are inserted where they increase the
+ * surface area of the tree the least, and the tree is kept balanced with
+ * rotations, so queries visit O(log n) nodes plus the ones they return.
+ *
+ * Nodes are stored in parallel arrays and referenced by index. Queries use a
+ * shared traversal stack, so the tree must not be queried from several
+ * threads at the same time.
+ */
+public class BVH {
+
+    private static final int NULL_NODE = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Leaf boxes are enlarged by this fraction of the item radius.
+     */
+    private static final float FAT_MARGIN = 0.25f;
+
+    private final Map<GameItem, Integer> leaves;
+
+    private float[] minX;
+
+    private float[] minY;
+
+    private float[] minZ;
+
+    private float[] maxX;
+
+    private float[] maxY;
+
+    private float[] maxZ;
+
+    private int[] parent;
+
+    private int[] child1;
+
+    private int[] child2;
+
+    private int[] height;
+
+    private GameItem[] items;
+
+    private int capacity;
+
+    private int nodeCount;
+
+    private int freeList;
+
+    private int root;
+
+    private int[] stack;
+
+    public BVH() {
+        leaves = new IdentityHashMap<>();
+        root = NULL_NODE;
+        freeList = NULL_NODE;
+        stack = new int[INITIAL_CAPACITY];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return leaves.size();
+    }
+
+    public boolean contains(GameItem gameItem) {
+        return leaves.containsKey(gameItem);
+    }
+
+    public void clear() {
+        leaves.clear();
+        Arrays.fill(items, 0, nodeCount, null);
+        root = NULL_NODE;
+        freeList = NULL_NODE;
+        nodeCount = 0;
+    }
+
+    /**
+     * Adds an item to the tree. If it is already there its bounds are updated.
+     *
+     * @param gameItem The item
+     */
+    public void insert(GameItem gameItem) {
+        if (leaves.containsKey(gameItem)) {
+            update(gameItem);
+            return;
+        }
+        int leaf = allocateNode();
+        items[leaf] = gameItem;
+        height[leaf] = 0;
+        setFatBounds(leaf, gameItem);
+        insertLeaf(leaf);
+        leaves.put(gameItem, leaf);
+    }
+
+    public boolean remove(GameItem gameItem) {
+        Integer leaf = leaves.remove(gameItem);
+        if (leaf == null) {
+            return false;
+        }
+        removeLeaf(leaf);
+        freeNode(leaf);
+        return true;
+    }
+
+    /**
+     * Refits the tree after an item has moved or changed its scale. Nothing
+     * is done while the item stays inside the enlarged box of its leaf.
+     *
+     * @param gameItem The item
+     * @return true if the leaf has been moved in the tree
+     */
+    public boolean update(GameItem gameItem) {
+        Integer leafId = leaves.get(gameItem);
+        if (leafId == null) {
+            return false;
+        }
+        int leaf = leafId;
+        Vector3f pos = gameItem.getBoundingCenter();
+        float radius = gameItem.getBoundingRadius();
+        if (minX[leaf] <= pos.x - radius && minY[leaf] <= pos.y - radius && minZ[leaf] <= pos.z - radius
+                && maxX[leaf] >= pos.x + radius && maxY[leaf] >= pos.y + radius && maxZ[leaf] >= pos.z + radius) {
+            return false;
+        }
+        removeLeaf(leaf);
+        setFatBounds(leaf, gameItem);
+        insertLeaf(leaf);
+        return true;
+    }
+
+    /**
+     * Collects the items whose bounding sphere is inside or intersects the
+     * frustum.
+     *
+     * @param frustum The frustum
+     * @param result List where the items are added
+     */
+    public void queryFrustum(FrustumIntersection frustum, List<GameItem> result) {
+        if (root == NULL_NODE) {
+            return;
+        }
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            if (node < 0) {
+                // Inside a subtree fully contained in the frustum, no need to test
+                node = insideNode(node);
+                if (isLeaf(node)) {
+                    result.add(items[node]);
+                } else {
+                    top = push(top, insideNode(child1[node]));
+                    top = push(top, insideNode(child2[node]));
+                }
+                continue;
+            }
+            int test = frustum.intersectAab(minX[node], minY[node], minZ[node], maxX[node], maxY[node], maxZ[node]);
+            if (test == FrustumIntersection.INSIDE) {
+                top = push(top, insideNode(node));
+            } else if (test == FrustumIntersection.INTERSECT) {
+                if (isLeaf(node)) {
+                    GameItem gameItem = items[node];
+                    Vector3f pos = gameItem.getBoundingCenter();
+                    if (frustum.testSphere(pos.x, pos.y, pos.z, gameItem.getBoundingRadius())) {
+                        result.add(gameItem);
+                    }
+                } else {
+                    top = push(top, child1[node]);
+                    top = push(top, child2[node]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the items whose leaf box is hit by a ray. Callers that need
+     * the closest item must test the candidates against their exact bounds.
+     *
+     * @param origin Origin of the ray
+     * @param dir Direction of the ray
+     * @param result List where the items are added
+     */
+    public void queryRay(Vector3f origin, Vector3f dir, List<GameItem> result) {
+        if (root == NULL_NODE) {
+            return;
+        }
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            if (!Intersectionf.testRayAab(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z,
+                    minX[node], minY[node], minZ[node], maxX[node], maxY[node], maxZ[node])) {
+                continue;
+            }
+            if (isLeaf(node)) {
+                result.add(items[node]);
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Collects the items whose bounding sphere intersects a sphere.
+     *
+     * @param center Center of the sphere
+     * @param radius Radius of the sphere
+     * @param result List where the items are added
+     */
+    public void querySphere(Vector3f center, float radius, List<GameItem> result) {
+        if (root == NULL_NODE) {
+            return;
+        }
+        float radiusSquared = radius * radius;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            if (!Intersectionf.testAabSphere(minX[node], minY[node], minZ[node], maxX[node], maxY[node], maxZ[node],
+                    center.x, center.y, center.z, radiusSquared)) {
+                continue;
+            }
+            if (isLeaf(node)) {
+                GameItem gameItem = items[node];
+                float distance = radius + gameItem.getBoundingRadius();
+                if (gameItem.getBoundingCenter().distanceSquared(center) <= distance * distance) {
+                    result.add(gameItem);
+                }
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Collects the items whose bounds intersect an axis aligned box.
+     *
+     * @param min Minimum corner of the box
+     * @param max Maximum corner of the box
+     * @param result List where the items are added
+     */
+    public void queryAabb(Vector3f min, Vector3f max, List<GameItem> result) {
+        if (root == NULL_NODE) {
+            return;
+        }
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            if (!Intersectionf.testAabAab(minX[node], minY[node], minZ[node], maxX[node], maxY[node], maxZ[node],
+                    min.x, min.y, min.z, max.x, max.y, max.z)) {
+                continue;
+            }
+            if (isLeaf(node)) {
+                GameItem gameItem = items[node];
+                Vector3f pos = gameItem.getBoundingCenter();
+                float radius = gameItem.getBoundingRadius();
+                if (Intersectionf.testAabAab(pos.x - radius, pos.y - radius, pos.z - radius,
+                        pos.x + radius, pos.y + radius, pos.z + radius, min.x, min.y, min.z, max.x, max.y, max.z)) {
+                    result.add(gameItem);
+                }
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Marks a node on the traversal stack as fully inside the query volume,
+     * and gets back the original index. The mapping is its own inverse.
+     */
+    private static int insideNode(int node) {
+        return -node - 1;
+    }
+
+    private int push(int top, int node) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = node;
+        return top + 1;
+    }
+
+    private boolean isLeaf(int node) {
+        return child1[node] == NULL_NODE;
+    }
+
+    private void setFatBounds(int node, GameItem gameItem) {
+        Vector3f pos = gameItem.getBoundingCenter();
+        float radius = gameItem.getBoundingRadius() * (1 + FAT_MARGIN);
+        minX[node] = pos.x - radius;
+        minY[node] = pos.y - radius;
+        minZ[node] = pos.z - radius;
+        maxX[node] = pos.x + radius;
+        maxY[node] = pos.y + radius;
+        maxZ[node] = pos.z + radius;
+    }
+
+    private void setUnion(int node, int a, int b) {
+        minX[node] = Math.min(minX[a], minX[b]);
+        minY[node] = Math.min(minY[a], minY[b]);
+        minZ[node] = Math.min(minZ[a], minZ[b]);
+        maxX[node] = Math.max(maxX[a], maxX[b]);
+        maxY[node] = Math.max(maxY[a], maxY[b]);
+        maxZ[node] = Math.max(maxZ[a], maxZ[b]);
+    }
+
+    private float area(int node) {
+        float dx = maxX[node] - minX[node];
+        float dy = maxY[node] - minY[node];
+        float dz = maxZ[node] - minZ[node];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private float unionArea(int a, int b) {
+        float dx = Math.max(maxX[a], maxX[b]) - Math.min(minX[a], minX[b]);
+        float dy = Math.max(maxY[a], maxY[b]) - Math.min(minY[a], minY[b]);
+        float dz = Math.max(maxZ[a], maxZ[b]) - Math.min(minZ[a], minZ[b]);
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private void insertLeaf(int leaf) {
+        if (root == NULL_NODE) {
+            root = leaf;
+            parent[leaf] = NULL_NODE;
+            return;
+        }
+
+        // Find the sibling that increases the area of the tree the least
+        int index = root;
+        while (!isLeaf(index)) {
+            int c1 = child1[index];
+            int c2 = child2[index];
+            float area = area(index);
+            float combinedArea = unionArea(index, leaf);
+            float cost = 2 * combinedArea;
+            float inheritanceCost = 2 * (combinedArea - area);
+            float cost1 = childCost(c1, leaf) + inheritanceCost;
+            float cost2 = childCost(c2, leaf) + inheritanceCost;
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? c1 : c2;
+        }
+        int sibling = index;
+
+        // Create a new parent for the leaf and its sibling
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        items[newParent] = null;
+        setUnion(newParent, leaf, sibling);
+        height[newParent] = height[sibling] + 1;
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+        if (oldParent != NULL_NODE) {
+            replaceChild(oldParent, sibling, newParent);
+        } else {
+            root = newParent;
+        }
+
+        refitAncestors(parent[leaf]);
+    }
+
+    private float childCost(int child, int leaf) {
+        float area = unionArea(child, leaf);
+        return isLeaf(child) ? area : area - area(child);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL_NODE;
+            return;
+        }
+        int leafParent = parent[leaf];
+        int grandParent = parent[leafParent];
+        int sibling = child1[leafParent] == leaf ? child2[leafParent] : child1[leafParent];
+        if (grandParent != NULL_NODE) {
+            replaceChild(grandParent, leafParent, sibling);
+            parent[sibling] = grandParent;
+            freeNode(leafParent);
+            refitAncestors(grandParent);
+        } else {
+            root = sibling;
+            parent[sibling] = NULL_NODE;
+            freeNode(leafParent);
+        }
+    }
+
+    private void refitAncestors(int node) {
+        int index = node;
+        while (index != NULL_NODE) {
+            index = balance(index);
+            int c1 = child1[index];
+            int c2 = child2[index];
+            height[index] = 1 + Math.max(height[c1], height[c2]);
+            setUnion(index, c1, c2);
+            index = parent[index];
+        }
+    }
+
+    private void replaceChild(int node, int oldChild, int newChild) {
+        if (child1[node] == oldChild) {
+            child1[node] = newChild;
+        } else {
+            child2[node] = newChild;
+        }
+    }
+
+    /**
+     * Performs a left or right rotation if node A is imbalanced.
+     *
+     * @return The index of the new root of the subtree
+     */
+    private int balance(int iA) {
+        if (isLeaf(iA) || height[iA] < 2) {
+            return iA;
+        }
+        int iB = child1[iA];
+        int iC = child2[iA];
+        int balance = height[iC] - height[iB];
+
+        if (balance > 1) {
+            // Rotate C up
+            int iF = child1[iC];
+            int iG = child2[iC];
+            child1[iC] = iA;
+            parent[iC] = parent[iA];
+            parent[iA] = iC;
+            if (parent[iC] != NULL_NODE) {
+                replaceChild(parent[iC], iA, iC);
+            } else {
+                root = iC;
+            }
+            if (height[iF] > height[iG]) {
+                child2[iC] = iF;
+                child2[iA] = iG;
+                parent[iG] = iA;
+                setUnion(iA, iB, iG);
+                setUnion(iC, iA, iF);
+                height[iA] = 1 + Math.max(height[iB], height[iG]);
+                height[iC] = 1 + Math.max(height[iA], height[iF]);
+            } else {
+                child2[iC] = iG;
+                child2[iA] = iF;
+                parent[iF] = iA;
+                setUnion(iA, iB, iF);
+                setUnion(iC, iA, iG);
+                height[iA] = 1 + Math.max(height[iB], height[iF]);
+                height[iC] = 1 + Math.max(height[iA], height[iG]);
+            }
+            return iC;
+        }
+
+        if (balance < -1) {
+            // Rotate B up
+            int iD = child1[iB];
+            int iE = child2[iB];
+            child1[iB] = iA;
+            parent[iB] = parent[iA];
+            parent[iA] = iB;
+            if (parent[iB] != NULL_NODE) {
+                replaceChild(parent[iB], iA, iB);
+            } else {
+                root = iB;
+            }
+            if (height[iD] > height[iE]) {
+                child2[iB] = iD;
+                child1[iA] = iE;
+                parent[iE] = iA;
+                setUnion(iA, iC, iE);
+                setUnion(iB, iA, iD);
+                height[iA] = 1 + Math.max(height[iC], height[iE]);
+                height[iB] = 1 + Math.max(height[iA], height[iD]);
+            } else {
+                child2[iB] = iE;
+                child1[iA] = iD;
+                parent[iD] = iA;
+                setUnion(iA, iC, iD);
+                setUnion(iB, iA, iE);
+                height[iA] = 1 + Math.max(height[iC], height[iD]);
+                height[iB] = 1 + Math.max(height[iA], height[iE]);
+            }
+            return iB;
+        }
+
+        return iA;
+    }
+
+    private int allocateNode() {
+        int node;
+        if (freeList != NULL_NODE) {
+            node = freeList;
+            freeList = child1[node];
+        } else {
+            if (nodeCount == capacity) {
+                allocate(capacity * 2);
+            }
+            node = nodeCount++;
+        }
+        parent[node] = NULL_NODE;
+        child1[node] = NULL_NODE;
+        child2[node] = NULL_NODE;
+        height[node] = 0;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        items[node] = null;
+        child1[node] = freeList;
+        height[node] = -1;
+        freeList = node;
+    }
+
+    private void allocate(int newCapacity) {
+        minX = grow(minX, newCapacity);
+        minY = grow(minY, newCapacity);
+        minZ = grow(minZ, newCapacity);
+        maxX = grow(maxX, newCapacity);
+        maxY = grow(maxY, newCapacity);
+        maxZ = grow(maxZ, newCapacity);
+        parent = grow(parent, newCapacity);
+        child1 = grow(child1, newCapacity);
+        child2 = grow(child2, newCapacity);
+        height = grow(height, newCapacity);
+        items = items == null ? new GameItem[newCapacity] : Arrays.copyOf(items, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private static float[] grow(float[] array, int newCapacity) {
+        return array == null ? new float[newCapacity] : Arrays.copyOf(array, newCapacity);
+    }
+
+    private static int[] grow(int[] array, int newCapacity) {
+        return array == null ? new int[newCapacity] : Arrays.copyOf(array, newCapacity);
+    }
+}
@@ -1,9 +1,17 @@
 package org.lwjglb.game;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.joml.Intersectionf;
+import org.joml.Matrix4f;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
+import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.graph.Camera;
+import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.VisibilitySet;
+import org.lwjglb.engine.graph.anim.AnimGameItem;
+import org.lwjglb.engine.graph.anim.Animation;
 import org.lwjglb.engine.items.GameItem;
 
 public class CameraBoxSelectionDetector {
@@ -14,13 +22,86 @@ public class CameraBoxSelectionDetector {
 
     private final Vector2f nearFar;
 
+    private final Matrix4f invModelMatrix;
+
+    private final Vector3f localOrigin;
+
+    private final Vector3f localDir;
+
     private Vector3f dir;
 
+    private final List<GameItem> candidates;
+
+    private GameItem selectedGameItem;
+
     public CameraBoxSelectionDetector() {
         dir = new Vector3f();
         min = new Vector3f();
         max = new Vector3f();
         nearFar = new Vector2f();
+        invModelMatrix = new Matrix4f();
+        localOrigin = new Vector3f();
+        localDir = new Vector3f();
+        candidates = new ArrayList<>();
+    }
+
+    public void selectGameItem(Scene scene, Camera camera) {
+        dir = camera.getViewMatrix().positiveZ(dir).negate();
+        selectGameItem(scene, camera.getPosition(), dir);
+    }
+
+    /**
+     * Selects the closest item hit by a ray. Only the items returned by the
+     * scene spatial index are tested, against the bounding box of each of
+     * their meshes in the space of the item. Animated items use the bounds of
+     * their current animation. The meshes hit are written to the picking
+     * view of the scene visibility set.
+     */
+    protected boolean selectGameItem(Scene scene, Vector3f center, Vector3f dir) {
+        if (selectedGameItem != null) {
+            selectedGameItem.setSelected(false);
+            selectedGameItem = null;
+        }
+
+        VisibilitySet visibility = scene.getVisibility();
+        visibility.clear(VisibilitySet.VIEW_PICKING);
+        candidates.clear();
+        scene.getSpatialIndex().queryRay(center, dir, candidates);
+        float closestDistance = Float.POSITIVE_INFINITY;
+        for (GameItem gameItem : candidates) {
+            // The distance along the ray does not change when both are brought into the space of the item
+            gameItem.getModelMatrix().invertAffine(invModelMatrix);
+            invModelMatrix.transformPosition(center, localOrigin);
+            invModelMatrix.transformDirection(dir, localDir);
+            Animation animation = gameItem instanceof AnimGameItem
+                    ? ((AnimGameItem) gameItem).getCurrentAnimation() : null;
+            Mesh[] meshes = gameItem.getMeshes();
+            for (int i = 0; i < meshes.length; i++) {
+                boolean hit;
+                if (animation != null && animation.getBoundsMin() != null) {
+                    hit = Intersectionf.intersectRayAab(localOrigin, localDir, animation.getBoundsMin(),
+                            animation.getBoundsMax(), nearFar);
+                } else {
+                    hit = Intersectionf.intersectRayAab(localOrigin, localDir, meshes[i].getAabbMin(),
+                            meshes[i].getAabbMax(), nearFar);
+                }
+                if (!hit) {
+                    continue;
+                }
+                visibility.set(VisibilitySet.VIEW_PICKING, gameItem, i);
+                if (nearFar.x < closestDistance) {
+                    closestDistance = nearFar.x;
+                    selectedGameItem = gameItem;
+                }
+            }
+        }
+        candidates.clear();
+
+        if (selectedGameItem != null) {
+            selectedGameItem.setSelected(true);
+            return true;
+        }
+        return false;
     }
 
     public void selectGameItem(GameItem[] gameItems, Camera camera) {        
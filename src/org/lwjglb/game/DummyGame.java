@@ -12,6 +12,7 @@ import org.lwjgl.assimp.AIQuaternion;
 import static org.lwjgl.glfw.GLFW.*;
 import org.lwjglb.engine.IGameLogic;
 import org.lwjglb.engine.MouseInput;
+import org.lwjglb.engine.RenderSnapshot;
 import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.SceneLight;
 import org.lwjglb.engine.Utils;
@@ -26,6 +27,8 @@ import org.lwjglb.engine.graph.weather.Fog;
 import org.lwjglb.engine.items.GameItem;
 import org.lwjglb.engine.items.SkyBox;
 import org.lwjglb.engine.loaders.assimp.AnimMeshesLoader;
+import org.lwjglb.engine.graph.lod.MeshLodGenerator;
+import org.lwjglb.engine.graph.profiler.FrameProfiler;
 import org.lwjglb.engine.loaders.assimp.StaticMeshesLoader;
 
 public class DummyGame implements IGameLogic {
@@ -38,6 +41,26 @@ public class DummyGame implements IGameLogic {
 
     private final Camera camera;
 
+    /**
+     * Camera the scene is drawn with, interpolated between updates or copied
+     * from the snapshots when the engine is pipelined.
+     */
+    private final Camera renderCamera;
+
+    private final Vector3f previousCameraPosition;
+
+    private final Vector3f previousCameraRotation;
+
+    private final Vector3f previousLightDirection;
+
+    /**
+     * Lights as updated by the simulation, the ones in the scene belong to
+     * the renderer.
+     */
+    private SceneLight sceneLight;
+
+    private int animationFrame;
+
     private Scene scene;
 
     private static final float CAMERA_POS_STEP = 0.40f;
@@ -46,40 +69,63 @@ public class DummyGame implements IGameLogic {
 
     private float lightAngle;
 
-    private boolean firstTime;
-
-    private boolean sceneChanged;
-
     private Animation animation;
 
     private AnimGameItem animItem;
 
     private GameItem[] gameItems;
 
+    private Hud hud;
+
+    /**
+     * Toggled from input, which runs on the update thread when the engine is pipelined.
+     */
+    private volatile boolean showProfiler;
+
+    private boolean profilerKeyDown;
+
+    private boolean traceKeyDown;
+
     public DummyGame() {
         renderer = new Renderer();
         camera = new Camera();
+        renderCamera = new Camera();
+        previousCameraPosition = new Vector3f();
+        previousCameraRotation = new Vector3f();
+        previousLightDirection = new Vector3f();
         cameraInc = new Vector3f(0.0f, 0.0f, 0.0f);
         angleInc = 0;
         lightAngle = 90;
-        firstTime = true;
     }
 
     @Override
     public void init(EWindow EWindow) throws Exception {
         renderer.init(EWindow);
 
+        hud = new Hud();
+        try {
+            hud.init(EWindow);
+        } catch (Exception excp) {
+            // The overlay is optional, run without it when its font is not available
+            System.err.println("Profiler overlay disabled: " + excp);
+            hud = null;
+        }
+
         scene = new Scene();
+        MeshLodGenerator lodGenerator = new MeshLodGenerator(MeshLodGenerator.DEFAULT_NUM_LEVELS,
+                MeshLodGenerator.DEFAULT_REDUCTION, "./cache/lod");
         File file = new File("./source/models/terrain/terrain.obj");
-        Mesh[] terrainMesh = StaticMeshesLoader.load(file.getAbsolutePath(), "./source/models/terrain");
+        Mesh[] terrainMesh = StaticMeshesLoader.load(file.getAbsolutePath(), "./source/models/terrain", lodGenerator);
         GameItem terrain = new GameItem(terrainMesh);
         terrain.setScale(100.0f);
+        terrain.setStatic(true);
         
         file = new File("./source/models/house/house.obj");
-        Mesh[] mesh = StaticMeshesLoader.load(file.getAbsolutePath(), "./source/models/house");
+        Mesh[] mesh = StaticMeshesLoader.load(file.getAbsolutePath(), "./source/models/house", lodGenerator);
         GameItem house = new GameItem(mesh);
         house.setScale(0.2f);
         house.setPosition(-4f, 0f, 0f);
+        house.setStatic(true);
         
         file = new File("./source/models/bob/boblamp.md5mesh");
         
@@ -132,6 +178,13 @@ public class DummyGame implements IGameLogic {
         camera.getPosition().z = 4.5f;
         camera.getRotation().x = 15.0f;
         camera.getRotation().y = 390.0f;
+        savePreviousState();
+    }
+
+    private void savePreviousState() {
+        previousCameraPosition.set(camera.getPosition());
+        previousCameraRotation.set(camera.getRotation());
+        previousLightDirection.set(sceneLight.getDirectionalLight().getDirection());
     }
 
     private void setupLights() {
@@ -147,70 +200,88 @@ public class DummyGame implements IGameLogic {
         Vector3f lightDirection = new Vector3f(0, 1, 1);
         DirectionalLight directionalLight = new DirectionalLight(new Vector3f(1, 1, 1), lightDirection, lightIntensity);
         sceneLight.setDirectionalLight(directionalLight);
+
+        this.sceneLight = new SceneLight();
+        this.sceneLight.setAmbientLight(new Vector3f(sceneLight.getAmbientLight()));
+        this.sceneLight.setDirectionalLight(new DirectionalLight(directionalLight));
     }
 
     @Override
     public void input(EWindow EWindow, MouseInput mouseInput) {
-        sceneChanged = false;
         cameraInc.set(0, 0, 0);
         if (EWindow.isKeyPressed(GLFW_KEY_W)) {
-            sceneChanged = true;
             cameraInc.z = -1;
         } else if (EWindow.isKeyPressed(GLFW_KEY_S)) {
-            sceneChanged = true;
             cameraInc.z = 1;
         }
         if (EWindow.isKeyPressed(GLFW_KEY_A)) {
-            sceneChanged = true;
             cameraInc.x = -1;
         } else if (EWindow.isKeyPressed(GLFW_KEY_D)) {
-            sceneChanged = true;
             cameraInc.x = 1;
         }
         if (EWindow.isKeyPressed(GLFW_KEY_Z)) {
-            sceneChanged = true;
             cameraInc.y = -1;
         } else if (EWindow.isKeyPressed(GLFW_KEY_X)) {
-            sceneChanged = true;
             cameraInc.y = 1;
         }
         if (EWindow.isKeyPressed(GLFW_KEY_UP)) {
-            sceneChanged = true;
  
             cameraInc.x = 1;
             cameraInc.y = -1;
             cameraInc.z = 1;
 
         } else if (EWindow.isKeyPressed(GLFW_KEY_DOWN)) {
-            sceneChanged = true;
             cameraInc.x = -1;
             cameraInc.y = 1;
             cameraInc.z = -1;
         }
         if (EWindow.isKeyPressed(GLFW_KEY_LEFT)) {
-            sceneChanged = true;
             angleInc -= 0.05f;
         } else if (EWindow.isKeyPressed(GLFW_KEY_RIGHT)) {
-            sceneChanged = true;
             angleInc += 0.05f;
         } else {
             angleInc = 0;            
         }
+        boolean profilerKey = EWindow.isKeyPressed(GLFW_KEY_F3);
+        if (profilerKey && !profilerKeyDown) {
+            showProfiler = !showProfiler;
+        }
+        profilerKeyDown = profilerKey;
+        boolean traceKey = EWindow.isKeyPressed(GLFW_KEY_F12);
+        if (traceKey && !traceKeyDown) {
+            dumpTrace();
+        }
+        traceKeyDown = traceKey;
+
         if (EWindow.isKeyPressed(GLFW_KEY_SPACE)) {
-            sceneChanged = true;
-            animation.nextFrame();
+            nextAnimationFrame();
         }
         
-        animation.nextFrame();
+        nextAnimationFrame();
+    }
+
+    private void dumpTrace() {
+        String fileName = "profile-" + System.currentTimeMillis() + ".json";
+        try {
+            renderer.getProfiler().writeChromeTrace(fileName);
+            System.out.println("Profile written to " + fileName);
+        } catch (Exception excp) {
+            excp.printStackTrace();
+        }
+    }
+
+    private void nextAnimationFrame() {
+        animationFrame = (animationFrame + 1) % animation.getFrames().size();
     }
 
     @Override
     public void update(float interval, MouseInput mouseInput, EWindow EWindow) {
+        savePreviousState();
+
         if (mouseInput.isRightButtonPressed()) {
             // Update camera based on mouse            
             Vector2f rotVec = mouseInput.getDisplVec();
             camera.moveRotation(rotVec.x * MOUSE_SENSITIVITY, rotVec.y * MOUSE_SENSITIVITY, 0);
-            sceneChanged = true;
         }
 
         // Update camera position
@@ -224,7 +295,7 @@ public class DummyGame implements IGameLogic {
         }
         float zValue = (float) Math.cos(Math.toRadians(lightAngle));
         float yValue = (float) Math.sin(Math.toRadians(lightAngle));
-        Vector3f lightDirection = this.scene.getSceneLight().getDirectionalLight().getDirection();
+        Vector3f lightDirection = sceneLight.getDirectionalLight().getDirection();
         lightDirection.x = 0;
         lightDirection.y = yValue;
         lightDirection.z = zValue;
@@ -236,16 +307,52 @@ public class DummyGame implements IGameLogic {
 
     @Override
     public void render(EWindow EWindow) {
-        if (firstTime) {
-            sceneChanged = true;
-            firstTime = false;
+        render(EWindow, 1.0f);
+    }
+
+    @Override
+    public void render(EWindow EWindow, float alpha) {
+        previousCameraPosition.lerp(camera.getPosition(), alpha, renderCamera.getPosition());
+        previousCameraRotation.lerp(camera.getRotation(), alpha, renderCamera.getRotation());
+        renderCamera.updateViewMatrix();
+        Vector3f lightDirection = scene.getSceneLight().getDirectionalLight().getDirection();
+        previousLightDirection.lerp(sceneLight.getDirectionalLight().getDirection(), alpha, lightDirection).normalize();
+        animation.setCurrentFrameIndex(animationFrame);
+        renderer.render(EWindow, renderCamera, scene);
+        renderHud(EWindow);
+    }
+
+    private void renderHud(EWindow EWindow) {
+        if (hud != null && showProfiler) {
+            FrameProfiler profiler = renderer.getProfiler();
+            profiler.begin(FrameProfiler.Pass.HUD);
+            hud.renderProfiler(EWindow, profiler);
+            profiler.end(FrameProfiler.Pass.HUD);
         }
-        renderer.render(EWindow, camera, scene, sceneChanged);
+    }
+
+    @Override
+    public void snapshot(RenderSnapshot snapshot) {
+        snapshot.setCamera(camera);
+        snapshot.setLights(sceneLight);
+        snapshot.setAnimationFrame(0, animationFrame);
+    }
+
+    @Override
+    public void render(EWindow EWindow, RenderSnapshot snapshot) {
+        snapshot.applyCamera(renderCamera);
+        snapshot.applyLights(scene.getSceneLight());
+        animation.setCurrentFrameIndex(snapshot.getAnimationFrame(0));
+        renderer.render(EWindow, renderCamera, scene);
+        renderHud(EWindow);
     }
 
     @Override
     public void cleanup() {
         renderer.cleanup();
+        if (hud != null) {
+            hud.cleanup();
+        }
 
         scene.cleanup();
     }
@@ -13,11 +13,22 @@ import org.lwjgl.system.MemoryUtil;
 import static org.lwjgl.system.MemoryUtil.NULL;
 import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.EWindow;
+import org.lwjglb.engine.graph.profiler.FrameProfiler;
+import org.lwjglb.engine.graph.profiler.FrameTimings;
 
 public class Hud {
 
     private static final String FONT_NAME = "BOLD";
 
+    /**
+     * Width, in pixels, of a millisecond in the profiler chart.
+     */
+    private static final float PROFILER_PIXELS_PER_MS = 40.0f;
+
+    private static final float PROFILER_BAR_HEIGHT = 8.0f;
+
+    private static final float PROFILER_LABEL_WIDTH = 130.0f;
+
     private long vg;
 
     private NVGColor colour;
@@ -32,6 +43,8 @@ public class Hud {
 
     private int counter;
 
+    private final FrameTimings timings = new FrameTimings();
+
     public void init(EWindow EWindow) throws Exception {
         this.vg = EWindow.getOptions().antialiasing ? nvgCreate(NVG_ANTIALIAS | NVG_STENCIL_STROKES) : nvgCreate(NVG_STENCIL_STROKES);
         if (this.vg == NULL) {
@@ -105,6 +118,68 @@ public class Hud {
         EWindow.restoreState();
     }
 
+    /**
+     * Draws the CPU and GPU times of the passes of the latest frame measured
+     * by the profiler as a bar chart, in the upper left corner.
+     *
+     * @param EWindow The window
+     * @param profiler The profiler
+     */
+    public void renderProfiler(EWindow EWindow, FrameProfiler profiler) {
+        if (!profiler.getLatest(timings)) {
+            return;
+        }
+        FrameProfiler.Pass[] passes = FrameProfiler.Pass.values();
+        float rowHeight = 2 * PROFILER_BAR_HEIGHT + 4;
+        float x = 10;
+        float y = 10;
+
+        nvgBeginFrame(vg, EWindow.getWidth(), EWindow.getHeight(), 1);
+
+        nvgBeginPath(vg);
+        nvgRect(vg, x - 5, y - 5, PROFILER_LABEL_WIDTH + 16 * PROFILER_PIXELS_PER_MS + 10, (passes.length + 1) * rowHeight + 10);
+        nvgFillColor(vg, rgba(0x00, 0x00, 0x00, 160, colour));
+        nvgFill(vg);
+
+        nvgFontSize(vg, 14.0f);
+        nvgFontFace(vg, FONT_NAME);
+        nvgTextAlign(vg, NVG_ALIGN_LEFT | NVG_ALIGN_TOP);
+
+        long totalCpu = 0;
+        long totalGpu = 0;
+        for (FrameProfiler.Pass pass : passes) {
+            long cpuTime = timings.getCpuTime(pass);
+            long gpuTime = timings.getGpuTime(pass);
+            totalCpu += Math.max(cpuTime, 0);
+            totalGpu += Math.max(gpuTime, 0);
+
+            nvgFillColor(vg, rgba(0xe6, 0xea, 0xed, 255, colour));
+            nvgText(vg, x, y, pass.name());
+            renderProfilerBar(x + PROFILER_LABEL_WIDTH, y, cpuTime, rgba(0x23, 0xa1, 0xf1, 255, colour));
+            renderProfilerBar(x + PROFILER_LABEL_WIDTH, y + PROFILER_BAR_HEIGHT, gpuTime, rgba(0xf1, 0x8a, 0x23, 255, colour));
+            y += rowHeight;
+        }
+        nvgFillColor(vg, rgba(0xe6, 0xea, 0xed, 255, colour));
+        nvgText(vg, x, y, String.format("FRAME %d  CPU %.2f ms  GPU %.2f ms", timings.getFrame(),
+                totalCpu / 1000_000.0f, totalGpu / 1000_000.0f));
+
+        nvgEndFrame(vg);
+
+        // Restore state
+        EWindow.restoreState();
+    }
+
+    private void renderProfilerBar(float x, float y, long nanos, NVGColor colour) {
+        if (nanos <= 0) {
+            return;
+        }
+        float width = Math.min(nanos / 1000_000.0f * PROFILER_PIXELS_PER_MS, 16 * PROFILER_PIXELS_PER_MS);
+        nvgBeginPath(vg);
+        nvgRect(vg, x, y, Math.max(width, 1), PROFILER_BAR_HEIGHT - 1);
+        nvgFillColor(vg, colour);
+        nvgFill(vg);
+    }
+
     public void incCounter() {
         counter++;
         if (counter > 99) {
@@ -3,6 +3,7 @@ package org.lwjglb.game;
 import org.lwjglb.engine.GameEngine;
 import org.lwjglb.engine.IGameLogic;
 import org.lwjglb.engine.EWindow;
+import org.lwjglb.engine.graph.AutoInstancer;
 
 public class Main {
 
@@ -16,6 +17,11 @@ public class Main {
             opts.compatibleProfile = true;
             opts.antialiasing = true;
             opts.frustumCulling = false;
+            opts.parallelFrustumCulling = false;
+            opts.pipelined = false;
+            opts.multiDrawIndirect = true;
+            opts.autoInstanceThreshold = AutoInstancer.DEFAULT_MIN_INSTANCES;
+            parseArgs(args, opts);
             GameEngine gameEng = new GameEngine("GAME", vSync, opts, gameLogic);
             gameEng.start();
         } catch (Exception excp) {
@@ -23,4 +29,43 @@ public class Main {
             System.exit(-1);
         }
     }
+
+    private static void parseArgs(String[] args, EWindow.EWindowOptions opts) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--headless":
+                    opts.headless = true;
+                    break;
+                case "--replay":
+                    opts.replayTrace = optionValue(args, i++);
+                    break;
+                case "--frames":
+                    String frames = optionValue(args, i++);
+                    try {
+                        opts.replayFrames = Integer.parseInt(frames);
+                    } catch (NumberFormatException nfe) {
+                        throw new IllegalArgumentException("Invalid number of frames for --frames: " + frames, nfe);
+                    }
+                    break;
+                case "--out":
+                    opts.replayOutput = optionValue(args, i++);
+                    break;
+                case "--hashes":
+                    opts.frameHashes = true;
+                    break;
+                case "--record":
+                    opts.recordTrace = optionValue(args, i++);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+    }
+
+    private static String optionValue(String[] args, int i) {
+        if (i + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i]);
+        }
+        return args[i + 1];
+    }
 }
@@ -7,6 +7,7 @@ import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjglb.engine.EWindow;
+import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.graph.Camera;
 import org.lwjglb.engine.items.GameItem;
 
@@ -29,6 +30,16 @@ public class MouseBoxSelectionDetector extends CameraBoxSelectionDetector {
     }
     
     public boolean selectGameItem(GameItem[] gameItems, EWindow EWindow, Vector2d mousePos, Camera camera) {
+        calcMouseDir(EWindow, mousePos, camera);
+        return selectGameItem(gameItems, camera.getPosition(), mouseDir);
+    }
+
+    public boolean selectGameItem(Scene scene, EWindow EWindow, Vector2d mousePos, Camera camera) {
+        calcMouseDir(EWindow, mousePos, camera);
+        return selectGameItem(scene, camera.getPosition(), mouseDir);
+    }
+
+    private void calcMouseDir(EWindow EWindow, Vector2d mousePos, Camera camera) {
         // Transform mouse coordinates into normalized spaze [-1, 1]
         int wdwWitdh = EWindow.getWidth();
         int wdwHeight = EWindow.getHeight();
@@ -51,7 +62,5 @@ public class MouseBoxSelectionDetector extends CameraBoxSelectionDetector {
         tmpVec.mul(invViewMatrix);
         
         mouseDir.set(tmpVec.x, tmpVec.y, tmpVec.z);
-
-        return selectGameItem(gameItems, camera.getPosition(), mouseDir);
     }
 }